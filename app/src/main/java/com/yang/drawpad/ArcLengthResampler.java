@@ -0,0 +1,109 @@
+package com.yang.drawpad;
+
+import java.util.Arrays;
+
+/**
+ * Resamples a stream of touch samples to points at equal arc length.
+ * <p/>
+ * The samples are joined by straight lines and a point is emitted every
+ * spacing along them, so a fast stroke gets points interpolated across the
+ * gaps between its samples and a slow one does not pile them up. The number of
+ * points of a stroke is its length divided by the spacing.
+ */
+public class ArcLengthResampler {
+    private float spacing = 1F;
+
+    // the points emitted by the last call
+    private float[] points = new float[32];
+    private int pointCount = 0;
+
+    private boolean started = false;
+    private float lastX;
+    private float lastY;
+    // the last emitted point
+    private float emittedX;
+    private float emittedY;
+    // arc length left to walk before the next point
+    private float toNext;
+
+    /**
+     * start a new stroke, the first sample is emitted as it is
+     *
+     * @param spacing the distance between two points, at least 1e-3
+     */
+    public void reset(float spacing) {
+        this.spacing = Math.max(1e-3F, spacing);
+        this.started = false;
+        this.pointCount = 0;
+    }
+
+    public float getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * add a sample
+     *
+     * @param x
+     * @param y
+     * @return the number of points emitted, see getPoints
+     */
+    public int add(float x, float y) {
+        pointCount = 0;
+        if (!started) {
+            started = true;
+            emit(x, y);
+            toNext = spacing;
+        } else {
+            float dx = x - lastX;
+            float dy = y - lastY;
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            float t = toNext;
+            while (t <= length) {
+                emit(lastX + dx * t / length, lastY + dy * t / length);
+                t += spacing;
+            }
+            toNext = t - length;
+        }
+        lastX = x;
+        lastY = y;
+        return pointCount;
+    }
+
+    /**
+     * emit the last sample if it is not where the last point is, at the end of a stroke
+     *
+     * @return the number of points emitted, see getPoints
+     */
+    public int finish() {
+        pointCount = 0;
+        if (started && (lastX != emittedX || lastY != emittedY)) {
+            emit(lastX, lastY);
+            toNext = spacing;
+        }
+        return pointCount;
+    }
+
+    /**
+     * @return the points emitted by the last call, {x0, y0, x1, y1, ...},
+     * valid until the next call
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    private void emit(float x, float y) {
+        if (2 * pointCount + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[2 * pointCount] = x;
+        points[2 * pointCount + 1] = y;
+        pointCount++;
+        emittedX = x;
+        emittedY = y;
+    }
+}
@@ -3,6 +3,8 @@ package com.yang.drawpad;
 import android.graphics.Path;
 import android.graphics.PointF;
 
+import java.util.Arrays;
+
 /**
  * Created by lyang on 12/31/15.
  */
@@ -12,6 +14,20 @@ public class BezierCurveConstructor {
     PointF previousPoint;
     int pointCounter = 0;
 
+    // event time of the newest sample added to the path,
+    // read by the draw thread to measure input latency
+    volatile long lastEventTime = 0;
+
+    // where the constructed path currently ends
+    float endX;
+    float endY;
+
+    // the segment appended by the last addPoint, null if none
+    Path lastSegment;
+
+    // every point added, {x0, y0, x1, y1, ...}
+    float[] points = new float[64];
+
     public BezierCurveConstructor() {
         reset();
     }
@@ -23,29 +39,95 @@ public class BezierCurveConstructor {
     public void reset() {
         path = new Path();
         pointCounter = 0;
+        lastEventTime = 0;
+        lastSegment = null;
+    }
+
+    /**
+     * add a point, stamped with the event time of its MotionEvent
+     *
+     * @param x
+     * @param y
+     * @param eventTime MotionEvent.getEventTime() of the sample
+     */
+    public void addPoint(float x, float y, long eventTime) {
+        addPoint(x, y);
+        lastEventTime = eventTime;
+    }
+
+    /**
+     * @return the event time of the newest sample in the path, 0 if not stamped
+     */
+    public long getLastEventTime() {
+        return lastEventTime;
     }
 
 
     public void addPoint(float x, float y) {
 
+        if (2 * pointCounter + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[2 * pointCounter] = x;
+        points[2 * pointCounter + 1] = y;
+
         pointCounter++;
         if (pointCounter == 1) {
             path.moveTo(x, y);
             previousPoint = new PointF(x, y);
+            endX = x;
+            endY = y;
+            lastSegment = null;
             return;
         }
 
 
         PointF mid = new PointF((x + previousPoint.x) / 2.0f, (y + previousPoint.y) / 2.0f);
 
+        lastSegment = new Path();
+        lastSegment.moveTo(endX, endY);
         if (pointCounter < 3) {
             path.lineTo(mid.x, mid.y);
+            lastSegment.lineTo(mid.x, mid.y);
         } else {
             path.quadTo(previousPoint.x, previousPoint.y, mid.x, mid.y);
+            lastSegment.quadTo(previousPoint.x, previousPoint.y, mid.x, mid.y);
         }
+        endX = mid.x;
+        endY = mid.y;
         previousPoint = new PointF(x, y);
     }
 
+    /**
+     * @return x of the end of the constructed path
+     */
+    public float getEndX() {
+        return endX;
+    }
+
+    /**
+     * @return y of the end of the constructed path
+     */
+    public float getEndY() {
+        return endY;
+    }
+
+    /**
+     * the segment appended to the path by the last addPoint, as a path of its own
+     *
+     * @return null if the last point did not append a segment
+     */
+    public Path getLastSegment() {
+        return lastSegment;
+    }
+
+    /**
+     * @return a copy of the points added since the last reset, {x0, y0, x1, y1, ...}
+     */
+    public float[] getPoints() {
+        return Arrays.copyOf(points, 2 * pointCounter);
+    }
+
     /**
      * construct path by points
      *
@@ -0,0 +1,288 @@
+package com.yang.drawpad;
+
+import java.util.Arrays;
+
+/**
+ * Turns lines, quadratic and cubic bezier segments into polylines by adaptive
+ * subdivision.
+ * <p/>
+ * A cubic is split in halves until it is flat, i.e. no point of it is farther
+ * than the tolerance from its chord. The tolerance is given in screen pixels
+ * and divided by the zoom, so a zoomed out view gets far fewer points than a
+ * zoomed in one. The points go into buffers which are reused from one call of
+ * reset to the next, and the subdivision uses a fixed stack instead of recursion.
+ */
+public class BezierFlattener {
+    public static final float DEFAULT_TOLERANCE = 0.25F;   // screen pixel
+    // a cubic is split at most this many times, 2^MAX_DEPTH lines
+    private static final int MAX_DEPTH = 16;
+    // 4 / 3 * (sqrt(2) - 1), the control arm of a quarter circle
+    private static final float KAPPA = 0.5522848F;
+
+    private float toleranceSquared;
+
+    // {x0, y0, x1, y1, ...}
+    private float[] points = new float[256];
+    private int size = 0;
+    // the index of the first point of each contour
+    private int[] contourStarts = new int[8];
+    private int contourCount = 0;
+
+    // the pending cubics and their depth, the last one is split next
+    private final float[] stack = new float[8 * (MAX_DEPTH + 1)];
+    private final int[] depths = new int[MAX_DEPTH + 1];
+
+    public BezierFlattener() {
+        setTolerance(DEFAULT_TOLERANCE, 1F);
+    }
+
+    /**
+     * @param screenPixels the largest distance of the polyline to the curve on the screen
+     * @param scale        the zoom, screen pixels per canvas pixel
+     */
+    public void setTolerance(float screenPixels, float scale) {
+        float tolerance = screenPixels / scale;
+        this.toleranceSquared = tolerance * tolerance;
+    }
+
+    /**
+     * forget the points, the buffers are kept
+     */
+    public void reset() {
+        size = 0;
+        contourCount = 0;
+    }
+
+    public void moveTo(float x, float y) {
+        if (contourCount == 0 || contourStarts[contourCount - 1] < size / 2) {
+            startContour();
+        }
+        add(x, y);
+    }
+
+    public void lineTo(float x, float y) {
+        add(x, y);
+    }
+
+    public void quadTo(float cx, float cy, float x, float y) {
+        float x0 = points[size - 2];
+        float y0 = points[size - 1];
+        // the same curve as a cubic
+        cubicTo(x0 + 2F / 3F * (cx - x0), y0 + 2F / 3F * (cy - y0),
+                x + 2F / 3F * (cx - x), y + 2F / 3F * (cy - y), x, y);
+    }
+
+    public void cubicTo(float c1x, float c1y, float c2x, float c2y, float x, float y) {
+        float[] s = stack;
+        s[0] = points[size - 2];
+        s[1] = points[size - 1];
+        s[2] = c1x;
+        s[3] = c1y;
+        s[4] = c2x;
+        s[5] = c2y;
+        s[6] = x;
+        s[7] = y;
+        depths[0] = 0;
+        int top = 0;
+
+        while (top >= 0) {
+            int k = 8 * top;
+            int depth = depths[top];
+            if (depth >= MAX_DEPTH || isFlat(s, k)) {
+                add(s[k + 6], s[k + 7]);
+                top--;
+                continue;
+            }
+
+            // de Casteljau at 1/2, the left half goes on top of the right one
+            float p01x = (s[k] + s[k + 2]) / 2F, p01y = (s[k + 1] + s[k + 3]) / 2F;
+            float p12x = (s[k + 2] + s[k + 4]) / 2F, p12y = (s[k + 3] + s[k + 5]) / 2F;
+            float p23x = (s[k + 4] + s[k + 6]) / 2F, p23y = (s[k + 5] + s[k + 7]) / 2F;
+            float p012x = (p01x + p12x) / 2F, p012y = (p01y + p12y) / 2F;
+            float p123x = (p12x + p23x) / 2F, p123y = (p12y + p23y) / 2F;
+            float midX = (p012x + p123x) / 2F, midY = (p012y + p123y) / 2F;
+
+            int r = k + 8;
+            s[r] = s[k];
+            s[r + 1] = s[k + 1];
+            s[r + 2] = p01x;
+            s[r + 3] = p01y;
+            s[r + 4] = p012x;
+            s[r + 5] = p012y;
+            s[r + 6] = midX;
+            s[r + 7] = midY;
+
+            // the end point stays
+            s[k] = midX;
+            s[k + 1] = midY;
+            s[k + 2] = p123x;
+            s[k + 3] = p123y;
+            s[k + 4] = p23x;
+            s[k + 5] = p23y;
+
+            depths[top] = depth + 1;
+            depths[top + 1] = depth + 1;
+            top++;
+        }
+    }
+
+    /**
+     * back to the start of the contour
+     */
+    public void close() {
+        int start = contourCount == 0 ? 0 : 2 * contourStarts[contourCount - 1];
+        if (size > start) {
+            add(points[start], points[start + 1]);
+        }
+    }
+
+    /**
+     * a bound on the distance of the cubic to its chord, by Roger Willcocks
+     */
+    private boolean isFlat(float[] s, int k) {
+        float ux = 3F * s[k + 2] - 2F * s[k] - s[k + 6];
+        float uy = 3F * s[k + 3] - 2F * s[k + 1] - s[k + 7];
+        float vx = 3F * s[k + 4] - s[k] - 2F * s[k + 6];
+        float vy = 3F * s[k + 5] - s[k + 1] - 2F * s[k + 7];
+        ux *= ux;
+        uy *= uy;
+        vx *= vx;
+        vy *= vy;
+        return Math.max(ux, vx) + Math.max(uy, vy) <= 16F * toleranceSquared;
+    }
+
+    /**
+     * the outline a stroke record is drawn along, the width not included
+     *
+     * @param stroke
+     */
+    public void flatten(StrokeRecord stroke) {
+        float[] p = stroke.getPoints();
+        int n = stroke.getPointCount();
+        if (n == 0) {
+            return;
+        }
+
+        if (stroke.isFitted()) {
+            moveTo(p[0], p[1]);
+            for (int i = 2; i + 5 < 2 * n; i += 6) {
+                cubicTo(p[i], p[i + 1], p[i + 2], p[i + 3], p[i + 4], p[i + 5]);
+            }
+            return;
+        }
+
+        switch (stroke.getDrawer()) {
+            case SMOOTH_PEN:
+                // as BezierCurveConstructor: through the midpoints, the samples as controls
+                moveTo(p[0], p[1]);
+                for (int i = 1; i < n; i++) {
+                    float midX = (p[2 * i - 2] + p[2 * i]) / 2F;
+                    float midY = (p[2 * i - 1] + p[2 * i + 1]) / 2F;
+                    if (i < 2) {
+                        lineTo(midX, midY);
+                    } else {
+                        quadTo(p[2 * i - 2], p[2 * i - 1], midX, midY);
+                    }
+                }
+                break;
+            case LINE:
+                moveTo(p[0], p[1]);
+                lineTo(p[2], p[3]);
+                break;
+            case RECTANGLE:
+                rectangle(p[0], p[1], p[2], p[3]);
+                break;
+            case CIRCLE:
+                float radius = (float) Math.hypot(p[2] - p[0], p[3] - p[1]);
+                oval(p[0] - radius, p[1] - radius, p[0] + radius, p[1] + radius);
+                break;
+            case ELLIPSE:
+                oval(p[0], p[1], p[2], p[3]);
+                break;
+            case QUADRATIC_BEZIER:
+            case QUBIC_BEZIER:
+                moveTo(p[0], p[1]);
+                quadTo(p[2], p[3], p[4], p[5]);
+                break;
+            case BUCKET:
+                for (int i = 0; i + 1 < n; i += 2) {
+                    rectangle(p[2 * i], p[2 * i + 1], p[2 * i + 2], p[2 * i + 3]);
+                }
+                break;
+            default:
+                // the samples, for the variable pen its center line
+                moveTo(p[0], p[1]);
+                for (int i = 1; i < n; i++) {
+                    lineTo(p[2 * i], p[2 * i + 1]);
+                }
+                break;
+        }
+    }
+
+    private void rectangle(float left, float top, float right, float bottom) {
+        moveTo(left, top);
+        lineTo(right, top);
+        lineTo(right, bottom);
+        lineTo(left, bottom);
+        close();
+    }
+
+    private void oval(float left, float top, float right, float bottom) {
+        float cx = (left + right) / 2F;
+        float cy = (top + bottom) / 2F;
+        float rx = (right - left) / 2F;
+        float ry = (bottom - top) / 2F;
+        moveTo(right, cy);
+        cubicTo(right, cy + KAPPA * ry, cx + KAPPA * rx, bottom, cx, bottom);
+        cubicTo(cx - KAPPA * rx, bottom, left, cy + KAPPA * ry, left, cy);
+        cubicTo(left, cy - KAPPA * ry, cx - KAPPA * rx, top, cx, top);
+        cubicTo(cx + KAPPA * rx, top, right, cy - KAPPA * ry, right, cy);
+    }
+
+    private void startContour() {
+        if (contourCount == contourStarts.length) {
+            contourStarts = Arrays.copyOf(contourStarts, contourStarts.length * 2);
+        }
+        contourStarts[contourCount++] = size / 2;
+    }
+
+    private void add(float x, float y) {
+        if (size + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[size++] = x;
+        points[size++] = y;
+    }
+
+    /**
+     * @return the points of every contour, {x0, y0, x1, y1, ...},
+     * valid until the next call of reset
+     */
+    public float[] getPoints() {
+        return points;
+    }
+
+    public int getPointCount() {
+        return size / 2;
+    }
+
+    public int getContourCount() {
+        return contourCount;
+    }
+
+    /**
+     * @param contour
+     * @return the index of the first point of the contour
+     */
+    public int getContourStart(int contour) {
+        return contourStarts[contour];
+    }
+
+    /**
+     * @param contour
+     * @return the index after the last point of the contour
+     */
+    public int getContourEnd(int contour) {
+        return contour + 1 < contourCount ? contourStarts[contour + 1] : size / 2;
+    }
+}
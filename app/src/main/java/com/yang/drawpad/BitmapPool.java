@@ -0,0 +1,91 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released ARGB_8888 bitmaps to hand them out again, so an offscreen
+ * buffer which is needed on every stroke is not allocated on every stroke.
+ * <p/>
+ * The sizes are rounded up to a multiple of BUCKET_SIZE, so a buffer fits the
+ * next requests of about the same size. The released bitmaps are bounded by a
+ * byte budget, the oldest are recycled first. The last one released is always
+ * kept, even over the budget, so a buffer of the whole canvas is reused too.
+ * The pool is not thread safe, it is used by the draw thread only.
+ */
+public class BitmapPool {
+    public static final int BUCKET_SIZE = 128;
+    public static final int DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+
+    private final int byteBudget;
+    private int bytesFree = 0;
+    // oldest first
+    private final List<Bitmap> free = new ArrayList<Bitmap>();
+
+    public BitmapPool() {
+        this(DEFAULT_BYTE_BUDGET);
+    }
+
+    public BitmapPool(int byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * a cleared bitmap at least this large, the smallest one released which fits
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public Bitmap acquire(int width, int height) {
+        int best = -1;
+        for (int i = 0; i < free.size(); i++) {
+            Bitmap bitmap = free.get(i);
+            if (bitmap.getWidth() >= width && bitmap.getHeight() >= height
+                    && (best < 0 || getBytes(bitmap) < getBytes(free.get(best)))) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return Bitmap.createBitmap(roundUp(width), roundUp(height), Bitmap.Config.ARGB_8888);
+        }
+        Bitmap bitmap = free.remove(best);
+        bytesFree -= getBytes(bitmap);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * hand a bitmap back, it must not be used afterwards
+     *
+     * @param bitmap
+     */
+    public void release(Bitmap bitmap) {
+        free.add(bitmap);
+        bytesFree += getBytes(bitmap);
+        while (bytesFree > byteBudget && free.size() > 1) {
+            Bitmap oldest = free.remove(0);
+            bytesFree -= getBytes(oldest);
+            oldest.recycle();
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < free.size(); i++) {
+            free.get(i).recycle();
+        }
+        free.clear();
+        bytesFree = 0;
+    }
+
+    private static int roundUp(int size) {
+        return Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE) * BUCKET_SIZE;
+    }
+
+    private static int getBytes(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,87 @@
+package com.yang.drawpad;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * An immutable snapshot of the brush settings.
+ * <p/>
+ * The tool UI publishes a new snapshot for every change, and a stroke samples
+ * one snapshot when it starts, so changing a setting in the middle of a stroke
+ * never mixes old and new values in its paint.
+ */
+public final class BrushSpec {
+    public static final BrushSpec DEFAULT = new BrushSpec(SurfaceCanvasView.Drawer.SMOOTH_PEN,
+            Color.BLACK, 3F, 255, 0F, Paint.Cap.ROUND);
+
+    private final SurfaceCanvasView.Drawer drawer;
+    private final int color;
+    private final float width;
+    private final int opacity;
+    private final float blur;
+    private final Paint.Cap cap;
+
+    public BrushSpec(SurfaceCanvasView.Drawer drawer, int color, float width, int opacity,
+                     float blur, Paint.Cap cap) {
+        this.drawer = drawer;
+        this.color = color;
+        this.width = width;
+        this.opacity = opacity;
+        this.blur = blur;
+        this.cap = cap;
+    }
+
+    public SurfaceCanvasView.Drawer getDrawer() {
+        return drawer;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public int getOpacity() {
+        return opacity;
+    }
+
+    public float getBlur() {
+        return blur;
+    }
+
+    public Paint.Cap getCap() {
+        return cap;
+    }
+
+    public BrushSpec withDrawer(SurfaceCanvasView.Drawer drawer) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    public BrushSpec withColor(int color) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    public BrushSpec withWidth(float width) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    public BrushSpec withOpacity(int opacity) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    public BrushSpec withBlur(float blur) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    public BrushSpec withCap(Paint.Cap cap) {
+        return new BrushSpec(drawer, color, width, opacity, blur, cap);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BrushSpec(%s, #%08x, %.1f, %d, %.1f, %s)",
+                drawer, color, width, opacity, blur, cap);
+    }
+}
@@ -0,0 +1,76 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+/**
+ * Runs a bucket fill in the background.
+ * <p/>
+ * The pixels of the screen bitmap are copied while holding the lock the draw
+ * thread writes it under, and the region is then scanned on that copy, so
+ * neither the touch nor the frames wait for the fill. The filled runs are
+ * handed over as the record of the fill, with the brush of the touch which
+ * started it.
+ */
+public class BucketFiller implements Runnable {
+
+    public interface OnFillListener {
+        /**
+         * called on the filling thread
+         *
+         * @param stroke the record of the fill, its points are the filled runs
+         */
+        void onFilled(StrokeRecord stroke);
+    }
+
+    private final FloodFill floodFill;
+    private final Bitmap screen;
+    private final Object lock;
+    private final int x;
+    private final int y;
+    private final int tolerance;
+    private final boolean eraser;
+    private final int color;
+    private final int opacity;
+    private final OnFillListener listener;
+
+    /**
+     * @param floodFill its buffers are shared with the other fills, which wait for this one
+     * @param screen    the pixels to fill
+     * @param lock      held while the screen is written
+     * @param x
+     * @param y
+     * @param tolerance see FloodFill.fill
+     * @param eraser
+     * @param color
+     * @param opacity
+     * @param listener  not called if nothing is filled
+     */
+    public BucketFiller(FloodFill floodFill, Bitmap screen, Object lock, int x, int y, int tolerance,
+                        boolean eraser, int color, int opacity, OnFillListener listener) {
+        this.floodFill = floodFill;
+        this.screen = screen;
+        this.lock = lock;
+        this.x = x;
+        this.y = y;
+        this.tolerance = tolerance;
+        this.eraser = eraser;
+        this.color = color;
+        this.opacity = opacity;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        int[] runs = floodFill.fill(screen, lock, x, y, tolerance);
+        if (runs == null || runs.length == 0) {
+            return;
+        }
+        float[] points = new float[runs.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = runs[i];
+        }
+        listener.onFilled(new StrokeRecord(StrokeRecord.nextId(), SurfaceCanvasView.Drawer.BUCKET, eraser,
+                Paint.Style.FILL, color, 0F, opacity, 0F, points, null));
+    }
+}
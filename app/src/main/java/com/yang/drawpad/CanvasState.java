@@ -0,0 +1,109 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The drawing engine of a SurfaceCanvasView: the history, the layers with their
+ * rasters, the screen bitmap, the caches and the opened document.
+ * <p/>
+ * The view draws through the engine it references. The activity keeps the
+ * engine across configuration changes and the new view takes it over, so the
+ * screen bitmap is shown on its first frame and nothing is replayed. Only the
+ * view reads and writes the fields, the ones the draw thread reads are guarded
+ * by the surface holder.
+ */
+public class CanvasState {
+    // the paths of the live entries, null once the stroke is committed as a record
+    List<Path> pathLists = new ArrayList<Path>();
+    List<Paint> paintLists = new ArrayList<Paint>();
+    // the committed strokes as data, null for entries which are not strokes
+    List<StrokeRecord> strokeLists = new ArrayList<StrokeRecord>();
+    // the layer of each entry of the history
+    List<Layer> layerLists = new ArrayList<Layer>();
+    // the strokes moved by each entry of the history, null for the other entries
+    List<StrokeTransform> transformLists = new ArrayList<StrokeTransform>();
+    // for Undo, Redo
+    int historyPointer = 0;
+    // the strokes which left the history, in drawing order
+    List<StrokeRecord> overflowStrokes = new ArrayList<StrokeRecord>();
+    // the ones which were hidden then, not in the overflow bitmap of their layer
+    // but drawn over it if what hid them is undone, until that leaves the history too
+    Map<StrokeRecord, Layer> hiddenOverflowStrokes = new LinkedHashMap<StrokeRecord, Layer>();
+    // for the lasso, the strokes of the history by their bounds
+    StrokeIndex strokeIndex = new StrokeIndex();
+    boolean isStrokeIndexValid = true;
+
+    // the log of a canvas shared with other sites, null if it is not shared
+    OpLog opLog = null;
+    // the strokes on the shared canvas in the order of their ops, the ones of
+    // the other sites go on layer 0 among its history, guarded by the holder
+    List<StrokeRecord> sharedStrokes = Collections.emptyList();
+    // the strokes of the other sites, guarded by the holder
+    List<StrokeRecord> remoteStrokes = Collections.emptyList();
+    // the strokes of the history the log no longer has on the canvas
+    Set<StrokeRecord> unsharedStrokes = Collections.emptySet();
+
+    // the layers, each with its own raster, and the bitmap to record
+    // the paths when exceed max_num_paths
+    LayerStack layerStack = new LayerStack();
+    // the current screen bitmap, composited from the layers
+    Bitmap currentScreenBitMap = null;
+    // an imported image, drawn under the history of layer 0
+    Bitmap bitmap = null;
+    // decodes an imported image into the bitmap in the background
+    ImageImporter imageImporter = null;
+    // where the imported image is read from, null for a stream
+    File importFile = null;
+    byte[] importBytes = null;
+    // an image to import once the canvas has a size, see startPendingImport
+    boolean isImportPending = false;
+    InputStream pendingImportStream = null;
+    // for Eraser
+    int baseColor = Color.WHITE;
+    List<TextItem> textItems = new ArrayList<TextItem>();
+
+    // the paths of the committed strokes, inflated from their records
+    PathCache pathCache = new PathCache();
+    // before- and after-images of the committed strokes, to undo without replay
+    TileUndoStore tileUndoStore = new TileUndoStore();
+    DabCache dabCache = new DabCache();
+
+    // an opened document, drawn under the history
+    ChunkedStrokeFile document = null;
+    // the document rasterized in the background, starting from its preview
+    Bitmap documentRaster = null;
+    Bitmap documentPreview = null;
+    DocumentRestorer documentRestorer = null;
+    // for reporting, in ms since the document was opened, -1 until then
+    long documentOpenTime = 0;
+    volatile long timeToFullyLoaded = -1;
+    // the image and the document over the base color, kept as RGB_565 instead
+    // of their rasters once they are in the bottom layer, see releaseBakedSources
+    Bitmap bakedSources = null;
+
+    // the settings, taken when the engine is handed over
+    SurfaceCanvasView.Mode mode = SurfaceCanvasView.Mode.DRAW;
+    BrushSpec brushSpec = BrushSpec.DEFAULT;
+
+    // zooming and pan
+    Matrix currentMatrix = new Matrix();
+    Matrix tempMatrix = new Matrix();
+    float currentTranslationX = 0f;
+    float currentTranslationY;
+    float scaleFactor = 1.f;
+    int scalePivotX = 0;
+    int scalePivotY = 0;
+}
@@ -80,13 +80,11 @@ public class CanvasView extends View {
     private float blur             = 0F;
     private Paint.Cap lineCap      = Paint.Cap.ROUND;
     // for Text
-    private String text           = "";
+    private List<TextItem> textItems = new ArrayList<TextItem>();
+    private TextItem currentText  = null;  // the text being edited, follows the touch in TEXT mode
     private Typeface fontFamily   = Typeface.DEFAULT;
     private float fontSize        = 32F;
     private Paint.Align textAlign = Paint.Align.RIGHT;  // fixed
-    private Paint textPaint       = new Paint();
-    private float textX           = 0F;
-    private float textY           = 0F;
     // for Drawer
     private float startX   = 0F;
     private float startY   = 0F;
@@ -164,7 +162,6 @@ public class CanvasView extends View {
         this.historyPointer++;*/
         addPath(new Path(), this.createPaint());
 
-        this.textPaint.setARGB(0, 255, 255, 255);
         this.drawBound = new Rect(0, 0, 0, 0);
 
 
@@ -341,42 +338,15 @@ public class CanvasView extends View {
      * @param canvas the instance of Canvas
      */
     private void drawText(Canvas canvas) {
-        if (this.text.length() <= 0) {
-            return;
+        if (this.mode == Mode.TEXT && this.currentText != null) {
+            this.currentText.setPosition(this.startX, this.startY);
         }
 
-        if (this.mode == Mode.TEXT) {
-            this.textX = this.startX;
-            this.textY = this.startY;
-
-            this.textPaint = this.createPaint();
-        }
-
-        float textX = this.textX;
-        float textY = this.textY;
-
-        Paint paintForMeasureText = new Paint();
-
-        // Line break automatically
-        float textLength = paintForMeasureText.measureText(this.text);
-        float lengthOfChar = textLength / (float) this.text.length();
-        float restWidth = this.canvas.getWidth() - textX;  // text-align : right
-        int numChars = (lengthOfChar <= 0) ? 1 : (int) Math.floor((double) (restWidth / lengthOfChar));  // The number of characters at 1 line
-        int modNumChars = (numChars < 1) ? 1 : numChars;
-        float y = textY;
-
-        for (int i = 0, len = this.text.length(); i < len; i += modNumChars) {
-            String substring = "";
-
-            if ((i + modNumChars) < len) {
-                substring = this.text.substring(i, (i + modNumChars));
-            } else {
-                substring = this.text.substring(i, len);
-            }
-
-            y += this.fontSize;
-
-            canvas.drawText(substring, textX, y, this.textPaint);
+        for (int i = 0, size = this.textItems.size(); i < size; i++) {
+            TextItem item = this.textItems.get(i);
+            // Line break automatically, text-align : right
+            item.layout(this.canvas.getWidth() - item.getX());
+            item.draw(canvas);
         }
     }
 
@@ -816,7 +786,8 @@ public class CanvasView extends View {
             }
         }
 
-        this.text = "";
+        this.textItems.clear();
+        this.currentText = null;
 
         // Clear
         this.invalidate();
@@ -841,21 +812,46 @@ public class CanvasView extends View {
     }
 
     /**
-     * This method is getter for drawn text.
+     * This method is getter for the text being edited.
      *
      * @return
      */
     public String getText() {
-        return this.text;
+        return (this.currentText == null) ? "" : this.currentText.getText();
     }
 
     /**
-     * This method is setter for drawn text.
+     * This method is setter for the text being edited.
+     * A new text item is started if there is none.
      *
      * @param text
      */
     public void setText(String text) {
-        this.text = text;
+        if (this.currentText == null) {
+            this.currentText = new TextItem(text, this.startX, this.startY, this.createPaint());
+            this.textItems.add(this.currentText);
+        } else {
+            this.currentText.setText(text);
+            this.currentText.setPaint(this.createPaint());
+        }
+        this.invalidate();
+    }
+
+    /**
+     * This method finishes the text being edited,
+     * the next call of setText starts another text item.
+     */
+    public void commitText() {
+        this.currentText = null;
+    }
+
+    /**
+     * This method is getter for all the text items.
+     *
+     * @return
+     */
+    public List<TextItem> getTextItems() {
+        return this.textItems;
     }
 
     /**
@@ -1021,6 +1017,7 @@ public class CanvasView extends View {
         } else {
             this.fontSize = 32F;
         }
+        this.updateTextPaint();
     }
 
     /**
@@ -1039,6 +1036,17 @@ public class CanvasView extends View {
      */
     public void setFontFamily(Typeface face) {
         this.fontFamily = face;
+        this.updateTextPaint();
+    }
+
+    /**
+     * give the text being edited the current font, its lines are broken again on the next draw
+     */
+    private void updateTextPaint() {
+        if (this.mode == Mode.TEXT && this.currentText != null) {
+            this.currentText.setPaint(this.createPaint());
+            this.invalidate();
+        }
     }
 
     /**
@@ -0,0 +1,334 @@
+package com.yang.drawpad;
+
+import android.graphics.RectF;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An on-disk document made of fixed-size chunks of stroke records with an index
+ * in the footer, read through a memory map.
+ * <p/>
+ * Layout:
+ * <pre>
+ * header   int magic, int version, int chunk size
+ * chunks   records written by StrokeRecord.writeTo, each chunk padded to a
+ *          multiple of the chunk size, a record never spans two chunks
+ * footer   int stroke count, per stroke {long id, long offset}
+ *          int chunk count, per chunk {long offset, int first stroke, int stroke count, 4 float bounds}
+ * trailer  long footer offset, int magic
+ * </pre>
+ * Opening a file maps it and reads the footer only. Records are decoded on demand,
+ * and a viewport query skips every chunk, and then every record, whose bounds do
+ * not intersect it.
+ */
+public class ChunkedStrokeFile {
+    public static final int MAGIC = 0x44504144;    // "DPAD"
+    // 2: records may be fitted curves, version 1 files are still read
+    public static final int VERSION = 2;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 12;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    // stroke index, sorted by id for lookups
+    private final long[] sortedIds;
+    private final long[] sortedOffsets;
+    // stroke offsets in drawing order
+    private final long[] offsets;
+
+    // chunk index
+    private final int[] chunkFirstStroke;
+    private final int[] chunkStrokeCount;
+    private final float[] chunkBounds;
+
+    private ChunkedStrokeFile(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        int size = buffer.capacity();
+        if (size < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException("Not a stroke document");
+        }
+        if (buffer.getInt(4) < 1 || buffer.getInt(4) > VERSION) {
+            throw new IOException("Unsupported stroke document version " + buffer.getInt(4));
+        }
+
+        ByteBuffer footer = buffer.duplicate();
+        footer.position((int) buffer.getLong(size - TRAILER_SIZE));
+
+        int strokeCount = footer.getInt();
+        offsets = new long[strokeCount];
+        long[] ids = new long[strokeCount];
+        for (int i = 0; i < strokeCount; i++) {
+            ids[i] = footer.getLong();
+            offsets[i] = footer.getLong();
+        }
+
+        int chunkCount = footer.getInt();
+        chunkFirstStroke = new int[chunkCount];
+        chunkStrokeCount = new int[chunkCount];
+        chunkBounds = new float[4 * chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            footer.getLong();
+            chunkFirstStroke[i] = footer.getInt();
+            chunkStrokeCount[i] = footer.getInt();
+            for (int k = 0; k < 4; k++) {
+                chunkBounds[4 * i + k] = footer.getFloat();
+            }
+        }
+
+        // sort (id, offset) pairs by id
+        Integer[] order = new Integer[strokeCount];
+        for (int i = 0; i < strokeCount; i++) {
+            order[i] = i;
+        }
+        final long[] keys = ids;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a] < keys[b] ? -1 : (keys[a] == keys[b] ? 0 : 1);
+            }
+        });
+        sortedIds = new long[strokeCount];
+        sortedOffsets = new long[strokeCount];
+        for (int i = 0; i < strokeCount; i++) {
+            sortedIds[i] = ids[order[i]];
+            sortedOffsets[i] = offsets[order[i]];
+        }
+    }
+
+    /**
+     * map a document, only the footer is read
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ChunkedStrokeFile open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ChunkedStrokeFile(file, buffer);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw new IOException("Corrupted stroke document", e);
+        }
+    }
+
+    /**
+     * Write the strokes in drawing order. The file is written next to the
+     * destination and renamed, so a crash never leaves a half-written document.
+     *
+     * @param path
+     * @param strokes
+     * @param chunkSize
+     * @throws IOException
+     */
+    public static void write(File path, List<StrokeRecord> strokes, int chunkSize) throws IOException {
+        int n = strokes.size();
+        long[] ids = new long[n];
+        long[] offsets = new long[n];
+        // chunk index, grown as needed
+        long[] chunkOffsets = new long[16];
+        int[] chunkFirst = new int[16];
+        float[] bounds = new float[4 * 16];
+        int chunkCount = 0;
+
+        File temp = new File(path.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(chunkSize);
+
+            long position = HEADER_SIZE;
+            long chunkStart = -1;
+            for (int i = 0; i < n; i++) {
+                StrokeRecord stroke = strokes.get(i);
+                int size = stroke.getSerializedSize();
+
+                // start a new chunk if the record does not fit in the current one
+                if (chunkStart < 0 || position + size > chunkStart + chunkSize) {
+                    if (chunkStart >= 0) {
+                        position = pad(out, position, chunkStart, chunkSize);
+                    }
+                    if (chunkCount == chunkOffsets.length) {
+                        chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+                        chunkFirst = Arrays.copyOf(chunkFirst, chunkCount * 2);
+                        bounds = Arrays.copyOf(bounds, 4 * chunkCount * 2);
+                    }
+                    chunkStart = position;
+                    chunkOffsets[chunkCount] = position;
+                    chunkFirst[chunkCount] = i;
+                    RectF b = stroke.getBounds();
+                    bounds[4 * chunkCount] = b.left;
+                    bounds[4 * chunkCount + 1] = b.top;
+                    bounds[4 * chunkCount + 2] = b.right;
+                    bounds[4 * chunkCount + 3] = b.bottom;
+                    chunkCount++;
+                } else {
+                    RectF b = stroke.getBounds();
+                    int c = 4 * (chunkCount - 1);
+                    bounds[c] = Math.min(bounds[c], b.left);
+                    bounds[c + 1] = Math.min(bounds[c + 1], b.top);
+                    bounds[c + 2] = Math.max(bounds[c + 2], b.right);
+                    bounds[c + 3] = Math.max(bounds[c + 3], b.bottom);
+                }
+
+                ids[i] = stroke.getId();
+                offsets[i] = position;
+                stroke.writeTo(out);
+                position += size;
+            }
+            if (chunkStart >= 0) {
+                position = pad(out, position, chunkStart, chunkSize);
+            }
+
+            long footerOffset = position;
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(offsets[i]);
+            }
+            out.writeInt(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                int end = i + 1 < chunkCount ? chunkFirst[i + 1] : n;
+                out.writeLong(chunkOffsets[i]);
+                out.writeInt(chunkFirst[i]);
+                out.writeInt(end - chunkFirst[i]);
+                for (int k = 0; k < 4; k++) {
+                    out.writeFloat(bounds[4 * i + k]);
+                }
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(path)) {
+            temp.delete();
+            throw new IOException("Cannot write " + path);
+        }
+    }
+
+    public static void write(File path, List<StrokeRecord> strokes) throws IOException {
+        write(path, strokes, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * pad the chunk which started at chunkStart to a multiple of the chunk size
+     */
+    private static long pad(DataOutputStream out, long position, long chunkStart, int chunkSize)
+            throws IOException {
+        long used = position - chunkStart;
+        long padded = ((used + chunkSize - 1) / chunkSize) * chunkSize;
+        for (long i = used; i < padded; i++) {
+            out.writeByte(0);
+        }
+        return chunkStart + padded;
+    }
+
+    public int getStrokeCount() {
+        return offsets.length;
+    }
+
+    public int getChunkCount() {
+        return chunkStrokeCount.length;
+    }
+
+    /**
+     * decode the i-th stroke in drawing order
+     *
+     * @param index
+     * @return
+     */
+    public StrokeRecord getStroke(int index) {
+        return read(offsets[index]);
+    }
+
+    /**
+     * decode a stroke by id
+     *
+     * @param id
+     * @return null if there is no such stroke
+     */
+    public StrokeRecord getStrokeById(long id) {
+        int i = Arrays.binarySearch(sortedIds, id);
+        return i < 0 ? null : read(sortedOffsets[i]);
+    }
+
+    /**
+     * the union of the bounds of every stroke
+     *
+     * @return
+     */
+    public RectF getBounds() {
+        RectF rect = new RectF();
+        for (int i = 0; i < chunkStrokeCount.length; i++) {
+            rect.union(chunkBounds[4 * i], chunkBounds[4 * i + 1],
+                    chunkBounds[4 * i + 2], chunkBounds[4 * i + 3]);
+        }
+        return rect;
+    }
+
+    /**
+     * Find the strokes whose bounds intersect the viewport, in drawing order.
+     * Only the records in chunks intersecting the viewport are touched, and only
+     * the records which intersect it are decoded.
+     *
+     * @param viewport in canvas coordinates
+     * @param out      receives the strokes
+     */
+    public void query(RectF viewport, List<StrokeRecord> out) {
+        RectF strokeBounds = new RectF();
+        ByteBuffer reader = buffer.duplicate();
+        for (int c = 0; c < chunkStrokeCount.length; c++) {
+            if (!viewport.intersects(chunkBounds[4 * c], chunkBounds[4 * c + 1],
+                    chunkBounds[4 * c + 2], chunkBounds[4 * c + 3])) {
+                continue;
+            }
+            for (int i = chunkFirstStroke[c], end = i + chunkStrokeCount[c]; i < end; i++) {
+                reader.position((int) offsets[i]);
+                StrokeRecord.readBounds(reader, strokeBounds);
+                if (RectF.intersects(viewport, strokeBounds)) {
+                    out.add(StrokeRecord.readFrom(reader));
+                }
+            }
+        }
+    }
+
+    /**
+     * unmapping happens when the buffer is garbage collected
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private StrokeRecord read(long offset) {
+        ByteBuffer reader = buffer.duplicate();
+        reader.position((int) offset);
+        return StrokeRecord.readFrom(reader);
+    }
+}
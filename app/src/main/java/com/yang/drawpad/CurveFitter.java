@@ -0,0 +1,337 @@
+package com.yang.drawpad;
+
+import java.util.Arrays;
+
+/**
+ * Fits a sequence of cubic bezier segments to the samples of a stroke, with
+ * Schneider's algorithm ("An Algorithm for Automatically Fitting Digitized
+ * Curves", Graphics Gems, 1990).
+ * <p/>
+ * A single cubic is fitted by least squares to the samples, parameterized by
+ * chord length. If it is off by more than the allowed error, the parameters are
+ * improved by a few Newton-Raphson steps; if it is still off, the samples are
+ * split at the worst point and both halves are fitted with a common tangent
+ * there. Resampled strokes are usually covered by 5 to 20 times fewer segments
+ * than they have samples.
+ * <p/>
+ * The result is {x0, y0, then c1x, c1y, c2x, c2y, x, y per segment}: the start
+ * point, and for each segment its two control points and its end point.
+ */
+public class CurveFitter {
+    // the worst error at which the parameters are still worth improving, relative to the error
+    private static final double REPARAMETERIZE_RATIO = 4.0;
+    private static final int MAX_ITERATIONS = 4;
+
+    private final double maxErrorSquared;
+
+    private float[] points;
+    private float[] result = new float[64];
+    private int resultSize = 0;
+
+    private CurveFitter(float maxError) {
+        this.maxErrorSquared = (double) maxError * maxError;
+    }
+
+    /**
+     * @param points   {x0, y0, x1, y1, ...}
+     * @param maxError the largest distance of a sample to the curve, in pixels
+     * @return the start point followed by three points per segment,
+     * only the start point for a single sample, nothing for none
+     */
+    public static float[] fit(float[] points, float maxError) {
+        int n = points.length / 2;
+        if (n == 0) {
+            return new float[0];
+        }
+        CurveFitter fitter = new CurveFitter(maxError);
+        fitter.points = points;
+        fitter.add(points[0], points[1]);
+        if (n == 1) {
+            return fitter.getResult();
+        }
+
+        double[] tangent1 = fitter.leftTangent(0);
+        double[] tangent2 = fitter.rightTangent(n - 1);
+        fitter.fitCubic(0, n - 1, tangent1, tangent2);
+        return fitter.getResult();
+    }
+
+    /**
+     * @param fitted the output of fit
+     * @return the number of segments
+     */
+    public static int getSegmentCount(float[] fitted) {
+        return fitted.length < 2 ? 0 : (fitted.length - 2) / 6;
+    }
+
+    /**
+     * A segment takes three points, so a jittery or very short stroke can take
+     * as many points fitted as sampled, its samples are better kept then.
+     *
+     * @param fitted  the output of fit
+     * @param samples the points which were fitted
+     * @return whether the segments take fewer points than the samples
+     */
+    public static boolean isReduced(float[] fitted, float[] samples) {
+        return 3 * getSegmentCount(fitted) + 1 < samples.length / 2;
+    }
+
+    private void fitCubic(int first, int last, double[] tangent1, double[] tangent2) {
+        int count = last - first + 1;
+
+        if (count == 2) {
+            // a third of the distance along the tangents
+            double distance = distance(first, last) / 3.0;
+            emit(first, last, tangent1, distance, tangent2, distance);
+            return;
+        }
+
+        double[] u = chordLengthParameterize(first, last);
+        double[] alphas = generateBezier(first, last, u, tangent1, tangent2);
+        int[] split = new int[1];
+        double error = computeMaxError(first, last, alphas, tangent1, tangent2, u, split);
+        if (error < maxErrorSquared) {
+            emit(first, last, tangent1, alphas[0], tangent2, alphas[1]);
+            return;
+        }
+
+        // close enough to try to fix the parameters
+        if (error < maxErrorSquared * REPARAMETERIZE_RATIO * REPARAMETERIZE_RATIO) {
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                u = reparameterize(first, last, u, alphas, tangent1, tangent2);
+                alphas = generateBezier(first, last, u, tangent1, tangent2);
+                error = computeMaxError(first, last, alphas, tangent1, tangent2, u, split);
+                if (error < maxErrorSquared) {
+                    emit(first, last, tangent1, alphas[0], tangent2, alphas[1]);
+                    return;
+                }
+            }
+        }
+
+        // split at the worst point, both halves share the tangent there
+        int center = split[0];
+        double[] left = direction(center + 1, center - 1);
+        double[] right;
+        if (left[0] == 0 && left[1] == 0) {
+            // the stroke turns back on itself, a corner
+            left = direction(center, center - 1);
+            right = direction(center, center + 1);
+        } else {
+            right = new double[]{-left[0], -left[1]};
+        }
+        fitCubic(first, center, tangent1, left);
+        fitCubic(center, last, right, tangent2);
+    }
+
+    /**
+     * the lengths of the control arms which fit the samples best by least squares,
+     * the tangents fixed
+     *
+     * @return {alpha1, alpha2}
+     */
+    private double[] generateBezier(int first, int last, double[] u,
+                                    double[] tangent1, double[] tangent2) {
+        double x0 = points[2 * first];
+        double y0 = points[2 * first + 1];
+        double x3 = points[2 * last];
+        double y3 = points[2 * last + 1];
+
+        double c00 = 0, c01 = 0, c11 = 0;
+        double r0 = 0, r1 = 0;
+        for (int i = 0; i < u.length; i++) {
+            double t = u[i];
+            double b0 = b0(t), b1 = b1(t), b2 = b2(t), b3 = b3(t);
+            double a0x = tangent1[0] * b1, a0y = tangent1[1] * b1;
+            double a1x = tangent2[0] * b2, a1y = tangent2[1] * b2;
+            c00 += a0x * a0x + a0y * a0y;
+            c01 += a0x * a1x + a0y * a1y;
+            c11 += a1x * a1x + a1y * a1y;
+
+            int k = 2 * (first + i);
+            double dx = points[k] - (x0 * (b0 + b1) + x3 * (b2 + b3));
+            double dy = points[k + 1] - (y0 * (b0 + b1) + y3 * (b2 + b3));
+            r0 += a0x * dx + a0y * dy;
+            r1 += a1x * dx + a1y * dy;
+        }
+
+        double det = c00 * c11 - c01 * c01;
+        double alpha1 = det == 0 ? 0 : (r0 * c11 - r1 * c01) / det;
+        double alpha2 = det == 0 ? 0 : (c00 * r1 - c01 * r0) / det;
+
+        // degenerate, or the control points would be behind the ends
+        double length = distance(first, last);
+        double epsilon = 1.0e-6 * length;
+        if (alpha1 < epsilon || alpha2 < epsilon) {
+            alpha1 = length / 3.0;
+            alpha2 = alpha1;
+        }
+        return new double[]{alpha1, alpha2};
+    }
+
+    /**
+     * @param split receives the index of the sample farthest from the curve
+     * @return the largest squared distance of a sample to the curve
+     */
+    private double computeMaxError(int first, int last, double[] alphas,
+                                   double[] tangent1, double[] tangent2, double[] u, int[] split) {
+        double[] curve = controlPoints(first, last, alphas, tangent1, tangent2);
+        double[] q = new double[2];
+        double max = 0;
+        split[0] = (first + last + 1) / 2;
+        for (int i = first + 1; i < last; i++) {
+            evaluate(curve, 3, u[i - first], q);
+            double dx = q[0] - points[2 * i];
+            double dy = q[1] - points[2 * i + 1];
+            double d = dx * dx + dy * dy;
+            if (d >= max) {
+                max = d;
+                split[0] = i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * one Newton-Raphson step per sample towards its closest point on the curve
+     */
+    private double[] reparameterize(int first, int last, double[] u, double[] alphas,
+                                    double[] tangent1, double[] tangent2) {
+        double[] curve = controlPoints(first, last, alphas, tangent1, tangent2);
+        double[] derivative1 = new double[6];
+        for (int i = 0; i < 3; i++) {
+            derivative1[2 * i] = (curve[2 * i + 2] - curve[2 * i]) * 3.0;
+            derivative1[2 * i + 1] = (curve[2 * i + 3] - curve[2 * i + 1]) * 3.0;
+        }
+        double[] derivative2 = new double[4];
+        for (int i = 0; i < 2; i++) {
+            derivative2[2 * i] = (derivative1[2 * i + 2] - derivative1[2 * i]) * 2.0;
+            derivative2[2 * i + 1] = (derivative1[2 * i + 3] - derivative1[2 * i + 1]) * 2.0;
+        }
+
+        double[] q = new double[2];
+        double[] q1 = new double[2];
+        double[] q2 = new double[2];
+        double[] improved = new double[u.length];
+        for (int i = 0; i < u.length; i++) {
+            double t = u[i];
+            evaluate(curve, 3, t, q);
+            evaluate(derivative1, 2, t, q1);
+            evaluate(derivative2, 1, t, q2);
+            double dx = q[0] - points[2 * (first + i)];
+            double dy = q[1] - points[2 * (first + i) + 1];
+            double numerator = dx * q1[0] + dy * q1[1];
+            double denominator = q1[0] * q1[0] + q1[1] * q1[1] + dx * q2[0] + dy * q2[1];
+            improved[i] = denominator == 0 ? t : t - numerator / denominator;
+        }
+        return improved;
+    }
+
+    private double[] chordLengthParameterize(int first, int last) {
+        double[] u = new double[last - first + 1];
+        for (int i = first + 1; i <= last; i++) {
+            u[i - first] = u[i - first - 1] + distance(i - 1, i);
+        }
+        double total = u[u.length - 1];
+        for (int i = 1; i < u.length; i++) {
+            u[i] = total == 0 ? (double) i / (u.length - 1) : u[i] / total;
+        }
+        return u;
+    }
+
+    private double[] controlPoints(int first, int last, double[] alphas,
+                                   double[] tangent1, double[] tangent2) {
+        double x0 = points[2 * first];
+        double y0 = points[2 * first + 1];
+        double x3 = points[2 * last];
+        double y3 = points[2 * last + 1];
+        return new double[]{
+                x0, y0,
+                x0 + tangent1[0] * alphas[0], y0 + tangent1[1] * alphas[0],
+                x3 + tangent2[0] * alphas[1], y3 + tangent2[1] * alphas[1],
+                x3, y3};
+    }
+
+    /**
+     * de Casteljau evaluation of a bezier curve
+     *
+     * @param curve  the control points
+     * @param degree
+     * @param t
+     * @param out    receives the point
+     */
+    private static void evaluate(double[] curve, int degree, double t, double[] out) {
+        double[] temp = Arrays.copyOf(curve, 2 * (degree + 1));
+        for (int i = 1; i <= degree; i++) {
+            for (int j = 0; j <= degree - i; j++) {
+                temp[2 * j] = (1.0 - t) * temp[2 * j] + t * temp[2 * j + 2];
+                temp[2 * j + 1] = (1.0 - t) * temp[2 * j + 1] + t * temp[2 * j + 3];
+            }
+        }
+        out[0] = temp[0];
+        out[1] = temp[1];
+    }
+
+    private double[] leftTangent(int end) {
+        return direction(end, end + 1);
+    }
+
+    private double[] rightTangent(int end) {
+        return direction(end, end - 1);
+    }
+
+    /**
+     * @return the unit vector from one sample to another, zero if they are the same
+     */
+    private double[] direction(int from, int to) {
+        double dx = points[2 * to] - points[2 * from];
+        double dy = points[2 * to + 1] - points[2 * from + 1];
+        double length = Math.sqrt(dx * dx + dy * dy);
+        return length == 0 ? new double[]{0, 0} : new double[]{dx / length, dy / length};
+    }
+
+    private double distance(int i, int j) {
+        double dx = points[2 * j] - points[2 * i];
+        double dy = points[2 * j + 1] - points[2 * i + 1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void emit(int first, int last, double[] tangent1, double alpha1,
+                      double[] tangent2, double alpha2) {
+        double[] curve = controlPoints(first, last, new double[]{alpha1, alpha2}, tangent1, tangent2);
+        for (int i = 2; i < 8; i += 2) {
+            add((float) curve[i], (float) curve[i + 1]);
+        }
+    }
+
+    private void add(float x, float y) {
+        if (resultSize + 2 > result.length) {
+            result = Arrays.copyOf(result, result.length * 2);
+        }
+        result[resultSize++] = x;
+        result[resultSize++] = y;
+    }
+
+    private float[] getResult() {
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    // the Bernstein polynomials of degree 3
+    private static double b0(double t) {
+        double s = 1.0 - t;
+        return s * s * s;
+    }
+
+    private static double b1(double t) {
+        double s = 1.0 - t;
+        return 3.0 * t * s * s;
+    }
+
+    private static double b2(double t) {
+        double s = 1.0 - t;
+        return 3.0 * t * t * s;
+    }
+
+    private static double b3(double t) {
+        return t * t * t;
+    }
+}
@@ -0,0 +1,127 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.util.Arrays;
+
+/**
+ * Turns the samples of a stroke into dabs, stamps of a brush bitmap placed at
+ * equal arc length along the stroke by an ArcLengthResampler.
+ * <p/>
+ * The spacing is a fraction of the brush diameter, fixed per brush, so that
+ * replaying the recorded samples places the same dabs. The dabs emitted by each
+ * sample are collected and stamped by the draw thread once per frame.
+ */
+public class DabBrush {
+    public static final float SOFT_SPACING = 0.15F;
+    public static final float TEXTURED_SPACING = 0.3F;
+
+    private final ArcLengthResampler resampler = new ArcLengthResampler();
+
+    // the samples {x0, y0, x1, y1, ...}
+    private float[] points = new float[64];
+    private int pointCount = 0;
+
+    /**
+     * @param drawer   SOFT_BRUSH or TEXTURED_BRUSH
+     * @param diameter
+     * @return the distance between two dabs
+     */
+    public static float getSpacing(SurfaceCanvasView.Drawer drawer, float diameter) {
+        float fraction = drawer == SurfaceCanvasView.Drawer.TEXTURED_BRUSH ? TEXTURED_SPACING : SOFT_SPACING;
+        return Math.max(1F, fraction * diameter);
+    }
+
+    /**
+     * start a new stroke
+     *
+     * @param drawer
+     * @param diameter
+     */
+    public void reset(SurfaceCanvasView.Drawer drawer, float diameter) {
+        this.resampler.reset(getSpacing(drawer, diameter));
+        this.pointCount = 0;
+    }
+
+    /**
+     * add a sample and place the dabs up to it
+     *
+     * @param x
+     * @param y
+     * @return the number of new dabs, see getDabs
+     */
+    public int addPoint(float x, float y) {
+        if (pointCount + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount++] = x;
+        points[pointCount++] = y;
+        return resampler.add(x, y);
+    }
+
+    /**
+     * @return the centers of the dabs emitted by the last sample, {x0, y0, ...},
+     * valid until the next call of addPoint
+     */
+    public float[] getDabs() {
+        return resampler.getPoints();
+    }
+
+    public int getDabCount() {
+        return resampler.getPointCount();
+    }
+
+    /**
+     * @return a copy of the samples
+     */
+    public float[] getPoints() {
+        return Arrays.copyOf(points, pointCount);
+    }
+
+    /**
+     * stamp a recorded stroke
+     *
+     * @param canvas
+     * @param stroke
+     * @param cache
+     */
+    public static void draw(Canvas canvas, StrokeRecord stroke, DabCache cache) {
+        Bitmap dab = cache.get(stroke.getDrawer(), stroke.getWidth());
+        float offset = dab.getWidth() / 2F;
+
+        Paint paint = new Paint();
+        paint.setFilterBitmap(true);
+        if (stroke.isEraser()) {
+            // remove as much as the dab covers
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+        } else {
+            paint.setColor(stroke.getColor());
+            paint.setAlpha(255);
+        }
+
+        // like the live stroke: opaque dabs, the opacity applied once
+        boolean translucent = !stroke.isEraser() && stroke.getOpacity() < 255;
+        if (translucent) {
+            canvas.saveLayerAlpha(stroke.getBounds(), stroke.getOpacity(), Canvas.ALL_SAVE_FLAG);
+        }
+
+        DabBrush brush = new DabBrush();
+        brush.reset(stroke.getDrawer(), stroke.getWidth());
+        float[] points = stroke.getPoints();
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            int count = brush.addPoint(points[i], points[i + 1]);
+            float[] dabs = brush.getDabs();
+            for (int k = 0; k < count; k++) {
+                canvas.drawBitmap(dab, dabs[2 * k] - offset, dabs[2 * k + 1] - offset, paint);
+            }
+        }
+
+        if (translucent) {
+            canvas.restore();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed alpha masks of the dab brushes.
+ * <p/>
+ * A dab is an ALPHA_8 bitmap, drawn with the color of the paint. Sizes are
+ * quantized, exactly up to 16 pixels and then in steps of about 6%, so a stroke
+ * whose width changes a little reuses the same few bitmaps. The least recently
+ * used dabs are dropped when the cache is full.
+ */
+public class DabCache {
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static final double SIZE_STEP = Math.log(1.0625);
+
+    private final int maxEntries;
+    private final Map<Integer, Bitmap> dabs;
+
+    public DabCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public DabCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.dabs = new LinkedHashMap<Integer, Bitmap>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+                return size() > DabCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param diameter
+     * @return the diameter of the dab used for a brush of this size
+     */
+    public static int quantize(float diameter) {
+        if (diameter <= 16F) {
+            return Math.max(1, Math.round(diameter));
+        }
+        return (int) Math.round(Math.exp(Math.round(Math.log(diameter) / SIZE_STEP) * SIZE_STEP));
+    }
+
+    /**
+     * @param drawer   SOFT_BRUSH or TEXTURED_BRUSH
+     * @param diameter
+     * @return the dab, square, of the quantized diameter
+     */
+    public synchronized Bitmap get(SurfaceCanvasView.Drawer drawer, float diameter) {
+        int size = quantize(diameter);
+        Integer key = (drawer.ordinal() << 16) | size;
+        Bitmap dab = dabs.get(key);
+        if (dab == null) {
+            dab = createDab(drawer, size);
+            dabs.put(key, dab);
+        }
+        return dab;
+    }
+
+    public synchronized void clear() {
+        dabs.clear();
+    }
+
+    private static Bitmap createDab(SurfaceCanvasView.Drawer drawer, int size) {
+        int[] colors = new int[size * size];
+        float radius = size / 2F;
+        boolean textured = drawer == SurfaceCanvasView.Drawer.TEXTURED_BRUSH;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float dx = (x + 0.5F - radius) / radius;
+                float dy = (y + 0.5F - radius) / radius;
+                float d2 = dx * dx + dy * dy;
+                if (d2 >= 1F) {
+                    continue;
+                }
+                // soft falloff to the edge
+                float alpha = (1F - d2) * (1F - d2);
+                if (textured) {
+                    alpha *= grain(x, y);
+                }
+                colors[y * size + x] = Color.argb((int) (alpha * 255F + 0.5F), 0, 0, 0);
+            }
+        }
+        Bitmap argb = Bitmap.createBitmap(colors, size, size, Bitmap.Config.ARGB_8888);
+        Bitmap dab = argb.extractAlpha();
+        argb.recycle();
+        return dab;
+    }
+
+    /**
+     * a fixed pseudo random grain in 0.25 - 1
+     */
+    private static float grain(int x, int y) {
+        int h = x * 374761393 + y * 668265263;
+        h = (h ^ (h >>> 13)) * 1274126177;
+        h ^= h >>> 16;
+        return 0.25F + 0.75F * ((h & 0xff) / 255F);
+    }
+}
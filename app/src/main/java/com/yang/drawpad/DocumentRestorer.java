@@ -0,0 +1,250 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rasterizes a document in the background, tile by tile.
+ * <p/>
+ * The raster starts as the low resolution preview saved with the document, so
+ * there is something to show on the first frame. Every tile is then drawn from
+ * the strokes which intersect it and replaces its part of the preview, the
+ * visible tiles first, the others by distance to the visible area. The draw
+ * thread only takes the lock of the raster to read it, so input is never
+ * blocked by decoding.
+ */
+public class DocumentRestorer implements Runnable {
+    private static final String TAG = "DocumentRestorer";
+
+    public static final int TILE_SIZE = 256;
+    // the preview is this many times smaller than the screen
+    public static final int PREVIEW_SCALE = 4;
+
+    public interface OnRestoreListener {
+        /**
+         * called on the restoring thread when a tile has been drawn into the raster
+         *
+         * @param tile
+         */
+        void onTileRestored(Rect tile);
+
+        /**
+         * called on the restoring thread when every tile has been drawn
+         *
+         * @param elapsedMs since the restore started
+         */
+        void onRestored(long elapsedMs);
+    }
+
+    private final ChunkedStrokeFile document;
+    private final Bitmap raster;
+    private final RectF visible;
+    private final DabCache dabCache;
+    private volatile OnRestoreListener listener;
+    private final long startTime = SystemClock.uptimeMillis();
+    private volatile boolean cancelled = false;
+    // the uptime every tile had been drawn at, -1 until then
+    private volatile long restoredTime = -1;
+
+    /**
+     * @param document
+     * @param raster   receives the strokes, it is locked while a tile is copied in
+     * @param preview  drawn over the whole raster first, may be null
+     * @param visible  the part of the raster on the screen
+     * @param dabCache
+     * @param listener
+     */
+    public DocumentRestorer(ChunkedStrokeFile document, Bitmap raster, Bitmap preview, RectF visible,
+                            DabCache dabCache, OnRestoreListener listener) {
+        this.document = document;
+        this.raster = raster;
+        this.visible = new RectF(visible);
+        this.dabCache = dabCache;
+        this.listener = listener;
+
+        synchronized (raster) {
+            raster.eraseColor(Color.TRANSPARENT);
+            if (preview != null) {
+                Paint paint = new Paint();
+                paint.setFilterBitmap(true);
+                new Canvas(raster).drawBitmap(preview, null,
+                        new Rect(0, 0, raster.getWidth(), raster.getHeight()), paint);
+            }
+        }
+    }
+
+    /**
+     * @return the time since the restore started
+     */
+    public long getElapsedTime() {
+        return SystemClock.uptimeMillis() - startTime;
+    }
+
+    /**
+     * @return the uptime every tile had been drawn at, -1 if the restore is not done
+     */
+    public long getRestoredTime() {
+        return restoredTime;
+    }
+
+    /**
+     * replace the listener, e.g. when another view takes the raster over
+     *
+     * @param listener
+     */
+    public void setOnRestoreListener(OnRestoreListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * stop after the tile being drawn
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void run() {
+        Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas tileCanvas = new Canvas(tile);
+        Paint copy = new Paint();
+        copy.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        List<StrokeRecord> strokes = new ArrayList<StrokeRecord>();
+        Rect source = new Rect();
+
+        for (Rect rect : getTiles(raster.getWidth(), raster.getHeight(), visible)) {
+            if (cancelled) {
+                break;
+            }
+            strokes.clear();
+            document.query(new RectF(rect), strokes);
+
+            tile.eraseColor(Color.TRANSPARENT);
+            tileCanvas.save();
+            tileCanvas.translate(-rect.left, -rect.top);
+            for (int i = 0; i < strokes.size(); i++) {
+                strokes.get(i).draw(tileCanvas, dabCache);
+            }
+            tileCanvas.restore();
+
+            // replaces the preview, transparent pixels included
+            source.set(0, 0, rect.width(), rect.height());
+            synchronized (raster) {
+                new Canvas(raster).drawBitmap(tile, source, rect, copy);
+            }
+            OnRestoreListener listener = this.listener;
+            if (listener != null) {
+                listener.onTileRestored(rect);
+            }
+        }
+        tile.recycle();
+
+        if (!cancelled) {
+            restoredTime = SystemClock.uptimeMillis();
+            Log.d(TAG, "fully loaded in " + getElapsedTime() + "ms");
+            OnRestoreListener listener = this.listener;
+            if (listener != null) {
+                listener.onRestored(getElapsedTime());
+            }
+        }
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param visible
+     * @return the tiles of an area, the visible ones first, the others by distance
+     */
+    static List<Rect> getTiles(int width, int height, final RectF visible) {
+        List<Rect> tiles = new ArrayList<Rect>();
+        for (int top = 0; top < height; top += TILE_SIZE) {
+            for (int left = 0; left < width; left += TILE_SIZE) {
+                tiles.add(new Rect(left, top, Math.min(left + TILE_SIZE, width),
+                        Math.min(top + TILE_SIZE, height)));
+            }
+        }
+
+        final float centerX = visible.centerX();
+        final float centerY = visible.centerY();
+        Collections.sort(tiles, new Comparator<Rect>() {
+            @Override
+            public int compare(Rect a, Rect b) {
+                boolean aVisible = visible.intersects(a.left, a.top, a.right, a.bottom);
+                boolean bVisible = visible.intersects(b.left, b.top, b.right, b.bottom);
+                if (aVisible != bVisible) {
+                    return aVisible ? -1 : 1;
+                }
+                return Float.compare(distance(a, centerX, centerY), distance(b, centerX, centerY));
+            }
+        });
+        return tiles;
+    }
+
+    private static float distance(Rect rect, float x, float y) {
+        float dx = rect.exactCenterX() - x;
+        float dy = rect.exactCenterY() - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @param document
+     * @return where the preview of the document is kept
+     */
+    public static File getPreviewFile(File document) {
+        return new File(document.getPath() + ".preview.png");
+    }
+
+    /**
+     * save a scaled down copy of the screen next to the document
+     *
+     * @param document
+     * @param screen
+     * @throws IOException
+     */
+    public static void writePreview(File document, Bitmap screen) throws IOException {
+        Bitmap preview = Bitmap.createScaledBitmap(screen,
+                Math.max(1, screen.getWidth() / PREVIEW_SCALE),
+                Math.max(1, screen.getHeight() / PREVIEW_SCALE), true);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(getPreviewFile(document)));
+        try {
+            preview.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+            if (preview != screen) {
+                preview.recycle();
+            }
+        }
+    }
+
+    /**
+     * @param document
+     * @return the preview of the document, null if there is none
+     */
+    public static Bitmap readPreview(File document) {
+        File file = getPreviewFile(document);
+        return file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+    }
+}
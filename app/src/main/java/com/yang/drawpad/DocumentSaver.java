@@ -0,0 +1,83 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a document from a snapshot of the strokes, so that it can be written
+ * off the UI thread.
+ * <p/>
+ * The strokes are immutable records, taking them is only copying references.
+ * The strokes of the opened document are decoded here, from its map, and the
+ * preview is written from a copy of the screen. Saves run one at a time, they
+ * go through the same temporary file.
+ */
+public class DocumentSaver implements Runnable {
+    private static final String TAG = "DocumentSaver";
+    private static final Object LOCK = new Object();
+
+    private final File file;
+    private final ChunkedStrokeFile document;
+    private final List<StrokeRecord> strokes;
+    private final Bitmap screen;
+
+    /**
+     * @param file
+     * @param document the opened document, its strokes go first, may be null
+     * @param strokes  the strokes over the document, in drawing order
+     * @param screen   a copy of the screen for the preview, recycled once written, may be null
+     */
+    public DocumentSaver(File file, ChunkedStrokeFile document, List<StrokeRecord> strokes, Bitmap screen) {
+        this.file = file;
+        this.document = document;
+        this.strokes = strokes;
+        this.screen = screen;
+    }
+
+    /**
+     * write the document on the calling thread
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        synchronized (LOCK) {
+            try {
+                // the opened document may be this file, it stays mapped until it is replaced
+                List<StrokeRecord> all = new ArrayList<StrokeRecord>();
+                if (document != null) {
+                    for (int i = 0; i < document.getStrokeCount(); i++) {
+                        all.add(document.getStroke(i));
+                    }
+                }
+                all.addAll(strokes);
+                File written = new File(file.getPath() + ".tmp");
+                ChunkedStrokeFile.write(written, all);
+                if (!written.renameTo(file)) {
+                    throw new IOException("Failed to replace " + file);
+                }
+
+                if (screen != null) {
+                    DocumentRestorer.writePreview(file, screen);
+                }
+            } finally {
+                if (screen != null) {
+                    screen.recycle();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            save();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save " + file, e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/**
+ * Span based flood fill over the pixels of a bitmap.
+ * <p/>
+ * The bitmap is read once with getPixels and filled span by span (Heckbert's seed
+ * fill): each span is grown from the span next to it on the previous row, and only
+ * the parts which stick out of that span are scanned back in the other direction,
+ * so most pixels are tested once or twice. The result is a run-length mask, the filled
+ * runs of each row, which is drawn again as one batch of lines, see drawRuns.
+ * <p/>
+ * The pixel and visited buffers are kept between fills, a fill is not run by two
+ * threads at once.
+ */
+public class FloodFill {
+    private int[] pixels = new int[0];
+    // one bit per pixel
+    private long[] visited = new long[0];
+    // segments to continue from, {y, left, right, dy, ...}
+    private int[] stack = new int[256];
+    private int top = 0;
+    // filled runs, packed by pack()
+    private long[] spans = new long[256];
+    private int spanCount = 0;
+
+    private int target;
+    private int tolerance;
+
+    /**
+     * Fill the region connected to (x, y). The pixels are copied while holding
+     * the lock the bitmap is written under, the fill runs on the copy after the
+     * lock is released.
+     *
+     * @param bitmap
+     * @param lock
+     * @param x
+     * @param y
+     * @param tolerance the largest difference of any channel, 0 - 255, to the seed color
+     * @return the filled runs, see fill(int[], ...), or null if the seed is
+     * outside the bitmap or the bitmap has been recycled
+     */
+    public synchronized int[] fill(Bitmap bitmap, Object lock, int x, int y, int tolerance) {
+        int w;
+        int h;
+        synchronized (lock) {
+            if (bitmap.isRecycled()) {
+                return null;
+            }
+            w = bitmap.getWidth();
+            h = bitmap.getHeight();
+            if (x < 0 || y < 0 || x >= w || y >= h) {
+                return null;
+            }
+            if (pixels.length < w * h) {
+                pixels = new int[w * h];
+            }
+            bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+        }
+        return fill(pixels, w, h, x, y, tolerance);
+    }
+
+    /**
+     * Fill the region connected to (x, y).
+     *
+     * @param src       the pixels, row by row
+     * @param w
+     * @param h
+     * @param x
+     * @param y
+     * @param tolerance the largest difference of any channel, 0 - 255, to the seed color
+     * @return the filled runs, one pixel row each, as {left, y, right, y + 1, ...}
+     * from the top row down
+     */
+    public synchronized int[] fill(int[] src, int w, int h, int x, int y, int tolerance) {
+        this.target = src[y * w + x];
+        this.tolerance = tolerance;
+        int words = (w * h + 63) >>> 6;
+        if (visited.length < words) {
+            visited = new long[words];
+        } else {
+            Arrays.fill(visited, 0, words, 0L);
+        }
+        spanCount = 0;
+
+        top = 0;
+        push(y, x, x, 1, h);
+        // the seed segment, popped first
+        push(y + 1, x, x, -1, h);
+        while (top > 0) {
+            int dy = stack[--top];
+            int x2 = stack[--top];
+            int x1 = stack[--top];
+            int sy = stack[--top] + dy;
+            int row = sy * w;
+
+            // the span on the previous row covered x1 - x2, grow left from x1
+            int i = x1;
+            while (i >= 0 && isOpen(src, row + i)) {
+                setVisited(row + i);
+                i--;
+            }
+            boolean skip = i >= x1;
+            int left = i + 1;
+            if (!skip) {
+                if (left < x1) {
+                    // leaked out on the left, go back
+                    push(sy, left, x1 - 1, -dy, h);
+                }
+                i = x1 + 1;
+            }
+            do {
+                if (!skip) {
+                    while (i < w && isOpen(src, row + i)) {
+                        setVisited(row + i);
+                        i++;
+                    }
+                    addSpan(left, i, sy);
+                    push(sy, left, i - 1, dy, h);
+                    if (i > x2 + 1) {
+                        // leaked out on the right, go back
+                        push(sy, x2 + 1, i - 1, -dy, h);
+                    }
+                }
+                skip = false;
+                for (i++; i <= x2 && !isOpen(src, row + i); i++) {
+                }
+                left = i;
+            } while (i <= x2);
+        }
+        return sortSpans();
+    }
+
+    /**
+     * Draw the runs returned by fill, kept as the points of a record and moved
+     * or scaled with it. The runs of the same height, all of them unless the
+     * record comes from a file which kept rectangles, are drawn as one batch of
+     * lines as thick as a run.
+     *
+     * @param canvas
+     * @param runs  {left, top, right, bottom, ...}
+     * @param paint a fill paint
+     */
+    public static void drawRuns(Canvas canvas, float[] runs, Paint paint) {
+        if (runs.length < 4) {
+            return;
+        }
+        float height = runs[3] - runs[1];
+        float[] lines = new float[runs.length];
+        int n = 0;
+        for (int i = 0; i + 3 < runs.length; i += 4) {
+            if (Math.abs(runs[i + 3] - runs[i + 1] - height) <= height / 1024) {
+                float y = (runs[i + 1] + runs[i + 3]) / 2;
+                lines[n++] = runs[i];
+                lines[n++] = y;
+                lines[n++] = runs[i + 2];
+                lines[n++] = y;
+            } else {
+                canvas.drawRect(runs[i], runs[i + 1], runs[i + 2], runs[i + 3], paint);
+            }
+        }
+        Paint linePaint = new Paint(paint);
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(height);
+        linePaint.setStrokeCap(Paint.Cap.BUTT);
+        canvas.drawLines(lines, 0, n, linePaint);
+    }
+
+    /**
+     * push a filled segment, the next span is searched on row y + dy
+     */
+    private void push(int y, int left, int right, int dy, int h) {
+        if (y + dy < 0 || y + dy >= h) {
+            return;
+        }
+        if (top + 4 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top++] = y;
+        stack[top++] = left;
+        stack[top++] = right;
+        stack[top++] = dy;
+    }
+
+    private boolean isOpen(int[] src, int index) {
+        return (visited[index >>> 6] & (1L << index)) == 0 && matches(src[index]);
+    }
+
+    private void setVisited(int index) {
+        visited[index >>> 6] |= 1L << index;
+    }
+
+    private boolean matches(int color) {
+        if (color == target) {
+            return true;
+        }
+        int t = tolerance;
+        return Math.abs((color >>> 24) - (target >>> 24)) <= t
+                && Math.abs(((color >> 16) & 0xff) - ((target >> 16) & 0xff)) <= t
+                && Math.abs(((color >> 8) & 0xff) - ((target >> 8) & 0xff)) <= t
+                && Math.abs((color & 0xff) - (target & 0xff)) <= t;
+    }
+
+    private void addSpan(int left, int right, int y) {
+        if (spanCount == spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[spanCount++] = pack(y, left, right);
+    }
+
+    /**
+     * sorted by y and then left
+     */
+    private static long pack(int y, int left, int right) {
+        return ((long) y << 42) | ((long) left << 21) | right;
+    }
+
+    private int[] sortSpans() {
+        Arrays.sort(spans, 0, spanCount);
+        int[] runs = new int[4 * spanCount];
+        for (int i = 0; i < spanCount; i++) {
+            long span = spans[i];
+            int y = (int) (span >>> 42);
+            runs[4 * i] = (int) ((span >>> 21) & 0x1fffff);
+            runs[4 * i + 1] = y;
+            runs[4 * i + 2] = (int) (span & 0x1fffff);
+            runs[4 * i + 3] = y + 1;
+        }
+        return runs;
+    }
+}
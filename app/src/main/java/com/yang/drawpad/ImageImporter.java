@@ -0,0 +1,293 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an image into a raster in the background, tile by tile.
+ * <p/>
+ * The image is never decoded whole at full size: its bounds are read first,
+ * it is scaled down to fit the raster, and every tile of the raster is decoded
+ * from its region of the image with the largest sample size which still gives
+ * at least the pixels of the tile, the visible tiles first. A 48 MP photo so
+ * takes a few MB at a time instead of 190. The formats BitmapRegionDecoder does
+ * not read, e.g. GIF, are decoded once, subsampled. The draw thread only takes
+ * the lock of the raster to read it.
+ */
+public class ImageImporter implements Runnable {
+    private static final String TAG = "ImageImporter";
+
+    public interface OnImportListener {
+        /**
+         * called on the importing thread when a tile has been drawn into the raster
+         *
+         * @param tile
+         */
+        void onTileImported(Rect tile);
+
+        /**
+         * called on the importing thread when every tile has been drawn
+         *
+         * @param elapsedMs since the import started
+         */
+        void onImported(long elapsedMs);
+
+        /**
+         * called on the importing thread when the image could not be read
+         *
+         * @param e
+         */
+        void onImportFailed(IOException e);
+    }
+
+    private final File file;
+    private final InputStream stream;
+    private final Bitmap raster;
+    private final RectF visible;
+    private volatile OnImportListener listener;
+    private final long startTime = SystemClock.uptimeMillis();
+    private volatile boolean cancelled = false;
+    private volatile boolean imported = false;
+
+    /**
+     * @param file
+     * @param raster   receives the image at its top left corner, it is locked while a tile is copied in
+     * @param visible  the part of the raster on the screen
+     * @param listener
+     */
+    public ImageImporter(File file, Bitmap raster, RectF visible, OnImportListener listener) {
+        this(file, null, raster, visible, listener);
+    }
+
+    /**
+     * @param stream   read on the importing thread, closed when done
+     * @param raster   receives the image at its top left corner, it is locked while a tile is copied in
+     * @param visible  the part of the raster on the screen
+     * @param listener
+     */
+    public ImageImporter(InputStream stream, Bitmap raster, RectF visible, OnImportListener listener) {
+        this(null, stream, raster, visible, listener);
+    }
+
+    private ImageImporter(File file, InputStream stream, Bitmap raster, RectF visible,
+                          OnImportListener listener) {
+        this.file = file;
+        // kept whole by the mark, in case the region decoder does not take it
+        this.stream = stream != null ? new BufferedInputStream(stream) : null;
+        this.raster = raster;
+        this.visible = new RectF(visible);
+        this.listener = listener;
+
+        synchronized (raster) {
+            raster.eraseColor(Color.TRANSPARENT);
+        }
+    }
+
+    public Bitmap getRaster() {
+        return raster;
+    }
+
+    /**
+     * replace the listener, e.g. when another view takes the raster over
+     *
+     * @param listener
+     */
+    public void setOnImportListener(OnImportListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * stop after the tile being drawn
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return whether every tile has been drawn into the raster
+     */
+    public boolean isImported() {
+        return imported;
+    }
+
+    @Override
+    public void run() {
+        try {
+            BitmapRegionDecoder decoder = null;
+            try {
+                if (file != null) {
+                    decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+                } else {
+                    stream.mark(Integer.MAX_VALUE);
+                    decoder = BitmapRegionDecoder.newInstance(stream, false);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "no region decoder, " + e.getMessage());
+                if (stream != null) {
+                    stream.reset();
+                }
+            }
+
+            if (decoder != null) {
+                try {
+                    importRegions(decoder);
+                } finally {
+                    decoder.recycle();
+                }
+            } else {
+                importSampled();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to import, " + e.getMessage());
+            OnImportListener listener = this.listener;
+            if (listener != null) {
+                listener.onImportFailed(e);
+            }
+            return;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+
+        if (!cancelled) {
+            imported = true;
+            long elapsed = SystemClock.uptimeMillis() - startTime;
+            OnImportListener listener = this.listener;
+            if (listener != null) {
+                listener.onImported(elapsed);
+            }
+        }
+    }
+
+    private void importRegions(BitmapRegionDecoder decoder) {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        float scale = getScale(width, height);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = getSampleSize(scale);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Paint paint = createPaint();
+        Rect region = new Rect();
+
+        Rect placed = getPlacement(width, height, scale);
+        for (Rect tile : DocumentRestorer.getTiles(placed.width(), placed.height(), visible)) {
+            if (cancelled) {
+                break;
+            }
+            region.set((int) (tile.left * scale), (int) (tile.top * scale),
+                    Math.min(width, (int) Math.ceil(tile.right * scale)),
+                    Math.min(height, (int) Math.ceil(tile.bottom * scale)));
+            if (region.isEmpty()) {
+                continue;
+            }
+            Bitmap decoded = decoder.decodeRegion(region, options);
+            if (decoded == null) {
+                continue;
+            }
+            synchronized (raster) {
+                new Canvas(raster).drawBitmap(decoded, null, tile, paint);
+            }
+            decoded.recycle();
+            OnImportListener listener = this.listener;
+            if (listener != null) {
+                listener.onTileImported(tile);
+            }
+        }
+    }
+
+    private void importSampled() throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+        if (stream != null) {
+            stream.reset();
+        }
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+        float scale = getScale(width, height);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(scale);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap decoded = decode(options);
+        if (decoded == null) {
+            throw new IOException("Failed to decode");
+        }
+
+        Rect placed = getPlacement(width, height, scale);
+        synchronized (raster) {
+            new Canvas(raster).drawBitmap(decoded, null, placed, createPaint());
+        }
+        decoded.recycle();
+        OnImportListener listener = this.listener;
+        if (listener != null) {
+            listener.onTileImported(placed);
+        }
+    }
+
+    private Bitmap decode(BitmapFactory.Options options) {
+        if (file != null) {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        return BitmapFactory.decodeStream(stream, null, options);
+    }
+
+    /**
+     * @return how many pixels of the image go into a pixel of the raster, at least 1
+     */
+    private float getScale(int width, int height) {
+        return Math.max(1F, Math.max((float) width / raster.getWidth(),
+                (float) height / raster.getHeight()));
+    }
+
+    /**
+     * @return the largest power of two not above the scale, so the decoded image has at least the pixels of the raster
+     */
+    static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 <= scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return where the image goes in the raster
+     */
+    private Rect getPlacement(int width, int height, float scale) {
+        return new Rect(0, 0, Math.min(raster.getWidth(), Math.round(width / scale)),
+                Math.min(raster.getHeight(), Math.round(height / scale)));
+    }
+
+    private static Paint createPaint() {
+        Paint paint = new Paint();
+        paint.setFilterBitmap(true);
+        paint.setDither(true);
+        return paint;
+    }
+}
@@ -0,0 +1,62 @@
+package com.yang.drawpad;
+
+import java.util.Arrays;
+
+/**
+ * Run-length coding of int pixels.
+ * <p/>
+ * A run is stored as two ints, {length, value}. Drawings are mostly large areas of
+ * a single color, so tiles of ARGB pixels shrink by orders of magnitude, and
+ * decoding is a sequence of Arrays.fill calls.
+ */
+public class IntRunLengthCodec {
+
+    private IntRunLengthCodec() {
+    }
+
+    /**
+     * @param src
+     * @param offset
+     * @param length
+     * @return the runs, {length0, value0, length1, value1, ...}
+     */
+    public static int[] encode(int[] src, int offset, int length) {
+        if (length == 0) {
+            return new int[0];
+        }
+        int[] runs = new int[16];
+        int n = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int value = src[i];
+            int start = i;
+            i++;
+            while (i < end && src[i] == value) {
+                i++;
+            }
+            if (n + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[n++] = i - start;
+            runs[n++] = value;
+        }
+        return Arrays.copyOf(runs, n);
+    }
+
+    /**
+     * @param runs   the output of encode
+     * @param dst
+     * @param offset where the first pixel goes in dst
+     * @return the number of pixels written
+     */
+    public static int decode(int[] runs, int[] dst, int offset) {
+        int position = offset;
+        for (int i = 0; i < runs.length; i += 2) {
+            int length = runs[i];
+            Arrays.fill(dst, position, position + length, runs[i + 1]);
+            position += length;
+        }
+        return position - offset;
+    }
+}
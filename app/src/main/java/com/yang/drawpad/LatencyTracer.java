@@ -0,0 +1,130 @@
+package com.yang.drawpad;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Measures the input-to-pixel latency of the live stroke.
+ * <p/>
+ * A touch sample is stamped with {@link android.view.MotionEvent#getEventTime()}
+ * when it is ingested on the UI thread, carried through the stroke builder,
+ * and recorded here once the frame containing it has been posted by the
+ * draw thread. Latencies are kept in a 1ms bucket histogram so that
+ * percentiles can be read without storing every sample.
+ * <p/>
+ * The static section helpers wrap {@link Trace} so the ingest, smooth,
+ * raster and present stages show up in systrace on devices that support it.
+ */
+public class LatencyTracer {
+    // trace section names
+    public static final String SECTION_INGEST = "drawpad:ingest";
+    public static final String SECTION_SMOOTH = "drawpad:smooth";
+    public static final String SECTION_RASTER = "drawpad:raster";
+    public static final String SECTION_PRESENT = "drawpad:present";
+
+    // latencies at or above this are put into the last bucket
+    private static final int MAX_LATENCY_MS = 250;
+
+    private final int[] buckets = new int[MAX_LATENCY_MS + 1];
+    private int count = 0;
+    private long sum = 0;
+
+    // the event time of the newest sample that has been presented
+    private long lastPresentedEventTime = 0;
+
+    /**
+     * begin a systrace section, no-op before API 18
+     * @param name
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * end the innermost systrace section, no-op before API 18
+     */
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Called on the draw thread right after unlockCanvasAndPost.
+     * Samples which were already presented by an earlier frame are ignored,
+     * so a stroke that stops moving does not inflate the distribution.
+     *
+     * @param eventTime the event time of the newest sample in the posted frame,
+     *                  0 if the frame contains no live sample
+     */
+    public synchronized void onFramePresented(long eventTime) {
+        if (eventTime <= 0 || eventTime <= lastPresentedEventTime) {
+            return;
+        }
+        lastPresentedEventTime = eventTime;
+        record(SystemClock.uptimeMillis() - eventTime);
+    }
+
+    /**
+     * add one latency to the distribution
+     * @param latencyMs
+     */
+    public synchronized void record(long latencyMs) {
+        if (latencyMs < 0) {
+            latencyMs = 0;
+        }
+        int bucket = latencyMs > MAX_LATENCY_MS ? MAX_LATENCY_MS : (int) latencyMs;
+        buckets[bucket]++;
+        count++;
+        sum += latencyMs;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the latency in ms below which the given percentage of samples fall,
+     * -1 if nothing has been recorded
+     */
+    public synchronized int getPercentile(float percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return i;
+            }
+        }
+        return MAX_LATENCY_MS;
+    }
+
+    public synchronized float getMean() {
+        return count == 0 ? 0F : (float) sum / count;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        lastPresentedEventTime = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d mean=%.1fms p50=%dms p90=%dms p99=%dms",
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99));
+    }
+}
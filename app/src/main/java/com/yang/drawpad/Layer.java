@@ -0,0 +1,349 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+/**
+ * One layer of the drawing, with a cached raster of its strokes.
+ * <p/>
+ * The raster is only rebuilt when the layer is invalidated. Opacity, blend mode
+ * and visibility are applied when the layers are composited, so changing them
+ * does not touch the raster.
+ * <p/>
+ * The raster is stored in one of three ways, picked by the view from what the
+ * layer holds: ARGB_8888, ALPHA_8 coverage of a single ink color which is
+ * tinted when composited, or RGB_565 over an opaque fill for the bottom layer,
+ * a quarter and a half of the memory.
+ */
+public class Layer {
+    private String name;
+
+    private Bitmap raster = null;
+    private Canvas canvas = null;
+    private Bitmap.Config config = Bitmap.Config.ARGB_8888;
+    // the ink of an ALPHA_8 raster, the fill under an RGB_565 one
+    private int storageColor = Color.BLACK;
+    // stored as ARGB_8888 for good, see keepArgb
+    private boolean isArgbKept = false;
+    // the strokes which left the history
+    private Bitmap overflow = null;
+    private Canvas overflowCanvas = null;
+
+    private int opacity = 255;
+    private PorterDuff.Mode blendMode = PorterDuff.Mode.SRC_OVER;
+    private boolean visible = true;
+    private volatile boolean dirty = true;
+    // the part of the raster to rebuild when the layer is not dirty, e.g.
+    // where a tile of an image came in, it may grow from any thread
+    private final Rect dirtyRegion = new Rect();
+
+    private final Paint compositePaint = new Paint();
+
+    public Layer(String name) {
+        this.name = name;
+        compositePaint.setFilterBitmap(true);
+        compositePaint.setDither(true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getOpacity() {
+        return opacity;
+    }
+
+    /**
+     * @param opacity 0 - 255
+     */
+    public void setOpacity(int opacity) {
+        this.opacity = Math.max(0, Math.min(255, opacity));
+        updateCompositePaint();
+    }
+
+    public PorterDuff.Mode getBlendMode() {
+        return blendMode;
+    }
+
+    /**
+     * how the layer is combined with the layers under it
+     *
+     * @param blendMode
+     */
+    public void setBlendMode(PorterDuff.Mode blendMode) {
+        this.blendMode = blendMode;
+        compositePaint.setXfermode(blendMode == PorterDuff.Mode.SRC_OVER
+                ? null : new PorterDuffXfermode(blendMode));
+        if (config == Bitmap.Config.RGB_565) {
+            // the fill is only right under SRC_OVER, the view picks another storage
+            dirty = true;
+        }
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    public int getStorageColor() {
+        return storageColor;
+    }
+
+    /**
+     * change how the raster is stored, the raster is dropped and the layer is dirty
+     *
+     * @param config ARGB_8888, ALPHA_8 or RGB_565
+     * @param color  the ink of ALPHA_8, the opaque fill of RGB_565
+     * @return false if it is stored so already
+     */
+    public boolean setStorage(Bitmap.Config config, int color) {
+        if (config == this.config && (config == Bitmap.Config.ARGB_8888 || color == storageColor)) {
+            return false;
+        }
+        this.config = config;
+        this.storageColor = color;
+        if (raster != null) {
+            raster.recycle();
+        }
+        raster = null;
+        canvas = null;
+        dirty = true;
+        updateCompositePaint();
+        return true;
+    }
+
+    /**
+     * tell the view to store the raster as ARGB_8888 from now on, e.g. once
+     * the layer has had several inks, instead of picking the storage again on
+     * every replay
+     */
+    public void keepArgb() {
+        isArgbKept = true;
+    }
+
+    public boolean isArgbKept() {
+        return isArgbKept;
+    }
+
+    private void updateCompositePaint() {
+        // an ALPHA_8 bitmap is drawn in the color of the paint
+        compositePaint.setColor(config == Bitmap.Config.ALPHA_8 ? storageColor : Color.BLACK);
+        compositePaint.setAlpha(opacity);
+    }
+
+    /**
+     * @return true if the raster has to be rebuilt from the strokes
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * the raster is rebuilt on the next redraw
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * the raster is rebuilt inside the region only, may be called from any thread
+     *
+     * @param region
+     */
+    public void invalidate(Rect region) {
+        synchronized (dirtyRegion) {
+            dirtyRegion.union(region);
+        }
+    }
+
+    /**
+     * @return whether a region waits to be rebuilt, see invalidate(Rect)
+     */
+    public boolean hasDirtyRegion() {
+        synchronized (dirtyRegion) {
+            return !dirtyRegion.isEmpty();
+        }
+    }
+
+    /**
+     * @param out receives the region to rebuild, which is then cleared
+     * @return false if there is none
+     */
+    public boolean takeDirtyRegion(Rect out) {
+        synchronized (dirtyRegion) {
+            if (dirtyRegion.isEmpty()) {
+                return false;
+            }
+            out.set(dirtyRegion);
+            dirtyRegion.setEmpty();
+            return true;
+        }
+    }
+
+    /**
+     * the raster, allocated if needed, a new raster is dirty
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public Bitmap getRaster(int width, int height) {
+        if (raster == null || raster.getWidth() != width || raster.getHeight() != height) {
+            if (raster != null) {
+                raster.recycle();
+            }
+            raster = Bitmap.createBitmap(width, height, config);
+            canvas = new Canvas(raster);
+            dirty = true;
+        }
+        return raster;
+    }
+
+    /**
+     * a canvas drawing into the raster
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public Canvas getCanvas(int width, int height) {
+        getRaster(width, height);
+        return canvas;
+    }
+
+    /**
+     * clear the raster to rebuild it, the layer is clean afterwards
+     *
+     * @param width
+     * @param height
+     * @return a canvas drawing into the raster
+     */
+    public Canvas beginRedraw(int width, int height) {
+        // what comes in from now on is drawn again
+        synchronized (dirtyRegion) {
+            dirtyRegion.setEmpty();
+        }
+        getRaster(width, height);
+        clear();
+        dirty = false;
+        return canvas;
+    }
+
+    /**
+     * clear a region of the raster to rebuild it, the caller restores the canvas when done
+     *
+     * @param width
+     * @param height
+     * @param region
+     * @return a canvas drawing into the raster, clipped to the region
+     */
+    public Canvas beginRedraw(int width, int height, Rect region) {
+        getRaster(width, height);
+        canvas.save();
+        canvas.clipRect(region);
+        clear();
+        return canvas;
+    }
+
+    private void clear() {
+        if (config == Bitmap.Config.RGB_565) {
+            canvas.drawColor(storageColor, PorterDuff.Mode.SRC);
+        } else {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        }
+    }
+
+    public Bitmap getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * a canvas drawing into the overflow bitmap, allocated if needed
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public Canvas getOverflowCanvas(int width, int height) {
+        if (overflow == null) {
+            overflow = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            overflowCanvas = new Canvas(overflow);
+        }
+        return overflowCanvas;
+    }
+
+    /**
+     * make the overflow bitmap at least as large as the canvas, its ink stays
+     * where it is, and none is lost when the canvas is smaller for a while
+     *
+     * @param width
+     * @param height
+     */
+    public void growOverflow(int width, int height) {
+        if (overflow == null || (overflow.getWidth() >= width && overflow.getHeight() >= height)) {
+            return;
+        }
+        Bitmap grown = Bitmap.createBitmap(Math.max(width, overflow.getWidth()),
+                Math.max(height, overflow.getHeight()), Bitmap.Config.ARGB_8888);
+        Canvas grownCanvas = new Canvas(grown);
+        grownCanvas.drawBitmap(overflow, 0F, 0F, null);
+        overflow.recycle();
+        overflow = grown;
+        overflowCanvas = grownCanvas;
+    }
+
+    /**
+     * draw the raster with the opacity and the blend mode of the layer
+     *
+     * @param target
+     */
+    public void drawTo(Canvas target) {
+        if (visible && raster != null) {
+            target.drawBitmap(raster, 0F, 0F, compositePaint);
+        }
+    }
+
+    /**
+     * @return the memory of the raster and the overflow bitmap
+     */
+    public int getByteCount() {
+        int bytes = 0;
+        if (raster != null) {
+            bytes += raster.getRowBytes() * raster.getHeight();
+        }
+        if (overflow != null) {
+            bytes += overflow.getRowBytes() * overflow.getHeight();
+        }
+        return bytes;
+    }
+
+    public void recycle() {
+        if (raster != null) {
+            raster.recycle();
+        }
+        if (overflow != null) {
+            overflow.recycle();
+        }
+        raster = null;
+        canvas = null;
+        overflow = null;
+        overflowCanvas = null;
+        dirty = true;
+    }
+}
@@ -0,0 +1,123 @@
+package com.yang.drawpad;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The layers of the drawing, bottom first.
+ * <p/>
+ * The stack starts with a background layer, which holds imported images and
+ * opened documents, and an ink layer above it, which is active. Compositing
+ * draws the cached rasters of the visible layers; the caller clips the canvas
+ * to the region which changed.
+ */
+public class LayerStack {
+    private final List<Layer> layers = new ArrayList<Layer>();
+    private int activeIndex;
+
+    public LayerStack() {
+        layers.add(new Layer("Background"));
+        layers.add(new Layer("Ink"));
+        activeIndex = 1;
+    }
+
+    public synchronized int size() {
+        return layers.size();
+    }
+
+    public synchronized Layer getLayer(int index) {
+        return layers.get(index);
+    }
+
+    public synchronized int indexOf(Layer layer) {
+        return layers.indexOf(layer);
+    }
+
+    /**
+     * the layer new strokes are drawn on
+     *
+     * @return
+     */
+    public synchronized Layer getActiveLayer() {
+        return layers.get(activeIndex);
+    }
+
+    public synchronized int getActiveIndex() {
+        return activeIndex;
+    }
+
+    public synchronized void setActiveIndex(int index) {
+        if (index >= 0 && index < layers.size()) {
+            this.activeIndex = index;
+        }
+    }
+
+    /**
+     * add a layer on top of the active one and make it active
+     *
+     * @param name
+     * @return the new layer
+     */
+    public synchronized Layer addLayer(String name) {
+        Layer layer = new Layer(name);
+        activeIndex++;
+        layers.add(activeIndex, layer);
+        return layer;
+    }
+
+    /**
+     * every raster is rebuilt on the next redraw
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).invalidate();
+        }
+    }
+
+    /**
+     * @return whether a raster has to be rebuilt
+     */
+    public synchronized boolean isDirty() {
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * draw the base color and the visible layers
+     *
+     * @param canvas    the target, clipped to the region to update
+     * @param baseColor
+     */
+    public synchronized void composite(Canvas canvas, int baseColor) {
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawColor(baseColor);
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).drawTo(canvas);
+        }
+    }
+
+    /**
+     * @return the memory of the rasters of every layer
+     */
+    public synchronized int getByteCount() {
+        int bytes = 0;
+        for (int i = 0; i < layers.size(); i++) {
+            bytes += layers.get(i).getByteCount();
+        }
+        return bytes;
+    }
+
+    public synchronized void recycle() {
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).recycle();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An offscreen bitmap holding the frozen part of the stroke being drawn.
+ * <p/>
+ * The bitmap only covers the bounds of the ink so far, with some room to grow,
+ * and is taken from a pool: when the stroke leaves it, a larger one is taken
+ * and the ink copied over, and when the stroke is merged it goes back to the
+ * pool for the next stroke.
+ * <p/>
+ * The UI thread appends every finished piece of the live stroke, the draw thread
+ * rasterizes the pieces appended since the last frame and composites the bitmap,
+ * so the cost of a frame does not depend on the length of the stroke. The ink is
+ * drawn opaque and the stroke alpha is applied once when compositing, otherwise
+ * every join between two pieces of a translucent stroke would be drawn twice.
+ * <p/>
+ * Dab brushes append dab centers instead of pieces, they are stamped with the dab
+ * bitmap set for the stroke. For an eraser the overlay takes out what its dabs
+ * cover when compositing (DST_OUT), which removes as much as DabBrush.draw does.
+ * <p/>
+ * When the stroke is finished, the bitmap is merged into the background instead
+ * of replaying the whole path.
+ */
+public class LiveStrokeOverlay {
+    // added around the ink at least when the bitmap grows
+    private static final int GROW_MARGIN = 128;   //pixel
+
+    private final BitmapPool pool;
+    private Bitmap bitmap = null;
+    private Canvas canvas = null;
+    // the part of the canvas the bitmap holds, its top left is the origin of the bitmap
+    private final Rect covered = new Rect();
+    private final RectF inkBounds = new RectF();
+    private final RectF pieceBounds = new RectF();
+    private final Rect needed = new Rect();
+
+    private Paint inkPaint = new Paint();
+    private Paint compositePaint = new Paint();
+    private Paint dabPaint = new Paint();
+
+    // guarded by this
+    private List<Path> pendingPieces = new ArrayList<Path>();
+    private List<Path> drawingPieces = new ArrayList<Path>();
+    private Bitmap dab = null;
+    private float[] pendingDabs = new float[64];
+    private int pendingDabCount = 0;
+    private float[] drawingDabs = new float[64];
+    private int drawingDabCount = 0;
+    private float outset = 0F;
+    private int generation = 0;
+    private boolean needsClear = false;
+
+    public LiveStrokeOverlay() {
+        this(new BitmapPool());
+    }
+
+    /**
+     * @param pool of the draw thread
+     */
+    public LiveStrokeOverlay(BitmapPool pool) {
+        this.pool = pool;
+        compositePaint.setFilterBitmap(true);
+        compositePaint.setDither(true);
+        dabPaint.setFilterBitmap(true);
+    }
+
+    /**
+     * Start a new stroke, called on the UI thread.
+     *
+     * @param strokePaint the paint of the stroke
+     * @param outset      how far the ink reaches beyond a piece, e.g. half the width and the blur
+     * @return the generation of the stroke, see mergeInto
+     */
+    public synchronized int begin(Paint strokePaint, float outset) {
+        generation++;
+        this.outset = outset;
+        pendingPieces.clear();
+        pendingDabCount = 0;
+        dab = null;
+        needsClear = true;
+
+        inkPaint = new Paint(strokePaint);
+        inkPaint.setAlpha(255);
+        dabPaint.setColor(strokePaint.getColor());
+        dabPaint.setAlpha(255);
+        if (strokePaint.getXfermode() != null) {
+            // the eraser, its paint is transparent
+            inkPaint.setXfermode(null);
+            compositePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+            compositePaint.setAlpha(255);
+        } else {
+            compositePaint.setXfermode(null);
+            compositePaint.setAlpha(strokePaint.getAlpha());
+        }
+        return generation;
+    }
+
+    /**
+     * Append a finished piece of the live stroke, called on the UI thread.
+     * The piece must not be modified afterwards.
+     *
+     * @param piece
+     */
+    public synchronized void append(Path piece) {
+        if (piece != null) {
+            pendingPieces.add(piece);
+        }
+    }
+
+    /**
+     * Set the dab of a dab brush stroke, called on the UI thread after begin.
+     *
+     * @param dab an ALPHA_8 bitmap
+     */
+    public synchronized void setDab(Bitmap dab) {
+        this.dab = dab;
+    }
+
+    /**
+     * Append dabs of the live stroke, called on the UI thread.
+     *
+     * @param centers {x0, y0, x1, y1, ...}
+     * @param count   the number of dabs
+     */
+    public synchronized void appendDabs(float[] centers, int count) {
+        if (2 * (pendingDabCount + count) > pendingDabs.length) {
+            float[] grown = new float[Math.max(2 * pendingDabs.length, 2 * (pendingDabCount + count))];
+            System.arraycopy(pendingDabs, 0, grown, 0, 2 * pendingDabCount);
+            pendingDabs = grown;
+        }
+        System.arraycopy(centers, 0, pendingDabs, 2 * pendingDabCount, 2 * count);
+        pendingDabCount += count;
+    }
+
+    /**
+     * rasterize the new pieces and composite the overlay, called on the draw thread
+     *
+     * @param screen the canvas to draw on, already transformed
+     * @param width  the canvas size
+     * @param height the canvas size
+     */
+    public void draw(Canvas screen, int width, int height) {
+        flush(width, height);
+        if (bitmap != null) {
+            screen.drawBitmap(bitmap, covered.left, covered.top, compositePaint);
+        }
+    }
+
+    /**
+     * Merge the overlay into the background, called on the draw thread.
+     *
+     * @param background
+     * @param generation the generation returned by begin
+     * @return false if another stroke has begun since, the caller should
+     * redraw the stroke from its path instead
+     */
+    public boolean mergeInto(Bitmap background, int generation) {
+        synchronized (this) {
+            if (generation != this.generation) {
+                return false;
+            }
+        }
+        flush(background.getWidth(), background.getHeight());
+        if (bitmap != null) {
+            new Canvas(background).drawBitmap(bitmap, covered.left, covered.top, compositePaint);
+        }
+        // the stroke is done with it
+        release();
+        return true;
+    }
+
+    /**
+     * give the bitmap back to the pool without merging it, e.g. when the
+     * stroke is dropped, called on the draw thread or holding its lock
+     */
+    public void discard() {
+        release();
+    }
+
+    /**
+     * release the bitmap and the pool, e.g. when the view goes away
+     */
+    public void recycle() {
+        release();
+        pool.clear();
+    }
+
+    private void release() {
+        if (bitmap != null) {
+            pool.release(bitmap);
+        }
+        bitmap = null;
+        canvas = null;
+    }
+
+    private void flush(int width, int height) {
+        Paint paint;
+        Bitmap stamp;
+        float margin;
+        synchronized (this) {
+            if (needsClear) {
+                release();
+                needsClear = false;
+            }
+            // swap the lists so the UI thread can keep appending
+            List<Path> swap = drawingPieces;
+            drawingPieces = pendingPieces;
+            pendingPieces = swap;
+            float[] swapDabs = drawingDabs;
+            drawingDabs = pendingDabs;
+            drawingDabCount = pendingDabCount;
+            pendingDabs = swapDabs;
+            pendingDabCount = 0;
+            paint = inkPaint;
+            stamp = dab;
+            margin = outset;
+        }
+
+        // where the new ink goes
+        inkBounds.setEmpty();
+        for (int i = 0, size = drawingPieces.size(); i < size; i++) {
+            drawingPieces.get(i).computeBounds(pieceBounds, true);
+            inkBounds.union(pieceBounds.left - margin, pieceBounds.top - margin,
+                    pieceBounds.right + margin, pieceBounds.bottom + margin);
+        }
+        if (stamp != null) {
+            float offset = stamp.getWidth() / 2F + 1F;
+            for (int i = 0; i < drawingDabCount; i++) {
+                inkBounds.union(drawingDabs[2 * i] - offset, drawingDabs[2 * i + 1] - offset,
+                        drawingDabs[2 * i] + offset, drawingDabs[2 * i + 1] + offset);
+            }
+        }
+        if (!inkBounds.isEmpty()) {
+            cover(inkBounds, width, height);
+        }
+
+        if (canvas != null) {
+            canvas.save();
+            canvas.translate(-covered.left, -covered.top);
+            for (int i = 0, size = drawingPieces.size(); i < size; i++) {
+                canvas.drawPath(drawingPieces.get(i), paint);
+            }
+
+            // all the dabs of the frame in one go
+            if (stamp != null) {
+                float offset = stamp.getWidth() / 2F;
+                for (int i = 0; i < drawingDabCount; i++) {
+                    canvas.drawBitmap(stamp, drawingDabs[2 * i] - offset, drawingDabs[2 * i + 1] - offset, dabPaint);
+                }
+            }
+            canvas.restore();
+        }
+        drawingPieces.clear();
+        drawingDabCount = 0;
+    }
+
+    /**
+     * make the bitmap hold the ink, the ink outside of the canvas is not kept
+     *
+     * @param ink    in canvas pixels
+     * @param width  the canvas size
+     * @param height the canvas size
+     */
+    private void cover(RectF ink, int width, int height) {
+        ink.roundOut(needed);
+        if (!needed.intersect(0, 0, width, height)) {
+            return;
+        }
+        if (bitmap != null && covered.contains(needed)) {
+            return;
+        }
+
+        // room to grow, at least doubling the size, so a long stroke takes a
+        // larger bitmap and copies its ink a few times only
+        int marginX = GROW_MARGIN;
+        int marginY = GROW_MARGIN;
+        if (bitmap != null) {
+            marginX = Math.max(GROW_MARGIN, covered.width() / 2);
+            marginY = Math.max(GROW_MARGIN, covered.height() / 2);
+            needed.union(covered);
+        }
+        needed.inset(-marginX, -marginY);
+        needed.intersect(0, 0, width, height);
+        Bitmap grown = pool.acquire(needed.width(), needed.height());
+        Canvas grownCanvas = new Canvas(grown);
+        if (bitmap != null) {
+            grownCanvas.drawBitmap(bitmap, covered.left - needed.left, covered.top - needed.top, null);
+            pool.release(bitmap);
+        }
+        bitmap = grown;
+        canvas = grownCanvas;
+        covered.set(needed.left, needed.top, needed.left + grown.getWidth(), needed.top + grown.getHeight());
+    }
+}
@@ -5,16 +5,23 @@ import android.graphics.Color;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "MainActivity";
+    // the drawing is kept here between launches
+    private static final String LAST_DOCUMENT = "last.dpad";
+
     int maxBrushSize = 100;
     int initialBrushSize = 1;
     int brushSize = 1;
@@ -50,6 +57,19 @@ public class MainActivity extends AppCompatActivity {
 
         canvasView.setPaintStrokeWidth(brushSize);
 
+        // after a configuration change the drawing is taken over as it is,
+        // otherwise the preview is on the first frame and the strokes follow in the background
+        File lastDocument = new File(getFilesDir(), LAST_DOCUMENT);
+        Object retained = getLastCustomNonConfigurationInstance();
+        if (retained instanceof CanvasState) {
+            canvasView.setCanvasState((CanvasState) retained);
+        } else if (lastDocument.exists()) {
+            try {
+                canvasView.openDocument(lastDocument);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to open the last drawing", e);
+            }
+        }
 
         undoButton = findViewById(R.id.imageView_undo);
 
@@ -143,9 +163,25 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        if (!isChangingConfigurations()) {
+            // written in the background, the UI thread only takes the strokes
+            canvasView.saveDocumentInBackground(new File(getFilesDir(), LAST_DOCUMENT));
+        }
         canvasView.pause();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        canvasView.trimMemory();
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        // the new activity takes the drawing over, see onCreate
+        return canvasView.getCanvasState();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -0,0 +1,310 @@
+package com.yang.drawpad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The operations of a canvas shared by several sites, e.g. two tablets.
+ * <p/>
+ * The log is a grow-only set of ops, merged by union, so the sites which have
+ * seen the same ops have the same log whatever the order they got them in.
+ * The strokes on the canvas are computed by applying the ops in the order of
+ * their ids, which is the same everywhere:
+ * <ul>
+ * <li>ADD puts a stroke on the top</li>
+ * <li>ERASE takes a stroke off</li>
+ * <li>TRANSFORM replaces strokes by moved copies, on the top</li>
+ * <li>UNDO cancels an op for good, a redo is a new op</li>
+ * </ul>
+ * An op which targets a stroke that is gone, e.g. erased at the same time on
+ * another site, does nothing. All methods are thread safe.
+ */
+public class OpLog {
+    public interface OnOpListener {
+        /**
+         * an op made on this site, e.g. to send it, called on the thread which made it
+         *
+         * @param op
+         */
+        void onLocalOp(StrokeOp op);
+
+        /**
+         * the strokes changed because of remote ops, called on the thread which merged them
+         */
+        void onRemoteChange();
+    }
+
+    private final int site;
+    private long clock = 0;
+    // every op, by id
+    private final TreeMap<Long, StrokeOp> ops = new TreeMap<Long, StrokeOp>();
+    // the op made on this site for each stroke or transform, see undo
+    private final Map<Object, Long> localOps = new IdentityHashMap<Object, Long>();
+    // every stroke this site put into the log, copies included
+    private final Map<StrokeRecord, Boolean> shared = new IdentityHashMap<StrokeRecord, Boolean>();
+    private final List<OnOpListener> listeners = new CopyOnWriteArrayList<OnOpListener>();
+
+    // the strokes on the canvas, computed when needed
+    private List<StrokeRecord> visible = null;
+    private Map<StrokeRecord, Long> visibleIds = null;
+    // the copies made by remote transforms, by id, and what they were made from
+    private final Map<Long, StrokeRecord> copies = new HashMap<Long, StrokeRecord>();
+    private final Map<Long, StrokeRecord> copySources = new HashMap<Long, StrokeRecord>();
+
+    /**
+     * @param site unique among the sites sharing the canvas, at most StrokeOp.MAX_SITE
+     */
+    public OpLog(int site) {
+        if (site < 0 || site > StrokeOp.MAX_SITE) {
+            throw new IllegalArgumentException("Bad site " + site);
+        }
+        this.site = site;
+    }
+
+    public int getSite() {
+        return site;
+    }
+
+    public void addOnOpListener(OnOpListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnOpListener(OnOpListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * put a stroke drawn on this site on the top
+     *
+     * @param stroke
+     * @return the op
+     */
+    public StrokeOp add(StrokeRecord stroke) {
+        StrokeOp op;
+        synchronized (this) {
+            op = StrokeOp.add(nextId(0), stroke);
+            localOps.put(stroke, op.getId());
+            shared.put(stroke, Boolean.TRUE);
+        }
+        return publish(op);
+    }
+
+    /**
+     * @param strokeId see getStrokeId
+     * @return the op
+     */
+    public StrokeOp erase(long strokeId) {
+        StrokeOp op;
+        synchronized (this) {
+            op = StrokeOp.erase(nextId(0), strokeId);
+        }
+        return publish(op);
+    }
+
+    /**
+     * replace the strokes of a transform made on this site by its copies
+     *
+     * @param transform
+     * @return the op
+     */
+    public StrokeOp transform(StrokeTransform transform) {
+        StrokeOp op;
+        synchronized (this) {
+            List<StrokeRecord> sources = transform.getSources();
+            long[] strokeIds = new long[sources.size()];
+            for (int i = 0; i < strokeIds.length; i++) {
+                strokeIds[i] = getStrokeId(sources.get(i));
+            }
+            // the ids of the copies are reserved
+            op = StrokeOp.transform(nextId(sources.size()), strokeIds, transform.getMatrix(),
+                    transform.getResults());
+            localOps.put(transform, op.getId());
+            for (StrokeRecord result : transform.getResults()) {
+                shared.put(result, Boolean.TRUE);
+            }
+        }
+        return publish(op);
+    }
+
+    /**
+     * cancel the op made on this site for a stroke or a transform
+     *
+     * @param local the stroke or the transform
+     * @return the op, null if nothing was made for it
+     */
+    public StrokeOp undo(Object local) {
+        StrokeOp op;
+        synchronized (this) {
+            Long target = localOps.remove(local);
+            if (target == null) {
+                return null;
+            }
+            op = StrokeOp.undo(nextId(0), target);
+        }
+        return publish(op);
+    }
+
+    private StrokeOp publish(StrokeOp op) {
+        synchronized (this) {
+            ops.put(op.getId(), op);
+            visible = null;
+        }
+        for (OnOpListener listener : listeners) {
+            listener.onLocalOp(op);
+        }
+        return op;
+    }
+
+    /**
+     * @param reserved the ids to skip after the new one
+     */
+    private long nextId(int reserved) {
+        clock++;
+        long id = StrokeOp.makeId(clock, site);
+        clock += reserved;
+        return id;
+    }
+
+    /**
+     * add ops from another site, the ones already in the log are ignored
+     *
+     * @param remote
+     * @return whether the strokes may have changed
+     */
+    public boolean merge(List<StrokeOp> remote) {
+        synchronized (this) {
+            boolean isChanged = false;
+            for (StrokeOp op : remote) {
+                if (ops.containsKey(op.getId())) {
+                    continue;
+                }
+                ops.put(op.getId(), op);
+                // Lamport: past every op seen, and past the copies of a transform
+                long last = StrokeOp.getClock(op.getId());
+                if (op.getType() == StrokeOp.TRANSFORM) {
+                    last += op.getTargets().length;
+                }
+                clock = Math.max(clock, last);
+                isChanged = true;
+            }
+            if (!isChanged) {
+                return false;
+            }
+            visible = null;
+        }
+        for (OnOpListener listener : listeners) {
+            listener.onRemoteChange();
+        }
+        return true;
+    }
+
+    /**
+     * @param stroke
+     * @return whether this site put the stroke into the log
+     */
+    public synchronized boolean isShared(StrokeRecord stroke) {
+        return shared.containsKey(stroke);
+    }
+
+    /**
+     * @return every op, in the order of their ids
+     */
+    public synchronized List<StrokeOp> getOps() {
+        return new ArrayList<StrokeOp>(ops.values());
+    }
+
+    public synchronized int size() {
+        return ops.size();
+    }
+
+    /**
+     * @return the strokes on the canvas, from the bottom
+     */
+    public synchronized List<StrokeRecord> getVisibleStrokes() {
+        update();
+        return visible;
+    }
+
+    /**
+     * @param stroke on the canvas
+     * @return its id, -1 if it is not on the canvas
+     */
+    public synchronized long getStrokeId(StrokeRecord stroke) {
+        update();
+        Long id = visibleIds.get(stroke);
+        return id != null ? id : -1;
+    }
+
+    private void update() {
+        if (visible != null) {
+            return;
+        }
+
+        Set<Long> undone = new HashSet<Long>();
+        for (StrokeOp op : ops.values()) {
+            if (op.getType() == StrokeOp.UNDO) {
+                undone.add(op.getTarget());
+            }
+        }
+
+        // by id, in the order they are drawn
+        LinkedHashMap<Long, StrokeRecord> strokes = new LinkedHashMap<Long, StrokeRecord>();
+        for (StrokeOp op : ops.values()) {
+            if (undone.contains(op.getId())) {
+                continue;
+            }
+            switch (op.getType()) {
+                case StrokeOp.ADD:
+                    strokes.put(op.getId(), op.getStroke());
+                    break;
+                case StrokeOp.ERASE:
+                    strokes.remove(op.getTarget());
+                    break;
+                case StrokeOp.TRANSFORM:
+                    long[] targets = op.getTargets();
+                    List<StrokeRecord> results = op.getResults();
+                    for (int i = 0; i < targets.length; i++) {
+                        StrokeRecord source = strokes.remove(targets[i]);
+                        if (source == null) {
+                            continue;
+                        }
+                        long resultId = op.getResultId(i);
+                        strokes.put(resultId, results != null ? results.get(i)
+                                : getCopy(resultId, source, op));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        visible = Collections.unmodifiableList(new ArrayList<StrokeRecord>(strokes.values()));
+        visibleIds = new IdentityHashMap<StrokeRecord, Long>();
+        for (Map.Entry<Long, StrokeRecord> entry : strokes.entrySet()) {
+            visibleIds.put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * the copy of a stroke moved by a remote transform, made again only if the
+     * stroke it is made from changed, e.g. because an earlier op was undone
+     */
+    private StrokeRecord getCopy(long resultId, StrokeRecord source, StrokeOp op) {
+        StrokeRecord copy = copies.get(resultId);
+        if (copy == null || copySources.get(resultId) != source) {
+            copy = source.transform(StrokeRecord.nextId(), op.getMatrix());
+            copies.put(resultId, copy);
+            copySources.put(resultId, source);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,94 @@
+package com.yang.drawpad;
+
+import java.util.Arrays;
+
+/**
+ * Packing of float coordinates as 1/16 pixel fixed-point deltas in a short[].
+ * <p/>
+ * The first two shorts hold the number of values. Every value is stored as the
+ * difference to the value two places before it (so x to x and y to y), in 1/16
+ * pixel. A difference which does not fit in a short, more than about 2000 pixels,
+ * is stored as ESCAPE followed by the high and the low half of the int. Strokes
+ * are made of close points, so a point takes 4 bytes instead of 8 and the error
+ * is at most 1/32 pixel.
+ */
+public class PackedPoints {
+    public static final int SCALE = 16;
+
+    private static final short ESCAPE = Short.MIN_VALUE;
+
+    private PackedPoints() {
+    }
+
+    /**
+     * @param values {x0, y0, x1, y1, ...}, or any values to keep at 1/16 precision
+     * @return
+     */
+    public static short[] pack(float[] values) {
+        int n = values.length;
+        short[] packed = new short[2 + n];
+        int k = 0;
+        packed[k++] = (short) (n >>> 16);
+        packed[k++] = (short) n;
+
+        int previousX = 0;
+        int previousY = 0;
+        for (int i = 0; i < n; i++) {
+            int fixed = Math.round(values[i] * SCALE);
+            int delta;
+            if ((i & 1) == 0) {
+                delta = fixed - previousX;
+                previousX = fixed;
+            } else {
+                delta = fixed - previousY;
+                previousY = fixed;
+            }
+
+            if (k + 3 > packed.length) {
+                packed = Arrays.copyOf(packed, packed.length + Math.max(16, n / 4));
+            }
+            if (delta > ESCAPE && delta <= Short.MAX_VALUE) {
+                packed[k++] = (short) delta;
+            } else {
+                packed[k++] = ESCAPE;
+                packed[k++] = (short) (delta >>> 16);
+                packed[k++] = (short) delta;
+            }
+        }
+        return k == packed.length ? packed : Arrays.copyOf(packed, k);
+    }
+
+    /**
+     * @param packed the output of pack
+     * @return the number of values
+     */
+    public static int size(short[] packed) {
+        return ((packed[0] & 0xffff) << 16) | (packed[1] & 0xffff);
+    }
+
+    /**
+     * @param packed the output of pack
+     * @return the values, rounded to 1/16
+     */
+    public static float[] unpack(short[] packed) {
+        float[] values = new float[size(packed)];
+        int k = 2;
+        int previousX = 0;
+        int previousY = 0;
+        for (int i = 0; i < values.length; i++) {
+            int delta = packed[k++];
+            if (delta == ESCAPE) {
+                delta = (packed[k] << 16) | (packed[k + 1] & 0xffff);
+                k += 2;
+            }
+            int fixed;
+            if ((i & 1) == 0) {
+                fixed = previousX += delta;
+            } else {
+                fixed = previousY += delta;
+            }
+            values[i] = fixed / (float) SCALE;
+        }
+        return values;
+    }
+}
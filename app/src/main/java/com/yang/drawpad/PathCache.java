@@ -0,0 +1,76 @@
+package com.yang.drawpad;
+
+import android.graphics.Path;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The native Paths of the most recently drawn strokes.
+ * <p/>
+ * Committed strokes are kept as packed StrokeRecords; a Path is inflated when a
+ * stroke has to be drawn and kept until it is the least recently used of more
+ * than maxEntries.
+ */
+public class PathCache {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final Map<StrokeRecord, Path> paths;
+    private int inflated = 0;
+
+    public PathCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public PathCache(final int maxEntries) {
+        this.paths = new LinkedHashMap<StrokeRecord, Path>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StrokeRecord, Path> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param stroke
+     * @return the path of the stroke, not to be modified
+     */
+    public synchronized Path get(StrokeRecord stroke) {
+        Path path = paths.get(stroke);
+        if (path == null) {
+            path = stroke.toPath();
+            paths.put(stroke, path);
+            inflated++;
+        }
+        return path;
+    }
+
+    /**
+     * keep an already built path, e.g. the one the stroke was drawn with
+     *
+     * @param stroke
+     * @param path
+     */
+    public synchronized void put(StrokeRecord stroke, Path path) {
+        paths.put(stroke, path);
+    }
+
+    public synchronized void remove(StrokeRecord stroke) {
+        paths.remove(stroke);
+    }
+
+    public synchronized void clear() {
+        paths.clear();
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    /**
+     * @return how many paths have been inflated from their records, for profiling
+     */
+    public synchronized int getInflatedCount() {
+        return inflated;
+    }
+}
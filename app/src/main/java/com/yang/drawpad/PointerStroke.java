@@ -0,0 +1,133 @@
+package com.yang.drawpad;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * The live stroke of one finger when several fingers draw at once.
+ * <p/>
+ * Each pointer has its own resampler and curve, so the samples of one finger
+ * never end up in the stroke of another. Each has its own overlay too: the UI
+ * thread appends the finished pieces, and the draw thread rasterizes only the
+ * new ones and merges the overlay when the finger is lifted, see LiveStrokeOverlay.
+ */
+public class PointerStroke {
+    private final int pointerId;
+    private final SurfaceCanvasView.Drawer drawer;
+    private final Paint paint;
+    private final Layer layer;
+    private final LiveStrokeOverlay overlay;
+    private int generation;
+
+    private final ArcLengthResampler resampler = new ArcLengthResampler();
+    private final BezierCurveConstructor curve = new BezierCurveConstructor();
+    // the polyline of the pen, the smooth pen draws the curve
+    private final Path path = new Path();
+    private float prevX;
+    private float prevY;
+
+    /**
+     * @param pointerId
+     * @param drawer    PEN or SMOOTH_PEN
+     * @param paint
+     * @param layer     the layer the stroke goes into
+     * @param overlay   of this stroke only
+     * @param spacing   of the resampled points, see ArcLengthResampler
+     */
+    public PointerStroke(int pointerId, SurfaceCanvasView.Drawer drawer, Paint paint, Layer layer,
+                         LiveStrokeOverlay overlay, float spacing) {
+        this.pointerId = pointerId;
+        this.drawer = drawer;
+        this.paint = paint;
+        this.layer = layer;
+        this.overlay = overlay;
+        resampler.reset(spacing);
+    }
+
+    public int getPointerId() {
+        return pointerId;
+    }
+
+    public Paint getPaint() {
+        return paint;
+    }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    public LiveStrokeOverlay getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * @return the generation of the stroke in its overlay, see LiveStrokeOverlay.mergeInto
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * the first sample, where the finger went down
+     *
+     * @param x
+     * @param y
+     * @param eventTime
+     * @param outset    how far the ink reaches beyond the path, see LiveStrokeOverlay.begin
+     */
+    public void begin(float x, float y, long eventTime, float outset) {
+        generation = overlay.begin(paint, outset);
+        prevX = x;
+        prevY = y;
+        path.moveTo(x, y);
+        resampler.add(x, y);
+        curve.addPoint(x, y, eventTime);
+    }
+
+    public void addSample(float x, float y, long eventTime) {
+        addResampled(resampler.add(x, y), eventTime);
+    }
+
+    /**
+     * add the last sample, which is usually between two resampled points
+     *
+     * @param eventTime
+     */
+    public void finish(long eventTime) {
+        addResampled(resampler.finish(), eventTime);
+    }
+
+    private void addResampled(int count, long eventTime) {
+        float[] points = resampler.getPoints();
+        for (int i = 0; i < count; i++) {
+            float x = points[2 * i];
+            float y = points[2 * i + 1];
+            curve.addPoint(x, y, eventTime);
+            path.lineTo(x, y);
+            if (drawer == SurfaceCanvasView.Drawer.SMOOTH_PEN) {
+                overlay.append(curve.getLastSegment());
+            } else {
+                Path segment = new Path();
+                segment.moveTo(prevX, prevY);
+                segment.lineTo(x, y);
+                overlay.append(segment);
+            }
+            prevX = x;
+            prevY = y;
+        }
+    }
+
+    /**
+     * @return the path of the stroke, which goes into the history
+     */
+    public Path getPath() {
+        return drawer == SurfaceCanvasView.Drawer.SMOOTH_PEN ? curve.constructPath() : path;
+    }
+
+    /**
+     * @return the resampled points, {x0, y0, x1, y1, ...}
+     */
+    public float[] getPoints() {
+        return curve.getPoints();
+    }
+}
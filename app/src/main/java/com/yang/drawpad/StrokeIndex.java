@@ -0,0 +1,102 @@
+package com.yang.drawpad;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid over the bounds of strokes, to find the strokes which may be
+ * in a region without testing every stroke.
+ * <p/>
+ * A stroke is put into every cell its bounds touch. Strokes are only added; a
+ * stroke which is no longer drawn is filtered out by the caller, and the index
+ * is cleared and rebuilt when the history is cut.
+ */
+public class StrokeIndex {
+    public static final int CELL_SIZE = 128;
+
+    private final Map<Long, List<StrokeRecord>> cells = new HashMap<Long, List<StrokeRecord>>();
+    private int size = 0;
+
+    public void add(StrokeRecord stroke) {
+        RectF bounds = stroke.getBounds();
+        int left = cell(bounds.left);
+        int top = cell(bounds.top);
+        int right = cell(bounds.right);
+        int bottom = cell(bounds.bottom);
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                Long key = key(x, y);
+                List<StrokeRecord> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<StrokeRecord>();
+                    cells.put(key, cell);
+                }
+                cell.add(stroke);
+            }
+        }
+        size++;
+    }
+
+    public void clear() {
+        cells.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the number of strokes added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * find the strokes whose bounds intersect a region
+     *
+     * @param region
+     * @param out    receives every such stroke once
+     */
+    public void query(RectF region, Set<StrokeRecord> out) {
+        int left = cell(region.left);
+        int top = cell(region.top);
+        int right = cell(region.right);
+        int bottom = cell(region.bottom);
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                List<StrokeRecord> cell = cells.get(key(x, y));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    StrokeRecord stroke = cell.get(i);
+                    if (RectF.intersects(region, stroke.getBounds())) {
+                        out.add(stroke);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param region
+     * @return the strokes whose bounds intersect the region
+     */
+    public Set<StrokeRecord> query(RectF region) {
+        Set<StrokeRecord> out = new HashSet<StrokeRecord>();
+        query(region, out);
+        return out;
+    }
+
+    private static int cell(float coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+}
@@ -0,0 +1,227 @@
+package com.yang.drawpad;
+
+import android.graphics.Matrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An operation of the shared canvas, see OpLog.
+ * <p/>
+ * The id of an op is a Lamport timestamp: the clock of the site which made it
+ * in the high bits and the site in the low ones, so ids are unique and the
+ * order of the ids is the same on every site. A stroke is identified by the
+ * id of the op which added it; the copies made by a transform get the ids
+ * following the id of the transform, which its site reserved by advancing its
+ * clock past them.
+ */
+public class StrokeOp {
+    public static final int ADD = 1;
+    public static final int ERASE = 2;
+    public static final int UNDO = 3;
+    public static final int TRANSFORM = 4;
+
+    public static final int SITE_BITS = 20;
+    public static final int MAX_SITE = (1 << SITE_BITS) - 1;
+
+    private final int type;
+    private final long id;
+    // ADD
+    private final StrokeRecord stroke;
+    // ERASE, UNDO: the stroke or the op; TRANSFORM: the strokes
+    private final long[] targets;
+    // TRANSFORM: a uniform scale then a translation
+    private final float scale;
+    private final float dx;
+    private final float dy;
+    // TRANSFORM made on this site, the copies as they are drawn here
+    private final List<StrokeRecord> results;
+
+    private StrokeOp(int type, long id, StrokeRecord stroke, long[] targets,
+                     float scale, float dx, float dy, List<StrokeRecord> results) {
+        this.type = type;
+        this.id = id;
+        this.stroke = stroke;
+        this.targets = targets;
+        this.scale = scale;
+        this.dx = dx;
+        this.dy = dy;
+        this.results = results;
+    }
+
+    public static StrokeOp add(long id, StrokeRecord stroke) {
+        return new StrokeOp(ADD, id, stroke, null, 1F, 0F, 0F, null);
+    }
+
+    /**
+     * @param id
+     * @param strokeId the stroke to remove
+     * @return
+     */
+    public static StrokeOp erase(long id, long strokeId) {
+        return new StrokeOp(ERASE, id, null, new long[]{strokeId}, 1F, 0F, 0F, null);
+    }
+
+    /**
+     * @param id
+     * @param opId the op to cancel
+     * @return
+     */
+    public static StrokeOp undo(long id, long opId) {
+        return new StrokeOp(UNDO, id, null, new long[]{opId}, 1F, 0F, 0F, null);
+    }
+
+    /**
+     * @param id
+     * @param strokeIds the strokes to move
+     * @param matrix    a translation and a uniform scale
+     * @param results   the copies if they are already made, else null
+     * @return
+     */
+    public static StrokeOp transform(long id, long[] strokeIds, Matrix matrix, List<StrokeRecord> results) {
+        float[] values = new float[9];
+        matrix.getValues(values);
+        return new StrokeOp(TRANSFORM, id, null, strokeIds, values[Matrix.MSCALE_X],
+                values[Matrix.MTRANS_X], values[Matrix.MTRANS_Y],
+                results != null ? Collections.unmodifiableList(results) : null);
+    }
+
+    public static long makeId(long clock, int site) {
+        return (clock << SITE_BITS) | site;
+    }
+
+    public static long getClock(long id) {
+        return id >>> SITE_BITS;
+    }
+
+    public static int getSite(long id) {
+        return (int) (id & MAX_SITE);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public StrokeRecord getStroke() {
+        return stroke;
+    }
+
+    /**
+     * @return the stroke or the op of an ERASE or an UNDO
+     */
+    public long getTarget() {
+        return targets[0];
+    }
+
+    /**
+     * @return the strokes of a TRANSFORM
+     */
+    public long[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return the id of the i-th copy made by a TRANSFORM
+     */
+    public long getResultId(int i) {
+        return makeId(getClock(id) + 1 + i, getSite(id));
+    }
+
+    /**
+     * @return the copies of a TRANSFORM made on this site, null for a remote one
+     */
+    public List<StrokeRecord> getResults() {
+        return results;
+    }
+
+    public Matrix getMatrix() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(dx, dy);
+        return matrix;
+    }
+
+    /**
+     * @return the op without its id, see SyncFrames
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            switch (type) {
+                case ADD:
+                    stroke.writeTo(out);
+                    break;
+                case ERASE:
+                case UNDO:
+                    out.writeLong(targets[0]);
+                    break;
+                case TRANSFORM:
+                    out.writeInt(targets.length);
+                    for (long target : targets) {
+                        out.writeLong(target);
+                    }
+                    out.writeFloat(scale);
+                    out.writeFloat(dx);
+                    out.writeFloat(dy);
+                    break;
+                default:
+                    break;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // not thrown by a byte array
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param id
+     * @param bytes written by encode
+     * @return null if the op is of an unknown type
+     * @throws IOException if the bytes are not an op, e.g. cut short
+     */
+    public static StrokeOp decode(long id, byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            throw new IOException("Empty op");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int type = buffer.get();
+        try {
+            switch (type) {
+                case ADD:
+                    return add(id, StrokeRecord.readFrom(buffer));
+                case ERASE:
+                    return erase(id, buffer.getLong());
+                case UNDO:
+                    return undo(id, buffer.getLong());
+                case TRANSFORM:
+                    int count = buffer.getInt();
+                    if (count < 0 || count > (buffer.remaining() - 12) / 8) {
+                        throw new IOException("Bad stroke count " + count);
+                    }
+                    long[] targets = new long[count];
+                    for (int i = 0; i < targets.length; i++) {
+                        targets[i] = buffer.getLong();
+                    }
+                    return new StrokeOp(TRANSFORM, id, null, targets,
+                            buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), null);
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            // cut short, or an unknown drawer or style
+            throw new IOException("Corrupted op", e);
+        }
+    }
+}
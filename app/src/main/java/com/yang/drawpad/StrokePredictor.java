@@ -0,0 +1,253 @@
+package com.yang.drawpad;
+
+/**
+ * Extrapolates the live stroke a few milliseconds ahead of the newest touch sample.
+ * <p/>
+ * The velocity is the least-squares slope of x(t) and y(t) over the most recent
+ * samples, and the prediction is the newest sample moved along that velocity.
+ * The result is only meant for a provisional tail segment, which is thrown away
+ * as soon as real samples arrive; it never goes into the history.
+ */
+public class StrokePredictor {
+    public static final int DEFAULT_WINDOW = 5;
+
+    // samples older than this (relative to the newest one) do not take part in the fit
+    private static final long MAX_SAMPLE_AGE_MS = 60;
+
+    private final int window;
+    private final float[] xs;
+    private final float[] ys;
+    private final long[] ts;
+    // index of the newest sample, the buffer is circular
+    private int head = -1;
+    private int size = 0;
+
+    // the prediction is never further than this from the newest sample
+    private float maxDistance = 64F;
+
+    public StrokePredictor() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of recent samples used to estimate the velocity, at least 2
+     */
+    public StrokePredictor(int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("Window must contain at least two samples");
+        }
+        this.window = window;
+        this.xs = new float[window];
+        this.ys = new float[window];
+        this.ts = new long[window];
+    }
+
+    /**
+     * forget all samples, call this when a new stroke starts
+     */
+    public void reset() {
+        head = -1;
+        size = 0;
+    }
+
+    /**
+     * @param maxDistance the upper bound of the predicted distance in canvas pixels
+     */
+    public void setMaxDistance(float maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    public float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * add a real sample. A sample with the same time as the newest one replaces it,
+     * older samples are dropped.
+     *
+     * @param x
+     * @param y
+     * @param time event time in ms
+     */
+    public void addSample(float x, float y, long time) {
+        if (size > 0) {
+            if (time < ts[head]) {
+                return;
+            }
+            if (time == ts[head]) {
+                xs[head] = x;
+                ys[head] = y;
+                return;
+            }
+        }
+        head = (head + 1) % window;
+        xs[head] = x;
+        ys[head] = y;
+        ts[head] = time;
+        if (size < window) {
+            size++;
+        }
+    }
+
+    public int getSampleCount() {
+        return size;
+    }
+
+    /**
+     * predict the position aheadMs after the newest sample
+     *
+     * @param aheadMs
+     * @param out     receives {x, y}
+     * @return false if there is not enough data to predict
+     */
+    public boolean predict(long aheadMs, float[] out) {
+        if (size < 2) {
+            return false;
+        }
+        long newest = ts[head];
+
+        // least-squares fit over the samples in the age window
+        int n = 0;
+        double meanT = 0, meanX = 0, meanY = 0;
+        for (int i = 0; i < size; i++) {
+            int k = (head - i + window) % window;
+            if (newest - ts[k] > MAX_SAMPLE_AGE_MS) {
+                break;
+            }
+            meanT += ts[k] - newest;
+            meanX += xs[k];
+            meanY += ys[k];
+            n++;
+        }
+        if (n < 2) {
+            return false;
+        }
+        meanT /= n;
+        meanX /= n;
+        meanY /= n;
+
+        double varT = 0, covX = 0, covY = 0;
+        for (int i = 0; i < n; i++) {
+            int k = (head - i + window) % window;
+            double dt = (ts[k] - newest) - meanT;
+            varT += dt * dt;
+            covX += dt * (xs[k] - meanX);
+            covY += dt * (ys[k] - meanY);
+        }
+        if (varT == 0) {
+            return false;
+        }
+
+        double dx = covX / varT * aheadMs;
+        double dy = covY / varT * aheadMs;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > maxDistance) {
+            dx *= maxDistance / distance;
+            dy *= maxDistance / distance;
+        }
+        out[0] = (float) (xs[head] + dx);
+        out[1] = (float) (ys[head] + dy);
+        return true;
+    }
+
+    /**
+     * Replays a recorded stroke through a predictor and compares every prediction
+     * with where the stroke actually was aheadMs later.
+     *
+     * @param x       sample x
+     * @param y       sample y
+     * @param t       sample times in ms, ascending
+     * @param aheadMs
+     * @param window
+     * @return the accuracy of the predictions
+     */
+    public static Accuracy measure(float[] x, float[] y, long[] t, long aheadMs, int window) {
+        StrokePredictor predictor = new StrokePredictor(window);
+        Accuracy accuracy = new Accuracy();
+        float[] predicted = new float[2];
+        int n = t.length;
+        int j = 0;
+
+        for (int i = 0; i < n; i++) {
+            predictor.addSample(x[i], y[i], t[i]);
+            long target = t[i] + aheadMs;
+            if (target > t[n - 1]) {
+                break;
+            }
+            if (!predictor.predict(aheadMs, predicted)) {
+                continue;
+            }
+
+            // where the stroke really was at the target time
+            while (t[j + 1] < target) {
+                j++;
+            }
+            float f = t[j + 1] == t[j] ? 1F : (float) (target - t[j]) / (t[j + 1] - t[j]);
+            float actualX = x[j] + f * (x[j + 1] - x[j]);
+            float actualY = y[j] + f * (y[j + 1] - y[j]);
+
+            float errX = predicted[0] - actualX;
+            float errY = predicted[1] - actualY;
+
+            // overshoot is the part of the error beyond the actual position,
+            // along the direction the stroke actually moved
+            float dirX = actualX - x[i];
+            float dirY = actualY - y[i];
+            float len = (float) Math.sqrt(dirX * dirX + dirY * dirY);
+            float overshoot;
+            if (len > 0) {
+                overshoot = Math.max(0F, (errX * dirX + errY * dirY) / len);
+            } else {
+                // the stroke stopped, every bit of predicted motion is overshoot
+                overshoot = (float) Math.sqrt(errX * errX + errY * errY);
+            }
+            accuracy.add((float) Math.sqrt(errX * errX + errY * errY), overshoot);
+        }
+        return accuracy;
+    }
+
+    /**
+     * accumulated prediction error in canvas pixels
+     */
+    public static class Accuracy {
+        private int count = 0;
+        private double errorSum = 0;
+        private float maxError = 0;
+        private double overshootSum = 0;
+        private float maxOvershoot = 0;
+
+        void add(float error, float overshoot) {
+            count++;
+            errorSum += error;
+            maxError = Math.max(maxError, error);
+            overshootSum += overshoot;
+            maxOvershoot = Math.max(maxOvershoot, overshoot);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public float getMeanError() {
+            return count == 0 ? 0F : (float) (errorSum / count);
+        }
+
+        public float getMaxError() {
+            return maxError;
+        }
+
+        public float getMeanOvershoot() {
+            return count == 0 ? 0F : (float) (overshootSum / count);
+        }
+
+        public float getMaxOvershoot() {
+            return maxOvershoot;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d error(mean=%.2f max=%.2f) overshoot(mean=%.2f max=%.2f)",
+                    count, getMeanError(), maxError, getMeanOvershoot(), maxOvershoot);
+        }
+    }
+}
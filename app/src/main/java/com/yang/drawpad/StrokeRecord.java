@@ -0,0 +1,417 @@
+package com.yang.drawpad;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A committed stroke described by its tool, its control points and its style,
+ * so that it can be saved, measured and turned back into a Path.
+ * <p/>
+ * The points are kept packed as 1/16 pixel deltas, see PackedPoints, and the
+ * style is shared with the other strokes drawn with it, see StrokeStyle.
+ * <p/>
+ * The meaning of the points depends on the drawer:
+ * <ul>
+ * <li>PEN, SMOOTH_PEN, VARIABLE_PEN, SOFT_BRUSH, TEXTURED_BRUSH: the accepted samples</li>
+ * <li>PEN, SMOOTH_PEN if fitted: the start point and three points per cubic segment, see CurveFitter</li>
+ * <li>LINE, RECTANGLE, ELLIPSE: the two corners</li>
+ * <li>CIRCLE: the center and a point on the circle</li>
+ * <li>QUADRATIC_BEZIER, QUBIC_BEZIER: start, control and end point</li>
+ * <li>BUCKET: the top left and bottom right corner of each filled run, one pixel row high, see FloodFill</li>
+ * </ul>
+ */
+public class StrokeRecord {
+    private static final AtomicLong ID_COUNTER = new AtomicLong(System.currentTimeMillis() << 12);
+
+    private static final int FLAG_ERASER = 1;
+    private static final int FLAG_WIDTHS = 2;
+    private static final int FLAG_FITTED = 4;
+
+    private final long id;
+    private final StrokeStyle strokeStyle;
+    // {x0, y0, x1, y1, ...}, packed
+    private final short[] points;
+    private final int pointCount;
+    // the width at each point, packed, only for VARIABLE_PEN
+    private final short[] widths;
+    // the points are the segments fitted by CurveFitter
+    private final boolean fitted;
+    private final RectF bounds;
+
+    public StrokeRecord(long id, SurfaceCanvasView.Drawer drawer, boolean eraser, Paint.Style style,
+                        int color, float width, int opacity, float blur,
+                        float[] points, float[] widths) {
+        this(id, drawer, eraser, style, color, width, opacity, blur, points, widths, false);
+    }
+
+    public StrokeRecord(long id, SurfaceCanvasView.Drawer drawer, boolean eraser, Paint.Style style,
+                        int color, float width, int opacity, float blur,
+                        float[] points, float[] widths, boolean fitted) {
+        this.id = id;
+        this.fitted = fitted;
+        this.strokeStyle = StrokeStyle.obtain(drawer, eraser, style, color, width, opacity, blur);
+        this.points = PackedPoints.pack(points);
+        this.pointCount = points.length / 2;
+        this.widths = widths == null ? null : PackedPoints.pack(widths);
+        // the bounds of what is kept, not of what was given
+        this.bounds = computeBounds(getPoints(), getWidths());
+    }
+
+    /**
+     * @return a new id, unique within this process and increasing across sessions
+     */
+    public static long nextId() {
+        return ID_COUNTER.incrementAndGet();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public StrokeStyle getStrokeStyle() {
+        return strokeStyle;
+    }
+
+    public SurfaceCanvasView.Drawer getDrawer() {
+        return strokeStyle.getDrawer();
+    }
+
+    public boolean isEraser() {
+        return strokeStyle.isEraser();
+    }
+
+    public Paint.Style getStyle() {
+        return strokeStyle.getStyle();
+    }
+
+    public int getColor() {
+        return strokeStyle.getColor();
+    }
+
+    public float getWidth() {
+        return strokeStyle.getWidth();
+    }
+
+    public int getOpacity() {
+        return strokeStyle.getOpacity();
+    }
+
+    public float getBlur() {
+        return strokeStyle.getBlur();
+    }
+
+    /**
+     * @return the points, unpacked into a new array
+     */
+    public float[] getPoints() {
+        return PackedPoints.unpack(points);
+    }
+
+    /**
+     * @return the widths, unpacked into a new array, null if there are none
+     */
+    public float[] getWidths() {
+        return widths == null ? null : PackedPoints.unpack(widths);
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return whether the points are cubic segments, see CurveFitter
+     */
+    public boolean isFitted() {
+        return fitted;
+    }
+
+    /**
+     * @return about how many bytes the record takes in memory
+     */
+    public int getMemorySize() {
+        return 48 + 2 * points.length + (widths != null ? 2 * widths.length : 0);
+    }
+
+    /**
+     * the area the stroke can touch, including the stroke width
+     *
+     * @return
+     */
+    public RectF getBounds() {
+        return bounds;
+    }
+
+    /**
+     * build the path the stroke was drawn with
+     *
+     * @return
+     */
+    public Path toPath() {
+        Path path = new Path();
+        int n = getPointCount();
+        if (n == 0) {
+            return path;
+        }
+        float[] points = getPoints();
+
+        if (fitted) {
+            path.moveTo(points[0], points[1]);
+            for (int i = 2; i + 5 < 2 * n; i += 6) {
+                path.cubicTo(points[i], points[i + 1], points[i + 2], points[i + 3],
+                        points[i + 4], points[i + 5]);
+            }
+            return path;
+        }
+
+        switch (getDrawer()) {
+            case PEN:
+            case SOFT_BRUSH:
+            case TEXTURED_BRUSH:
+                path.moveTo(points[0], points[1]);
+                for (int i = 1; i < n; i++) {
+                    path.lineTo(points[2 * i], points[2 * i + 1]);
+                }
+                break;
+            case SMOOTH_PEN:
+                BezierCurveConstructor constructor = new BezierCurveConstructor();
+                for (int i = 0; i < n; i++) {
+                    constructor.addPoint(points[2 * i], points[2 * i + 1]);
+                }
+                path = constructor.constructPath();
+                break;
+            case VARIABLE_PEN:
+                VariableWidthStrokeBuilder builder = new VariableWidthStrokeBuilder();
+                builder.set(points, getWidths());
+                path = builder.buildOutline();
+                break;
+            case LINE:
+                path.moveTo(points[0], points[1]);
+                path.lineTo(points[2], points[3]);
+                break;
+            case RECTANGLE:
+                path.addRect(points[0], points[1], points[2], points[3], Path.Direction.CCW);
+                break;
+            case CIRCLE:
+                path.addCircle(points[0], points[1], radius(points), Path.Direction.CCW);
+                break;
+            case ELLIPSE:
+                path.addOval(new RectF(points[0], points[1], points[2], points[3]), Path.Direction.CCW);
+                break;
+            case QUADRATIC_BEZIER:
+            case QUBIC_BEZIER:
+                path.moveTo(points[0], points[1]);
+                path.quadTo(points[2], points[3], points[4], points[5]);
+                break;
+            case BUCKET:
+                for (int i = 0; i + 1 < n; i += 2) {
+                    path.addRect(points[2 * i], points[2 * i + 1], points[2 * i + 2], points[2 * i + 3],
+                            Path.Direction.CW);
+                }
+                break;
+            default:
+                break;
+        }
+        return path;
+    }
+
+    /**
+     * @param id
+     * @param matrix a translation and a uniform scale
+     * @return a copy of the stroke moved by the matrix, its width scaled with it
+     */
+    public StrokeRecord transform(long id, Matrix matrix) {
+        float scale = matrix.mapRadius(1F);
+        float[] points = getPoints();
+        matrix.mapPoints(points);
+        float[] widths = getWidths();
+        if (widths != null) {
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] *= scale;
+            }
+        }
+        return new StrokeRecord(id, getDrawer(), isEraser(), getStyle(), getColor(),
+                getWidth() * scale, getOpacity(), getBlur() * scale, points, widths, fitted);
+    }
+
+    /**
+     * draw the stroke as it was drawn, dab brushes are stamped
+     *
+     * @param canvas
+     * @param dabCache
+     */
+    public void draw(Canvas canvas, DabCache dabCache) {
+        SurfaceCanvasView.Drawer drawer = getDrawer();
+        if (drawer == SurfaceCanvasView.Drawer.SOFT_BRUSH || drawer == SurfaceCanvasView.Drawer.TEXTURED_BRUSH) {
+            DabBrush.draw(canvas, this, dabCache);
+        } else if (drawer == SurfaceCanvasView.Drawer.BUCKET) {
+            FloodFill.drawRuns(canvas, getPoints(), strokeStyle.getPaint());
+        } else if (strokeStyle.isTranslucent()) {
+            // like the live stroke: opaque ink, the opacity applied once
+            canvas.saveLayerAlpha(getBounds(), getOpacity(), Canvas.ALL_SAVE_FLAG);
+            canvas.drawPath(toPath(), strokeStyle.getOpaquePaint());
+            canvas.restore();
+        } else {
+            canvas.drawPath(toPath(), strokeStyle.getPaint());
+        }
+    }
+
+    /**
+     * build the paint the stroke was drawn with, see StrokeStyle.getPaint for a shared one
+     *
+     * @return
+     */
+    public Paint createPaint() {
+        return strokeStyle.createPaint();
+    }
+
+    /**
+     * Write the record, the layout is
+     * int length of the rest, long id, byte drawer, byte flags, byte style, byte opacity,
+     * int color, float width, float blur, 4 float bounds, int point count, the points,
+     * and the widths if FLAG_WIDTHS is set.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        int n = getPointCount();
+        float[] points = getPoints();
+        float[] widths = getWidths();
+        out.writeInt(getSerializedSize() - 4);
+        out.writeLong(id);
+        out.writeByte(getDrawer().ordinal());
+        out.writeByte((isEraser() ? FLAG_ERASER : 0) | (widths != null ? FLAG_WIDTHS : 0)
+                | (fitted ? FLAG_FITTED : 0));
+        out.writeByte(getStyle().ordinal());
+        out.writeByte(getOpacity());
+        out.writeInt(getColor());
+        out.writeFloat(getWidth());
+        out.writeFloat(getBlur());
+        out.writeFloat(bounds.left);
+        out.writeFloat(bounds.top);
+        out.writeFloat(bounds.right);
+        out.writeFloat(bounds.bottom);
+        out.writeInt(n);
+        for (int i = 0; i < 2 * n; i++) {
+            out.writeFloat(points[i]);
+        }
+        if (widths != null) {
+            for (int i = 0; i < n; i++) {
+                out.writeFloat(widths[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes writeTo writes
+     */
+    public int getSerializedSize() {
+        int n = getPointCount();
+        return 4 + 8 + 4 + 4 + 4 + 4 + 16 + 4 + 8 * n + (widths != null ? 4 * n : 0);
+    }
+
+    /**
+     * read a record written by writeTo, starting at the buffer position
+     *
+     * @param buffer
+     * @return
+     */
+    public static StrokeRecord readFrom(ByteBuffer buffer) {
+        buffer.getInt();
+        long id = buffer.getLong();
+        SurfaceCanvasView.Drawer drawer = SurfaceCanvasView.Drawer.values()[buffer.get()];
+        int flags = buffer.get();
+        Paint.Style style = Paint.Style.values()[buffer.get()];
+        int opacity = buffer.get() & 0xff;
+        int color = buffer.getInt();
+        float width = buffer.getFloat();
+        float blur = buffer.getFloat();
+        // the bounds are recomputed from the points
+        buffer.position(buffer.position() + 16);
+        int n = buffer.getInt();
+        if (n < 0 || n > buffer.remaining() / 8) {
+            throw new BufferUnderflowException();
+        }
+        float[] points = new float[2 * n];
+        for (int i = 0; i < 2 * n; i++) {
+            points[i] = buffer.getFloat();
+        }
+        float[] widths = null;
+        if ((flags & FLAG_WIDTHS) != 0) {
+            widths = new float[n];
+            for (int i = 0; i < n; i++) {
+                widths[i] = buffer.getFloat();
+            }
+        }
+        return new StrokeRecord(id, drawer, (flags & FLAG_ERASER) != 0, style,
+                color, width, opacity, blur, points, widths, (flags & FLAG_FITTED) != 0);
+    }
+
+    /**
+     * read only the bounds of the record starting at the buffer position,
+     * the buffer position is not changed
+     *
+     * @param buffer
+     * @param out
+     */
+    public static void readBounds(ByteBuffer buffer, RectF out) {
+        int base = buffer.position() + 4 + 8 + 4 + 4 + 4 + 4;
+        out.set(buffer.getFloat(base), buffer.getFloat(base + 4),
+                buffer.getFloat(base + 8), buffer.getFloat(base + 12));
+    }
+
+    private static float radius(float[] points) {
+        return (float) Math.sqrt((points[2] - points[0]) * (points[2] - points[0])
+                + (points[3] - points[1]) * (points[3] - points[1]));
+    }
+
+    private RectF computeBounds(float[] points, float[] widths) {
+        RectF rect = new RectF();
+        int n = points.length / 2;
+        if (n == 0) {
+            return rect;
+        }
+        if (getDrawer() == SurfaceCanvasView.Drawer.CIRCLE) {
+            float r = radius(points);
+            rect.set(points[0] - r, points[1] - r, points[0] + r, points[1] + r);
+        } else if (fitted) {
+            // the curve, not the control points which can be far off it
+            BezierFlattener flattener = new BezierFlattener();
+            flattener.flatten(this);
+            float[] flat = flattener.getPoints();
+            rect.set(flat[0], flat[1], flat[0], flat[1]);
+            for (int i = 1; i < flattener.getPointCount(); i++) {
+                rect.union(flat[2 * i], flat[2 * i + 1]);
+            }
+        } else {
+            rect.set(points[0], points[1], points[0], points[1]);
+            for (int i = 1; i < n; i++) {
+                rect.union(points[2 * i], points[2 * i + 1]);
+            }
+        }
+
+        float maxWidth = getWidth();
+        if (widths != null) {
+            for (int i = 0; i < widths.length; i++) {
+                maxWidth = Math.max(maxWidth, widths[i]);
+            }
+        }
+        float outset = maxWidth / 2 + getBlur() + 1;
+        rect.inset(-outset, -outset);
+        return rect;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Stroke(%d, %s, %d points, #%08x)", id, getDrawer(), getPointCount(), getColor());
+    }
+}
@@ -0,0 +1,308 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The lasso tool: the outline drawn by the user, the strokes it selected, and
+ * the sprite they are moved with.
+ * <p/>
+ * The selected strokes are rasterized once into a sprite when they are lifted
+ * from their layer. While they are dragged or scaled only the matrix of the
+ * sprite changes, nothing else is drawn again until the selection is dropped.
+ * Everything is in canvas coordinates.
+ */
+public class StrokeSelection {
+    // a stroke is selected if more than this part of its outline is in the lasso
+    private static final float MIN_INSIDE = 0.5F;
+    private static final float MIN_SCALE = 0.05F;
+
+    private static final int DRAG_NONE = 0;
+    private static final int DRAG_MOVE = 1;
+    private static final int DRAG_SCALE = 2;
+
+    // the lasso, {x0, y0, x1, y1, ...}
+    private float[] lasso = new float[256];
+    private int lassoSize = 0;
+    private Path lassoPath = null;
+
+    private final List<StrokeRecord> strokes = new ArrayList<StrokeRecord>();
+    private Layer layer = null;
+    private Bitmap sprite = null;
+    // where the sprite is before it is transformed
+    private final RectF bounds = new RectF();
+    private final Matrix matrix = new Matrix();
+
+    private int drag = DRAG_NONE;
+    private final Matrix dragStartMatrix = new Matrix();
+    private float dragStartX;
+    private float dragStartY;
+
+    private final Paint framePaint = new Paint();
+
+    public StrokeSelection() {
+        framePaint.setStyle(Paint.Style.STROKE);
+        framePaint.setStrokeWidth(0F);
+        framePaint.setColor(Color.DKGRAY);
+        framePaint.setPathEffect(new DashPathEffect(new float[]{8F, 8F}, 0F));
+    }
+
+    /**
+     * start a new lasso, the previous selection must have been dropped
+     *
+     * @param x
+     * @param y
+     */
+    public void beginLasso(float x, float y) {
+        lassoSize = 0;
+        Path path = new Path();
+        path.moveTo(x, y);
+        addLassoPoint(x, y);
+        lassoPath = path;
+    }
+
+    public void addLassoPoint(float x, float y) {
+        if (lassoSize + 2 > lasso.length) {
+            lasso = Arrays.copyOf(lasso, lasso.length * 2);
+        }
+        lasso[lassoSize++] = x;
+        lasso[lassoSize++] = y;
+        if (lassoPath != null && lassoSize > 2) {
+            lassoPath.lineTo(x, y);
+        }
+    }
+
+    /**
+     * stop showing the lasso, it is kept for the test
+     */
+    public void endLasso() {
+        lassoPath = null;
+    }
+
+    public boolean isLassoActive() {
+        return lassoPath != null;
+    }
+
+    /**
+     * @return the bounds of the lasso, empty if it has less than 3 points
+     */
+    public RectF getLassoBounds() {
+        RectF rect = new RectF();
+        if (lassoSize < 6) {
+            return rect;
+        }
+        rect.set(lasso[0], lasso[1], lasso[0], lasso[1]);
+        for (int i = 2; i < lassoSize; i += 2) {
+            rect.union(lasso[i], lasso[i + 1]);
+        }
+        return rect;
+    }
+
+    /**
+     * even-odd test against the closed lasso
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean contains(float x, float y) {
+        boolean inside = false;
+        for (int i = 0, j = lassoSize - 2; i < lassoSize; j = i, i += 2) {
+            float xi = lasso[i], yi = lasso[i + 1];
+            float xj = lasso[j], yj = lasso[j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @param outline a stroke flattened by a BezierFlattener
+     * @return whether enough of the stroke is in the lasso
+     */
+    public boolean isInside(BezierFlattener outline) {
+        int n = outline.getPointCount();
+        if (n == 0 || lassoSize < 6) {
+            return false;
+        }
+        float[] points = outline.getPoints();
+        int inside = 0;
+        for (int i = 0; i < n; i++) {
+            if (contains(points[2 * i], points[2 * i + 1])) {
+                inside++;
+            }
+        }
+        return inside > MIN_INSIDE * n;
+    }
+
+    /**
+     * take the selected strokes off their layer and rasterize them into the sprite
+     *
+     * @param layer
+     * @param selected in drawing order
+     * @param dabCache
+     * @param width    of the canvas, the sprite does not go beyond it
+     * @param height
+     */
+    public void lift(Layer layer, List<StrokeRecord> selected, DabCache dabCache, int width, int height) {
+        clear();
+        this.layer = layer;
+        this.strokes.addAll(selected);
+
+        bounds.setEmpty();
+        for (int i = 0; i < selected.size(); i++) {
+            bounds.union(selected.get(i).getBounds());
+        }
+        Rect area = new Rect();
+        bounds.roundOut(area);
+        if (!area.intersect(0, 0, width, height)) {
+            return;
+        }
+        bounds.set(area);
+
+        sprite = Bitmap.createBitmap(area.width(), area.height(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(sprite);
+        canvas.translate(-area.left, -area.top);
+        for (int i = 0; i < selected.size(); i++) {
+            selected.get(i).draw(canvas, dabCache);
+        }
+    }
+
+    public boolean isEmpty() {
+        return strokes.isEmpty();
+    }
+
+    /**
+     * @return the lifted strokes, in drawing order
+     */
+    public List<StrokeRecord> getStrokes() {
+        return strokes;
+    }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    /**
+     * @return how the strokes have been moved since they were lifted
+     */
+    public Matrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * @return where the selection is now
+     */
+    public RectF getTransformedBounds() {
+        RectF rect = new RectF(bounds);
+        matrix.mapRect(rect);
+        return rect;
+    }
+
+    /**
+     * start moving the selection if the touch is on it, or scaling it if
+     * the touch is on its bottom right corner
+     *
+     * @param x
+     * @param y
+     * @param handleRadius how close to the corner the touch has to be
+     * @return false if the touch misses the selection
+     */
+    public boolean beginDrag(float x, float y, float handleRadius) {
+        RectF rect = getTransformedBounds();
+        if (Math.hypot(x - rect.right, y - rect.bottom) <= handleRadius) {
+            drag = DRAG_SCALE;
+        } else if (rect.contains(x, y)) {
+            drag = DRAG_MOVE;
+        } else {
+            drag = DRAG_NONE;
+            return false;
+        }
+        dragStartMatrix.set(matrix);
+        dragStartX = x;
+        dragStartY = y;
+        return true;
+    }
+
+    public boolean isDragging() {
+        return drag != DRAG_NONE;
+    }
+
+    public void drag(float x, float y) {
+        if (drag == DRAG_MOVE) {
+            matrix.set(dragStartMatrix);
+            matrix.postTranslate(x - dragStartX, y - dragStartY);
+        } else if (drag == DRAG_SCALE) {
+            // about the top left corner, as far as the touch moved away from it
+            float[] anchor = new float[]{bounds.left, bounds.top};
+            dragStartMatrix.mapPoints(anchor);
+            double start = Math.hypot(dragStartX - anchor[0], dragStartY - anchor[1]);
+            if (start == 0) {
+                return;
+            }
+            float scale = (float) Math.max(MIN_SCALE, Math.hypot(x - anchor[0], y - anchor[1]) / start);
+            matrix.set(dragStartMatrix);
+            matrix.postScale(scale, scale, anchor[0], anchor[1]);
+        }
+    }
+
+    public void endDrag() {
+        drag = DRAG_NONE;
+    }
+
+    /**
+     * draw the lasso while it is drawn, then the sprite with its frame
+     *
+     * @param canvas
+     * @param handleRadius
+     */
+    public void draw(Canvas canvas, float handleRadius) {
+        Path path = lassoPath;
+        if (path != null) {
+            canvas.drawPath(path, framePaint);
+            return;
+        }
+        if (strokes.isEmpty()) {
+            return;
+        }
+
+        if (sprite != null) {
+            Paint paint = new Paint();
+            paint.setFilterBitmap(true);
+            canvas.save();
+            canvas.concat(matrix);
+            canvas.drawBitmap(sprite, bounds.left, bounds.top, paint);
+            canvas.restore();
+        }
+        RectF rect = getTransformedBounds();
+        canvas.drawRect(rect, framePaint);
+        canvas.drawCircle(rect.right, rect.bottom, handleRadius / 2F, framePaint);
+    }
+
+    /**
+     * drop the selection and the lasso
+     */
+    public void clear() {
+        strokes.clear();
+        layer = null;
+        if (sprite != null) {
+            sprite.recycle();
+            sprite = null;
+        }
+        matrix.reset();
+        drag = DRAG_NONE;
+        lassoPath = null;
+    }
+}
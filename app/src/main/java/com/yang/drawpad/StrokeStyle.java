@@ -0,0 +1,200 @@
+package com.yang.drawpad;
+
+import android.graphics.CornerPathEffect;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The style of a stroke: its tool and its paint settings.
+ * <p/>
+ * Styles are interned, a drawing uses a handful of them, so every stroke only
+ * holds a reference to a shared instance, and each style has a small id and
+ * builds its paint once. The pool only holds the styles weakly, a style goes
+ * away with the last stroke drawn with it.
+ */
+public final class StrokeStyle {
+    private static final Map<StrokeStyle, WeakReference<StrokeStyle>> POOL =
+            new WeakHashMap<StrokeStyle, WeakReference<StrokeStyle>>();
+    private static int nextId = 1;
+
+    private final int id;
+    private final SurfaceCanvasView.Drawer drawer;
+    private final boolean eraser;
+    private final Paint.Style style;
+    private final int color;
+    private final float width;
+    private final int opacity;
+    private final float blur;
+    // built on first use
+    private Paint paint = null;
+    private Paint opaquePaint = null;
+
+    private StrokeStyle(int id, SurfaceCanvasView.Drawer drawer, boolean eraser, Paint.Style style,
+                        int color, float width, int opacity, float blur) {
+        this.id = id;
+        this.drawer = drawer;
+        this.eraser = eraser;
+        this.style = style;
+        this.color = color;
+        this.width = width;
+        this.opacity = opacity;
+        this.blur = blur;
+    }
+
+    /**
+     * @return the shared style with these settings
+     */
+    public static StrokeStyle obtain(SurfaceCanvasView.Drawer drawer, boolean eraser, Paint.Style style,
+                                     int color, float width, int opacity, float blur) {
+        StrokeStyle key = new StrokeStyle(0, drawer, eraser, style, color, width, opacity, blur);
+        synchronized (POOL) {
+            WeakReference<StrokeStyle> reference = POOL.get(key);
+            StrokeStyle shared = reference != null ? reference.get() : null;
+            if (shared == null) {
+                shared = new StrokeStyle(nextId++, drawer, eraser, style, color, width, opacity, blur);
+                POOL.put(shared, new WeakReference<StrokeStyle>(shared));
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * @return a small number identifying the style within this process
+     */
+    public int getId() {
+        return id;
+    }
+
+    public SurfaceCanvasView.Drawer getDrawer() {
+        return drawer;
+    }
+
+    public boolean isEraser() {
+        return eraser;
+    }
+
+    public Paint.Style getStyle() {
+        return style;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public int getOpacity() {
+        return opacity;
+    }
+
+    public float getBlur() {
+        return blur;
+    }
+
+    /**
+     * the paint the strokes of this style are drawn with, shared by all of them
+     * so it must not be changed
+     *
+     * @return
+     */
+    public synchronized Paint getPaint() {
+        if (paint == null) {
+            paint = createPaint();
+        }
+        return paint;
+    }
+
+    /**
+     * the paint without the opacity, for a translucent stroke drawn into a
+     * layer which is composited with the opacity, like the live stroke
+     *
+     * @return
+     */
+    public synchronized Paint getOpaquePaint() {
+        if (opaquePaint == null) {
+            opaquePaint = createPaint();
+            opaquePaint.setAlpha(255);
+        }
+        return opaquePaint;
+    }
+
+    /**
+     * @return whether a stroke of this style is drawn opaque then composited
+     * with its opacity, see getOpaquePaint
+     */
+    public boolean isTranslucent() {
+        return !eraser && opacity < 255;
+    }
+
+    /**
+     * build the paint the strokes of this style are drawn with
+     *
+     * @return
+     */
+    public Paint createPaint() {
+        Paint paint = new Paint();
+
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+        paint.setDither(true);
+        paint.setStyle(style);
+        paint.setStrokeWidth(width);
+        paint.setStrokeJoin(Paint.Join.BEVEL);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setPathEffect(new CornerPathEffect(width));
+
+        if (drawer == SurfaceCanvasView.Drawer.VARIABLE_PEN) {
+            paint.setStyle(Paint.Style.FILL);
+            paint.setPathEffect(null);
+        }
+
+        if (eraser) {
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+            paint.setARGB(0, 0, 0, 0);
+        } else {
+            paint.setColor(color);
+            paint.setShadowLayer(blur, 0F, 0F, color);
+            paint.setAlpha(opacity);
+        }
+
+        if (drawer == SurfaceCanvasView.Drawer.BUCKET) {
+            paint.setStyle(Paint.Style.FILL);
+            paint.setPathEffect(null);
+            paint.setAntiAlias(false);
+        }
+        return paint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StrokeStyle)) {
+            return false;
+        }
+        StrokeStyle other = (StrokeStyle) o;
+        return drawer == other.drawer && eraser == other.eraser && style == other.style
+                && color == other.color && Float.compare(width, other.width) == 0
+                && opacity == other.opacity && Float.compare(blur, other.blur) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = drawer.hashCode();
+        h = 31 * h + (eraser ? 1 : 0);
+        h = 31 * h + style.hashCode();
+        h = 31 * h + color;
+        h = 31 * h + Float.floatToIntBits(width);
+        h = 31 * h + opacity;
+        h = 31 * h + Float.floatToIntBits(blur);
+        return h;
+    }
+}
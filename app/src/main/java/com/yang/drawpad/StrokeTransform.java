@@ -0,0 +1,76 @@
+package com.yang.drawpad;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An entry of the history which moves or scales strokes drawn before it.
+ * <p/>
+ * The entry keeps the strokes it moved, which are no longer drawn while the
+ * entry is in the history, and the transformed copies, which it draws.
+ * Undoing it draws the originals again.
+ */
+public class StrokeTransform {
+    private final List<StrokeRecord> sources;
+    private final List<StrokeRecord> results;
+    private final Matrix matrix;
+    private final RectF bounds = new RectF();
+
+    /**
+     * @param sources the strokes to move, in drawing order
+     * @param matrix  a translation and a uniform scale
+     */
+    public StrokeTransform(List<StrokeRecord> sources, Matrix matrix) {
+        this.sources = Collections.unmodifiableList(new ArrayList<StrokeRecord>(sources));
+        this.matrix = new Matrix(matrix);
+
+        List<StrokeRecord> transformed = new ArrayList<StrokeRecord>();
+        for (int i = 0; i < sources.size(); i++) {
+            StrokeRecord result = sources.get(i).transform(StrokeRecord.nextId(), matrix);
+            transformed.add(result);
+            bounds.union(sources.get(i).getBounds());
+            bounds.union(result.getBounds());
+        }
+        this.results = Collections.unmodifiableList(transformed);
+    }
+
+    public List<StrokeRecord> getSources() {
+        return sources;
+    }
+
+    public List<StrokeRecord> getResults() {
+        return results;
+    }
+
+    public Matrix getMatrix() {
+        return new Matrix(matrix);
+    }
+
+    /**
+     * @return the area of the originals and of the copies
+     */
+    public RectF getBounds() {
+        return bounds;
+    }
+
+    /**
+     * draw the copies, except the ones moved again by a later entry
+     *
+     * @param canvas
+     * @param dabCache
+     * @param hidden
+     */
+    public void draw(Canvas canvas, DabCache dabCache, Set<StrokeRecord> hidden) {
+        for (int i = 0; i < results.size(); i++) {
+            if (!hidden.contains(results.get(i))) {
+                results.get(i).draw(canvas, dabCache);
+            }
+        }
+    }
+}
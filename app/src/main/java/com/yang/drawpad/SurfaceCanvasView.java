@@ -13,7 +13,6 @@ package com.yang.drawpad;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.CornerPathEffect;
@@ -26,16 +25,30 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Region;
 import android.graphics.Typeface;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class defines fields and methods for drawing.
@@ -50,31 +63,30 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
 
     // the maximum number of paths to undo
     private static final int MAX_NUM_PATHS = 200;
-    private static final float TOUCH_TOLERANCE = 15;        //pixel
+    // the distance between the points of a stroke, relative to the stroke width
+    private static final float RESAMPLE_SPACING = 1F;
+    private static final float MIN_RESAMPLE_SPACING = 4F;   //pixel
+    // the largest distance of a sample of a pen stroke to its fitted curve
+    private static final float MAX_FIT_ERROR = 0.5F;   //pixel
 
     // the draw thread on the background
     private Thread drawThread = null;
 
-    // the bitmap to record the paths when exceed max_num_paths
-    private Bitmap overflowBitmap = null;
+    // the history, the layers with their rasters, the screen bitmap, the caches
+    // and the opened document, handed over to the next view, see setCanvasState
+    private CanvasState state = new CanvasState();
 
-    // the current screen bitmap
-    private Bitmap currentScreenBitMap = null;
     private ScaleGestureDetector scaleGestureDetector;
 
     // the draw bound
     private Rect drawBound;
 
     //private Canvas canvas   = null;
-    private Bitmap bitmap;
-    private List<Path> pathLists = new ArrayList<Path>();
-    private List<Paint> paintLists = new ArrayList<Paint>();
+    // for reporting, in ms since the document was opened, -1 until then
+    private volatile boolean isDocumentShown = false;
+    private volatile long timeToFirstFrame = -1;
 
 
-    // for Eraser
-    private int baseColor = Color.WHITE;
-    // for Undo, Redo
-    private int historyPointer = 0;
     // Flags
     private Mode mode = Mode.DRAW;
     private Drawer drawer = Drawer.SMOOTH_PEN;
@@ -90,16 +102,27 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     private int opacity = 255;
     private float blur = 0F;
     private Paint.Cap lineCap = Paint.Cap.ROUND;
+    // the settings above are sampled from the published spec when a stroke starts
+    private final AtomicReference<BrushSpec> brushSpec = new AtomicReference<BrushSpec>(BrushSpec.DEFAULT);
+    // the latest change from the tool UI, published on the next frame
+    private final AtomicReference<BrushSpec> pendingBrushSpec = new AtomicReference<BrushSpec>();
+    private final Runnable publishBrushSpec = new Runnable() {
+        @Override
+        public void run() {
+            BrushSpec spec = pendingBrushSpec.getAndSet(null);
+            if (spec != null) {
+                brushSpec.set(spec);
+            }
+        }
+    };
 
 
     // for Text
-    private String text = "";
+    // the text being edited, follows the touch in TEXT mode
+    private TextItem currentText = null;
     private Typeface fontFamily = Typeface.DEFAULT;
     private float fontSize = 32F;
     private Paint.Align textAlign = Paint.Align.RIGHT;  // fixed
-    private Paint textPaint = new Paint();
-    private float textX = 0F;
-    private float textY = 0F;
 
 
     // for Drawer
@@ -109,35 +132,126 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     private float controlY = 0F;
     private float prevX = 0F;
     private float prevY = 0F;
+    // the last point of the current shape
+    private float endX = 0F;
+    private float endY = 0F;
 
 
     // for zooming and pan
-    private float currentTranslationX = 0f;
-    private float currentTranslationY;
-    private float mScaleFactor = 1.f;
-    private int scalePivotX = 0;
-    private int scalePivotY = 0;
-    private Matrix currentMatrix = new Matrix();
     private Matrix currentMatrixInverse = new Matrix();
-    private Matrix tempMatrix = new Matrix();
 
 
     // to draw the spline
     private BezierCurveConstructor bezierCurveConstructor;
 
-    // move the view
-    private boolean isTwoFingerDown = false;
+    // provisional tail ahead of the last touch sample, never part of the history
+    private StrokePredictor strokePredictor = new StrokePredictor();
+    private long predictionAheadMs = 16;
+    private float[] predictedPoint = new float[2];
+    // the unfrozen end of the live stroke: from the end of the path through
+    // the newest sample to the prediction, redrawn every frame
+    private volatile Path liveTail = null;
+
+    // the frozen part of the live stroke, rasterized incrementally
+    private LiveStrokeOverlay liveStrokeOverlay = new LiveStrokeOverlay();
+    private volatile boolean isOverlayStroke = false;
+    private int overlayGeneration = 0;
+
+    private boolean isTileUndoEnabled = true;
+    // undo and redo requests for the draw thread, guarded by pendingRestoreKeys
+    private final List<Object> pendingRestoreKeys = new ArrayList<Object>();
+    private final List<Boolean> pendingRestoreIsUndo = new ArrayList<Boolean>();
+    private final List<Layer> pendingRestoreLayers = new ArrayList<Layer>();
+    private final List<Rect> pendingRestoreBounds = new ArrayList<Rect>();
+    // the region of a layer the draw thread rebuilds, see applyDirtyRegions
+    private final Rect dirtyRegion = new Rect();
+
+    // for the bucket
+    private FloodFill floodFill = new FloodFill();
+    private int fillTolerance = 32;
+    // fills finished while a stroke is drawn, added after it
+    private final List<StrokeRecord> pendingFills = new ArrayList<StrokeRecord>();
+
+    // places the points of the pens at equal arc length
+    private ArcLengthResampler resampler = new ArcLengthResampler();
+
+    // the polylines of the strokes at the current zoom, e.g. for hit testing
+    private BezierFlattener flattener = new BezierFlattener();
+
+    // for the lasso, the strokes of the history by their bounds
+    private StrokeSelection selection = new StrokeSelection();
+    private static final float SELECTION_HANDLE_RADIUS = 24F;   //pixel
+    // for getEntryInk, the ink colors are opaque
+    private static final int INK_NONE = Color.TRANSPARENT;
+    private static final int INK_MIXED = 1;
+
+    // several fingers drawing at once instead of moving the view, guarded by the holder
+    private boolean isMultiPointerDrawing = false;
+    private final SparseArray<PointerStroke> pointerStrokes = new SparseArray<PointerStroke>();
+    // the bitmaps of the overlays of the pointer strokes
+    private final BitmapPool pointerOverlayPool = new BitmapPool();
+    // the finished strokes the draw thread has to put into their layers, guarded by the holder:
+    // the keys of their entries, their overlay, and its generation or NO_OVERLAY
+    private final List<Object> pendingCommitKeys = new ArrayList<Object>();
+    private final List<LiveStrokeOverlay> pendingCommitOverlays = new ArrayList<LiveStrokeOverlay>();
+    private final List<Integer> pendingCommitGenerations = new ArrayList<Integer>();
+    private static final int NO_OVERLAY = -1;
+
+    // the strokes of the other sites to draw on top of layer 0, guarded by the holder
+    private final List<StrokeRecord> pendingRemoteStrokes = new ArrayList<StrokeRecord>();
+    private final AtomicBoolean isSharedUpdatePosted = new AtomicBoolean(false);
+    private final Runnable updateShared = new Runnable() {
+        @Override
+        public void run() {
+            isSharedUpdatePosted.set(false);
+            updateSharedStrokes();
+        }
+    };
+    // streams the screen bitmap to a second screen, null if not mirrored
+    private volatile TileMirror tileMirror = null;
+
+    private final OpLog.OnOpListener opListener = new OpLog.OnOpListener() {
+        @Override
+        public void onLocalOp(StrokeOp op) {
+            postSharedUpdate();
+        }
+
+        @Override
+        public void onRemoteChange() {
+            postSharedUpdate();
+        }
+    };
+
+    // for the dab brushes
+    private DabBrush dabBrush = new DabBrush();
+
+    // to draw the variable-width outline
+    private VariableWidthStrokeBuilder variableWidthStrokeBuilder = new VariableWidthStrokeBuilder();
+
+    // move the view, read by the draw thread for the gesture fast path
+    private volatile boolean isTwoFingerDown = false;
+    // the screen bitmap with the border and the selection, baked on the first
+    // frame of a gesture and kept for the next ones, see drawGestureFrame
+    private Bitmap gestureFrame = null;
+    private Canvas gestureFrameCanvas = null;
+    private boolean isGestureFrameValid = false;
+    private final Paint gesturePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF gestureFrameBounds = new RectF();
     private float twoFingerStartX;
     private float twoFingerStartY;
     private SurfaceHolder surfaceHolder;
     private boolean okToDraw = false;
     private boolean isRedrawBackground = false;
-    private boolean isAddNewestPath = false;
 
     // measuring fps
     private long mLastTime = 0;
     private int fps = 0, ifps = 0;
 
+    // measuring input-to-pixel latency
+    private LatencyTracer latencyTracer = new LatencyTracer();
+    // event time of the newest live sample in the frame being drawn
+    private long frameEventTime = 0;
+
     OnDrawListener onDrawListener;
 
 
@@ -152,37 +266,37 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * matrix operations for pan&zooming
      */
     protected void saveMatrix(){
-        tempMatrix.set(currentMatrix);
+        state.tempMatrix.set(state.currentMatrix);
     }
     /**
      * matrix operations for pan&zooming
      */
     protected void restoreMatrix(){
-        currentMatrix.set(tempMatrix);
-        tempMatrix.invert(currentMatrixInverse);
+        state.currentMatrix.set(state.tempMatrix);
+        state.tempMatrix.invert(currentMatrixInverse);
     }
     /**
      * matrix operations for pan&zooming
      */
     protected void translateMatrix(float tx, float ty){
-        currentMatrix.postTranslate(tx, ty);
-        currentMatrix.invert(currentMatrixInverse);
+        state.currentMatrix.postTranslate(tx, ty);
+        state.currentMatrix.invert(currentMatrixInverse);
     }
     /**
      * matrix operations for pan&zooming
      */
     protected void scaleMatrix(float sx, float sy, float px, float py){
-        currentMatrix.postScale(sx, sy, px, py);
-        currentMatrix.invert(currentMatrixInverse);
+        state.currentMatrix.postScale(sx, sy, px, py);
+        state.currentMatrix.invert(currentMatrixInverse);
     }
     /**
      * matrix operations for pan&zooming
      */
     protected void applyCurrentTranslationScale(){
         restoreMatrix();
-        translateMatrix(currentTranslationX, currentTranslationY);
-        scaleMatrix(mScaleFactor, mScaleFactor, scalePivotX, scalePivotY);
-        Log.d("Scale", "" + mScaleFactor);
+        translateMatrix(state.currentTranslationX, state.currentTranslationY);
+        scaleMatrix(state.scaleFactor, state.scaleFactor, state.scalePivotX, state.scalePivotY);
+        Log.d("Scale", "" + state.scaleFactor);
     }
 
 
@@ -206,7 +320,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     public SurfaceCanvasView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
         this.setup(context);
-        bitmap = null;
+        state.bitmap = null;
     }
 
     /**
@@ -218,7 +332,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     public SurfaceCanvasView(Context context, AttributeSet attrs) {
         super(context, attrs);
         this.setup(context);
-        bitmap = null;
+        state.bitmap = null;
     }
 
     /**
@@ -229,7 +343,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     public SurfaceCanvasView(Context context) {
         super(context);
         this.setup(context);
-        bitmap = null;
+        state.bitmap = null;
     }
 
 
@@ -241,7 +355,6 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     private void setup(Context context) {
         addPath(new Path(), this.createPaint());
 
-        this.textPaint.setARGB(0, 255, 255, 255);
         this.drawBound = new Rect(0, 0, 0, 0);
 
 
@@ -258,29 +371,64 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      */
     private void addPath(Path path, Paint paint) {
 
-        if (historyPointer < pathLists.size()) {
-            this.pathLists.set(historyPointer, path);
-            this.paintLists.set(historyPointer, paint);
+        if (state.historyPointer < state.pathLists.size()) {
+            state.pathLists.set(state.historyPointer, path);
+            state.paintLists.set(state.historyPointer, paint);
+            state.strokeLists.set(state.historyPointer, null);
+            state.layerLists.set(state.historyPointer, state.layerStack.getActiveLayer());
+            state.transformLists.set(state.historyPointer, null);
         } else {
-            this.pathLists.add(path);
-            this.paintLists.add(paint);
+            state.pathLists.add(path);
+            state.paintLists.add(paint);
+            state.strokeLists.add(null);
+            state.layerLists.add(state.layerStack.getActiveLayer());
+            state.transformLists.add(null);
         }
-        this.historyPointer++;
+        state.historyPointer++;
+
+        if (state.historyPointer >= MAX_NUM_PATHS) {
+            synchronized (surfaceHolder) {
+                overflowOldestEntry();
+            }
+        }
+    }
 
-        if (historyPointer >= MAX_NUM_PATHS) {
-            // draw the image to bitmap
-            if (overflowBitmap == null) {
-                overflowBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+    /**
+     * Draw the oldest entry of the history into the overflow bitmap of its
+     * layer and drop it. A stroke hidden by a later entry, e.g. moved by a
+     * transform, is kept aside instead, so undoing that entry still shows it.
+     * The sources of a transform are dropped for good once the transform
+     * itself leaves the history.
+     */
+    private void overflowOldestEntry() {
+        Set<StrokeRecord> hidden = getHiddenStrokes();
+        Layer layer = state.layerLists.get(0);
+        Canvas canvas = layer.getOverflowCanvas(getWidth(), getHeight());
+        drawEntry(canvas, 0, hidden);
+        state.tileUndoStore.remove(getEntryKey(0));
+        for (StrokeRecord stroke : getEntryStrokes(0)) {
+            state.overflowStrokes.add(stroke);
+            if (hidden.contains(stroke)) {
+                state.hiddenOverflowStrokes.put(stroke, layer);
+            }
+        }
+        StrokeTransform transform = state.transformLists.get(0);
+        if (transform != null) {
+            for (StrokeRecord source : transform.getSources()) {
+                state.hiddenOverflowStrokes.remove(source);
+                state.overflowStrokes.remove(source);
             }
-            // draw the path to the bitmap
-            Canvas canvas = new Canvas(overflowBitmap);
-            Path path1 = this.pathLists.get(0);
-            Paint paint1 = this.paintLists.get(0);
-            canvas.drawPath(path1, paint1);
-            this.pathLists.remove(0);
-            this.paintLists.remove(0);
-            this.historyPointer--;
         }
+        if (state.strokeLists.get(0) != null) {
+            state.pathCache.remove(state.strokeLists.get(0));
+        }
+        state.pathLists.remove(0);
+        state.paintLists.remove(0);
+        state.strokeLists.remove(0);
+        state.layerLists.remove(0);
+        state.transformLists.remove(0);
+        state.historyPointer--;
+        state.isStrokeIndexValid = false;
     }
 
 
@@ -322,6 +470,12 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         paint.setStrokeCap(Paint.Cap.ROUND);      // set the paint cap to round too
         paint.setPathEffect(new CornerPathEffect(paintStrokeWidth));
 
+        // the variable-width pen is an outline, fill it
+        if (this.drawer == Drawer.VARIABLE_PEN && this.mode != Mode.TEXT) {
+            paint.setStyle(Paint.Style.FILL);
+            paint.setPathEffect(null);
+        }
+
         // for Text
         if (this.mode == Mode.TEXT) {
             paint.setTypeface(this.fontFamily);
@@ -342,6 +496,18 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
             paint.setAlpha(this.opacity);
         }
 
+        // the bucket fills whole pixels, anti-aliasing would leave seams between the rectangles
+        if (this.drawer == Drawer.BUCKET && this.mode != Mode.TEXT) {
+            paint.setStyle(Paint.Style.FILL);
+            paint.setPathEffect(null);
+            paint.setAntiAlias(false);
+            if (this.mode != Mode.ERASER) {
+                paint.setColor(this.paintFillColor);
+                paint.setShadowLayer(0F, 0F, 0F, 0);
+                paint.setAlpha(this.opacity);
+            }
+        }
+
         return paint;
     }
 
@@ -361,7 +527,11 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         this.startY = ePointF.getY();
 
         path.moveTo(this.startX, this.startY);
-        bezierCurveConstructor.addPoint(this.startX, this.startY);
+        bezierCurveConstructor.addPoint(this.startX, this.startY, event.getEventTime());
+        this.prevX = this.startX;
+        this.prevY = this.startY;
+        this.endX = this.startX;
+        this.endY = this.startY;
 
         return path;
     }
@@ -377,7 +547,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         float[] src = new float[]{x, y};
 
         Matrix inverse = new Matrix();
-        currentMatrix.invert(inverse);
+        state.currentMatrix.invert(inverse);
         inverse.mapPoints(src);
         EPointF ePointF = new EPointF(src[0], src[1]);
 
@@ -393,16 +563,32 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param path the instance of Path
      */
     private void updateHistory(Path path) {
-        if (this.historyPointer == this.pathLists.size()) {
-            addPath(path, this.createPaint());
+        updateHistory(path, this.createPaint());
+    }
+
+    /**
+     * @param path
+     * @param paint the paint of the entry, instead of the current brush
+     */
+    private void updateHistory(Path path, Paint paint) {
+        if (state.historyPointer == state.pathLists.size()) {
+            addPath(path, paint);
         } else {
             // On the way of Undo or Redo
-            addPath(path, this.createPaint());
+            addPath(path, paint);
 
-            for (int i = this.historyPointer, size = this.paintLists.size(); i < size; i++) {
-                this.pathLists.remove(this.historyPointer);
-                this.paintLists.remove(this.historyPointer);
+            for (int i = state.historyPointer, size = state.paintLists.size(); i < size; i++) {
+                state.tileUndoStore.remove(getEntryKey(state.historyPointer));
+                if (state.strokeLists.get(state.historyPointer) != null) {
+                    state.pathCache.remove(state.strokeLists.get(state.historyPointer));
+                }
+                state.pathLists.remove(state.historyPointer);
+                state.paintLists.remove(state.historyPointer);
+                state.strokeLists.remove(state.historyPointer);
+                state.layerLists.remove(state.historyPointer);
+                state.transformLists.remove(state.historyPointer);
             }
+            state.isStrokeIndexValid = false;
         }
     }
 
@@ -412,51 +598,81 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return the instance of Path
      */
     private Path getCurrentPath() {
-        return this.pathLists.get(this.historyPointer - 1);
+        return state.pathLists.get(state.historyPointer - 1);
     }
 
     /**
-     * This method draws text.
+     * the path of an entry of the history, inflated from its record if it
+     * has been released
      *
-     * @param canvas the instance of Canvas
+     * @param index
+     * @return
      */
-    private void drawText(Canvas canvas) {
-        if (this.text.length() <= 0) {
-            return;
+    private Path getPath(int index) {
+        Path path = state.pathLists.get(index);
+        if (path == null) {
+            path = state.pathCache.get(state.strokeLists.get(index));
         }
+        return path;
+    }
 
-        if (this.mode == Mode.TEXT) {
-            this.textX = this.startX;
-            this.textY = this.startY;
-
-            this.textPaint = this.createPaint();
+    /**
+     * Hand the path of a committed entry over to the path cache. From now on
+     * the entry is kept as its packed record, and the path is inflated again
+     * when the cache has dropped it.
+     *
+     * @param index
+     */
+    private void releasePath(int index) {
+        StrokeRecord stroke = state.strokeLists.get(index);
+        Path path = state.pathLists.get(index);
+        if (stroke != null && path != null) {
+            state.pathCache.put(stroke, path);
+            state.pathLists.set(index, null);
         }
+    }
 
-        float textX = this.textX;
-        float textY = this.textY;
-
-        Paint paintForMeasureText = new Paint();
-
-        // Line break automatically
-        float textLength = paintForMeasureText.measureText(this.text);
-        float lengthOfChar = textLength / (float) this.text.length();
-        float restWidth = getWidth() - textX;  // text-align : right
-        int numChars = (lengthOfChar <= 0) ? 1 : (int) Math.floor((double) (restWidth / lengthOfChar));  // The number of characters at 1 line
-        int modNumChars = (numChars < 1) ? 1 : numChars;
-        float y = textY;
-
-        for (int i = 0, len = this.text.length(); i < len; i += modNumChars) {
-            String substring = "";
+    /**
+     * @param index
+     * @return what identifies an entry of the history in the tile store
+     */
+    private Object getEntryKey(int index) {
+        StrokeRecord stroke = state.strokeLists.get(index);
+        return stroke != null ? stroke : state.pathLists.get(index);
+    }
 
-            if ((i + modNumChars) < len) {
-                substring = this.text.substring(i, (i + modNumChars));
-            } else {
-                substring = this.text.substring(i, len);
-            }
+    /**
+     * @param index
+     * @return the pixels an entry of the history can touch
+     */
+    private Rect getEntryBounds(int index) {
+        StrokeRecord stroke = state.strokeLists.get(index);
+        StrokeTransform transform = state.transformLists.get(index);
+        if (stroke == null && transform == null) {
+            return getStrokeBounds(state.pathLists.get(index), state.paintLists.get(index));
+        }
+        RectF bounds = new RectF(stroke != null ? stroke.getBounds() : transform.getBounds());
+        bounds.inset(-1F, -1F);
+        Rect rect = new Rect();
+        bounds.roundOut(rect);
+        return rect;
+    }
 
-            y += this.fontSize;
+    /**
+     * This method draws text.
+     *
+     * @param canvas the instance of Canvas
+     */
+    private void drawText(Canvas canvas) {
+        if (this.mode == Mode.TEXT && this.currentText != null) {
+            this.currentText.setPosition(this.startX, this.startY);
+        }
 
-            canvas.drawText(substring, textX, y, this.textPaint);
+        for (int i = 0, size = state.textItems.size(); i < size; i++) {
+            TextItem item = state.textItems.get(i);
+            // Line break automatically, text-align : right
+            item.layout(getWidth() - item.getX());
+            item.draw(canvas);
         }
     }
 
@@ -474,10 +690,29 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         renderRect.reset();
         */
 
+        // a change not published yet is taken by the stroke which starts, so
+        // the check below and sampleBrushSpec read the same spec
+        this.publishBrushSpec.run();
+        // a bezier keeps the brush of its 1st tap, the drawer asked for is
+        // the current one, this.drawer is only sampled below
+        Drawer requested = this.brushSpec.get().getDrawer();
+        boolean isBezierTap = ((requested == Drawer.QUADRATIC_BEZIER) || (requested == Drawer.QUBIC_BEZIER))
+                && !((this.startX == 0F) && (this.startY == 0F));
+        if (!isBezierTap) {
+            this.sampleBrushSpec();
+        }
+        if (this.drawer != Drawer.LASSO) {
+            this.commitSelection();
+        }
+
         switch (this.mode) {
             case DRAW:
             case ERASER:
-                if ((this.drawer != Drawer.QUADRATIC_BEZIER)
+                if (this.drawer == Drawer.LASSO) {
+                    this.onLassoDown(event);
+                } else if (this.drawer == Drawer.BUCKET) {
+                    this.fill(event);
+                } else if ((this.drawer != Drawer.QUADRATIC_BEZIER)
                         && (this.drawer != Drawer.QUBIC_BEZIER)) {
 
                     if (bezierCurveConstructor == null) {
@@ -488,6 +723,44 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
 
                     // Oherwise
                     this.updateHistory(this.createPath(event));
+                    resampler.reset(getResampleSpacing());
+                    resampler.add(this.startX, this.startY);
+                    strokePredictor.reset();
+                    strokePredictor.addSample(this.startX, this.startY, event.getEventTime());
+
+                    if (this.drawer == Drawer.VARIABLE_PEN) {
+                        variableWidthStrokeBuilder.reset(paintStrokeWidth);
+                        variableWidthStrokeBuilder.addPoint(this.startX, this.startY,
+                                event.getPressure(), event.getEventTime());
+                        state.pathLists.set(state.historyPointer - 1,
+                                variableWidthStrokeBuilder.getLivePath());
+                    }
+
+                    if (isDabBrush(this.drawer)) {
+                        dabBrush.reset(this.drawer, paintStrokeWidth);
+                        dabBrush.addPoint(this.startX, this.startY);
+                    }
+
+                    // freehand ink goes through the overlay, the eraser
+                    // has to clear the background itself, except the dab
+                    // brushes whose soft dabs the overlay takes out
+                    isOverlayStroke = isDabBrush(this.drawer)
+                            || (this.mode == Mode.DRAW
+                            && (this.drawer == Drawer.PEN
+                            || this.drawer == Drawer.SMOOTH_PEN
+                            || this.drawer == Drawer.VARIABLE_PEN));
+                    if (isOverlayStroke) {
+                        Paint strokePaint = state.paintLists.get(state.historyPointer - 1);
+                        overlayGeneration = liveStrokeOverlay.begin(strokePaint,
+                                strokePaint.getStrokeWidth() / 2 + this.blur + 2);
+                        if (this.drawer == Drawer.VARIABLE_PEN) {
+                            liveStrokeOverlay.append(variableWidthStrokeBuilder.getLastPiece());
+                        }
+                        if (isDabBrush(this.drawer)) {
+                            liveStrokeOverlay.setDab(state.dabCache.get(this.drawer, paintStrokeWidth));
+                            liveStrokeOverlay.appendDabs(dabBrush.getDabs(), dabBrush.getDabCount());
+                        }
+                    }
                     this.isDown = true;
                 } else {
                     // Bezier
@@ -516,24 +789,55 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         }
     }
 
-    private void addPointToPath(float x, float y, Path path) {
+    private void addPointToPath(float x, float y, long eventTime, Path path) {
+        // this is crucial to draw a reasonable path:
+        // the samples are resampled to equal spacing
+        int count = resampler.add(x, y);
+        float[] points = resampler.getPoints();
+        for (int i = 0; i < count; i++) {
+            addResampledPoint(points[2 * i], points[2 * i + 1], eventTime, path);
+        }
+    }
 
-        float dx = Math.abs(x - prevX);
-        float dy = Math.abs(y - prevY);
+    /**
+     * add the last sample of the stroke, which is usually between two resampled points
+     *
+     * @param eventTime
+     * @param path
+     */
+    private void finishPath(long eventTime, Path path) {
+        int count = resampler.finish();
+        float[] points = resampler.getPoints();
+        for (int i = 0; i < count; i++) {
+            addResampledPoint(points[2 * i], points[2 * i + 1], eventTime, path);
+        }
+    }
 
-        // this is crucial to draw a reasonable path
-        float scaledTolerance = currentMatrixInverse.mapRadius(TOUCH_TOLERANCE);
-        if (dx >= scaledTolerance || dy >= scaledTolerance) {
-            bezierCurveConstructor.addPoint(x, y);
+    private void addResampledPoint(float x, float y, long eventTime, Path path) {
+        bezierCurveConstructor.addPoint(x, y, eventTime);
 
-            if (this.drawer == Drawer.PEN) {
-                path.lineTo(x, y);
+        if (this.drawer == Drawer.PEN) {
+            path.lineTo(x, y);
+            if (isOverlayStroke) {
+                Path segment = new Path();
+                segment.moveTo(prevX, prevY);
+                segment.lineTo(x, y);
+                liveStrokeOverlay.append(segment);
             }
-
-            prevX = x;
-            prevY = y;
+        } else if (isOverlayStroke) {
+            liveStrokeOverlay.append(bezierCurveConstructor.getLastSegment());
         }
 
+        prevX = x;
+        prevY = y;
+    }
+
+    /**
+     * @return the distance between the points of a pen stroke, in canvas units
+     */
+    private float getResampleSpacing() {
+        return Math.max(this.paintStrokeWidth * RESAMPLE_SPACING,
+                currentMatrixInverse.mapRadius(MIN_RESAMPLE_SPACING));
     }
 
 
@@ -551,9 +855,18 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
 
         //renderRect.update((int) event.getX(), (int) event.getY(), (int) paintStrokeWidth);
 
+        if (this.drawer == Drawer.LASSO && (this.mode == Mode.DRAW || this.mode == Mode.ERASER)) {
+            this.onLassoMove(x, y);
+            return;
+        }
+
         switch (this.mode) {
             case DRAW:
             case ERASER:
+                if (isDown) {
+                    this.endX = x;
+                    this.endY = y;
+                }
 
                 if ((this.drawer != Drawer.QUADRATIC_BEZIER) && (this.drawer != Drawer.QUBIC_BEZIER)) {
                     if (!isDown) {
@@ -567,16 +880,63 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
                         case SMOOTH_PEN:
                             int historySize = event.getHistorySize();
 
-                            addPointToPath(x, y, path);
+                            LatencyTracer.beginSection(LatencyTracer.SECTION_SMOOTH);
+                            // the predictor and the resampler work better with every sample
+                            for (int h = 0; h < historySize; h++) {
+                                EPointF historical = getConvertedPoints(event.getHistoricalX(h),
+                                        event.getHistoricalY(h));
+                                strokePredictor.addSample(historical.getX(), historical.getY(),
+                                        event.getHistoricalEventTime(h));
+                                addPointToPath(historical.getX(), historical.getY(),
+                                        event.getHistoricalEventTime(h), path);
+                            }
+                            strokePredictor.addSample(x, y, event.getEventTime());
+                            addPointToPath(x, y, event.getEventTime(), path);
 
                             // if use smooth, replace the path
                             // with a smoothed one
                             if (drawer == Drawer.SMOOTH_PEN) {
-                                this.pathLists.set(this.historyPointer - 1,
+                                state.pathLists.set(state.historyPointer - 1,
                                         bezierCurveConstructor.constructPath());
                             }
+                            LatencyTracer.endSection();
 
-
+                            updateLiveTail(x, y);
+                            break;
+                        case VARIABLE_PEN:
+                            // only the new piece of the outline is appended to the live path
+                            variableWidthStrokeBuilder.setMinDistance(currentMatrixInverse.mapRadius(1F));
+                            for (int h = 0; h < event.getHistorySize(); h++) {
+                                EPointF historical = getConvertedPoints(event.getHistoricalX(h),
+                                        event.getHistoricalY(h));
+                                if (variableWidthStrokeBuilder.addPoint(historical.getX(), historical.getY(),
+                                        event.getHistoricalPressure(h), event.getHistoricalEventTime(h))
+                                        && isOverlayStroke) {
+                                    liveStrokeOverlay.append(variableWidthStrokeBuilder.getLastPiece());
+                                }
+                            }
+                            if (variableWidthStrokeBuilder.addPoint(x, y, event.getPressure(), event.getEventTime())
+                                    && isOverlayStroke) {
+                                liveStrokeOverlay.append(variableWidthStrokeBuilder.getLastPiece());
+                            }
+                            break;
+                        case SOFT_BRUSH:
+                        case TEXTURED_BRUSH:
+                            // the path is the center line, the dabs go to the overlay
+                            for (int h = 0; h <= event.getHistorySize(); h++) {
+                                float sampleX = x;
+                                float sampleY = y;
+                                if (h < event.getHistorySize()) {
+                                    EPointF historical = getConvertedPoints(event.getHistoricalX(h),
+                                            event.getHistoricalY(h));
+                                    sampleX = historical.getX();
+                                    sampleY = historical.getY();
+                                }
+                                path.lineTo(sampleX, sampleY);
+                                if (dabBrush.addPoint(sampleX, sampleY) > 0 && isOverlayStroke) {
+                                    liveStrokeOverlay.appendDabs(dabBrush.getDabs(), dabBrush.getDabCount());
+                                }
+                            }
                             break;
                         case LINE:
                             path.reset();
@@ -628,19 +988,174 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         }
     }
 
+    /**
+     * rebuild the unfrozen tail from the end of the live path through the
+     * newest sample to the predicted position, if any
+     *
+     * @param x the newest sample
+     * @param y the newest sample
+     */
+    private void updateLiveTail(float x, float y) {
+        if (this.mode != Mode.DRAW) {
+            liveTail = null;
+            return;
+        }
+
+        Path tail = new Path();
+        if (this.drawer == Drawer.SMOOTH_PEN) {
+            tail.moveTo(bezierCurveConstructor.getEndX(), bezierCurveConstructor.getEndY());
+        } else {
+            tail.moveTo(prevX, prevY);
+        }
+        tail.lineTo(x, y);
+        if (predictionAheadMs > 0 && strokePredictor.predict(predictionAheadMs, predictedPoint)) {
+            tail.lineTo(predictedPoint[0], predictedPoint[1]);
+        }
+        liveTail = tail;
+    }
+
     /**
      * This method defines processes on MotionEvent.ACTION_DOWN
      *
      * @param event This is argument of onTouchEvent method
      */
     private void onActionUp(MotionEvent event) {
+        liveTail = null;
+        if (this.drawer == Drawer.LASSO && (this.mode == Mode.DRAW || this.mode == Mode.ERASER)) {
+            this.onLassoUp();
+            return;
+        }
         if (isDown) {
+            if ((this.drawer == Drawer.PEN || this.drawer == Drawer.SMOOTH_PEN)
+                    && (this.mode == Mode.DRAW || this.mode == Mode.ERASER)) {
+                finishPath(event.getEventTime(), this.getCurrentPath());
+                if (this.drawer == Drawer.SMOOTH_PEN) {
+                    state.pathLists.set(state.historyPointer - 1, bezierCurveConstructor.constructPath());
+                }
+            }
+            if (this.drawer == Drawer.VARIABLE_PEN
+                    && (this.mode == Mode.DRAW || this.mode == Mode.ERASER)) {
+                // commit the stroke as a single outline
+                state.pathLists.set(state.historyPointer - 1, variableWidthStrokeBuilder.buildOutline());
+            }
+            this.setEntryStroke(state.historyPointer - 1, createStrokeRecord());
+            releasePath(state.historyPointer - 1);
+
             this.startX = 0F;
             this.startY = 0F;
 
             this.isDown = false;
             requestAddNewPathToBackground();
         }
+        for (int i = 0; i < pendingFills.size(); i++) {
+            addFill(pendingFills.get(i));
+        }
+        pendingFills.clear();
+    }
+
+    /**
+     * Flood fill the region under the touch, as it is on the screen.
+     * The fill runs in the background on a copy of the screen, the filled
+     * area is added to the history as a mask of runs when it is done.
+     *
+     * @param event
+     */
+    private void fill(MotionEvent event) {
+        Bitmap screen = state.currentScreenBitMap;
+        if (screen == null) {
+            return;
+        }
+        EPointF ePointF = getConvertedPoints(event.getX(), event.getY());
+
+        // the draw thread writes the screen bitmap while holding the holder
+        BucketFiller filler = new BucketFiller(floodFill, screen, surfaceHolder,
+                (int) ePointF.getX(), (int) ePointF.getY(), this.fillTolerance,
+                this.mode == Mode.ERASER, this.paintFillColor, this.opacity,
+                new BucketFiller.OnFillListener() {
+                    @Override
+                    public void onFilled(final StrokeRecord stroke) {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                addFill(stroke);
+                            }
+                        });
+                    }
+                });
+        new Thread(filler, "BucketFiller").start();
+    }
+
+    /**
+     * add a finished fill to the history, after the stroke being drawn if there is one
+     *
+     * @param stroke
+     */
+    private void addFill(StrokeRecord stroke) {
+        if (this.isDown) {
+            pendingFills.add(stroke);
+            return;
+        }
+        // the runs are drawn from the record, the entry has no path of its own
+        this.updateHistory(new Path(), stroke.createPaint());
+        this.setEntryStroke(state.historyPointer - 1, stroke);
+        releasePath(state.historyPointer - 1);
+        requestAddNewPathToBackground();
+    }
+
+    /**
+     * describe the stroke which has just been finished
+     *
+     * @return
+     */
+    private StrokeRecord createStrokeRecord() {
+        float[] points;
+        float[] widths = null;
+        switch (this.drawer) {
+            case PEN:
+            case SMOOTH_PEN:
+                return createFittedStrokeRecord(bezierCurveConstructor.getPoints());
+            case VARIABLE_PEN:
+                points = variableWidthStrokeBuilder.getPoints();
+                widths = variableWidthStrokeBuilder.getWidths();
+                break;
+            case SOFT_BRUSH:
+            case TEXTURED_BRUSH:
+                points = dabBrush.getPoints();
+                break;
+            case CIRCLE:
+                // same radius as onActionMove
+                double distanceX = Math.abs((double) (this.startX - this.endX));
+                double distanceY = Math.abs((double) (this.startX - this.endY));
+                float radius = (float) Math.sqrt(Math.pow(distanceX, 2.0) + Math.pow(distanceY, 2.0));
+                points = new float[]{this.startX, this.startY, this.startX + radius, this.startY};
+                break;
+            case QUADRATIC_BEZIER:
+            case QUBIC_BEZIER:
+                points = new float[]{this.startX, this.startY, this.controlX, this.controlY,
+                        this.endX, this.endY};
+                break;
+            default:
+                points = new float[]{this.startX, this.startY, this.endX, this.endY};
+                break;
+        }
+        return new StrokeRecord(StrokeRecord.nextId(), this.drawer, this.mode == Mode.ERASER,
+                this.paintStyle, this.paintStrokeColor, this.paintStrokeWidth, this.opacity, this.blur,
+                points, widths);
+    }
+
+    /**
+     * describe a pen stroke, the samples are replaced by the few cubics which
+     * fit them, unless the cubics would take as many points
+     *
+     * @param samples {x0, y0, x1, y1, ...}
+     * @return
+     */
+    private StrokeRecord createFittedStrokeRecord(float[] samples) {
+        float[] points = CurveFitter.fit(samples, currentMatrixInverse.mapRadius(MAX_FIT_ERROR));
+        boolean fitted = CurveFitter.isReduced(points, samples);
+        return new StrokeRecord(StrokeRecord.nextId(), this.drawer, this.mode == Mode.ERASER,
+                this.paintStyle, this.paintStrokeColor, this.paintStrokeWidth, this.opacity, this.blur,
+                fitted ? points : samples, null, fitted);
     }
 
     /**
@@ -649,145 +1164,1053 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      *                <p>i>0: draw the i-th path</p>
      */
     private void drawBitMap(int pathId) {
-        if (currentScreenBitMap == null) {
-            currentScreenBitMap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+        if (state.currentScreenBitMap == null) {
+            state.currentScreenBitMap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
         }
-        Canvas canvas = new Canvas(currentScreenBitMap);
+        // the size of the view, see resizeCanvas
+        int width = state.currentScreenBitMap.getWidth();
+        int height = state.currentScreenBitMap.getHeight();
 
         // redraw the whole image
         if (pathId == -1) {
-            // Before "drawPath"
-            canvas.drawColor(this.baseColor);
-
-            if (this.bitmap != null) {
-                canvas.drawBitmap(this.bitmap, 0F, 0F, new Paint());
-            }
-
-            if (this.overflowBitmap != null) {
-                Paint paint = new Paint();
-                paint.setAntiAlias(true);
-                paint.setFilterBitmap(true);
-                paint.setDither(true);
-                canvas.drawBitmap(this.overflowBitmap, 0F, 0F, paint);
-            }
-
-            for (int i = 0; i < this.historyPointer; i++) {
-                Path path = this.pathLists.get(i);
-                Paint paint = this.paintLists.get(i);
-                canvas.drawPath(path, paint);
+            // only the layers which changed are replayed
+            for (int i = 0; i < state.layerStack.size(); i++) {
+                Layer layer = state.layerStack.getLayer(i);
+                // a raster of another size is dirty
+                layer.getRaster(width, height);
+                if (layer.isDirty()) {
+                    drawLayer(layer, width, height);
+                }
             }
-
-            this.drawText(canvas);
-
+            compositeLayers(null);
 
         } else {
-            Path path = this.pathLists.get(pathId);
-            Paint paint = this.paintLists.get(pathId);
-
-            canvas.drawPath(path, paint);
+            drawEntry(state.layerLists.get(pathId).getCanvas(width, height), pathId);
+            compositeLayers(getEntryBounds(pathId));
         }
 
     }
 
-    void requestRedrawBackground() {
-        isRedrawBackground = true;
-    }
-
-    void requestAddNewPathToBackground() {
-        isAddNewestPath = true;
+    /**
+     * rebuild the raster of a layer from its strokes
+     *
+     * @param layer
+     * @param width
+     * @param height
+     */
+    private void drawLayer(Layer layer, int width, int height) {
+        Set<StrokeRecord> hidden = getHiddenStrokes();
+        if (chooseStorage(layer, hidden)) {
+            // the tiles kept for undo are in the old storage
+            for (int i = 0; i < state.layerLists.size(); i++) {
+                if (state.layerLists.get(i) == layer) {
+                    state.tileUndoStore.remove(getEntryKey(i));
+                }
+            }
+        }
+        Canvas canvas = layer.beginRedraw(width, height);
+        drawLayerContent(canvas, layer, hidden, null, width, height);
     }
 
-    private void drawFullScreen(Canvas canvas) {
-        boolean callOnDrawListener = false;
-
-        if (canvas == null) {
-            return;
-        }
-        if (drawBound.bottom - drawBound.top == 0) {
-            drawBound.left = 0;
-            drawBound.right = getWidth();
-            drawBound.top = 0;
-            drawBound.bottom = getHeight();
+    /**
+     * rebuild the raster of a layer inside a region only, e.g. where a tile of
+     * an opened document came in, the tiles kept for undo there are stale
+     *
+     * @param layer
+     * @param region
+     * @param width
+     * @param height
+     */
+    private void drawLayerRegion(Layer layer, Rect region, int width, int height) {
+        for (int i = 0; i < state.layerLists.size(); i++) {
+            if (state.layerLists.get(i) == layer && Rect.intersects(getEntryBounds(i), region)) {
+                state.tileUndoStore.remove(getEntryKey(i));
+            }
         }
+        Canvas canvas = layer.beginRedraw(width, height, region);
+        drawLayerContent(canvas, layer, getHiddenStrokes(), region, width, height);
+        canvas.restore();
+        compositeLayers(region);
+    }
 
-        canvas.save();
-        canvas.setMatrix(currentMatrix);
+    /**
+     * draw what a layer holds, bottom up
+     *
+     * @param canvas
+     * @param layer
+     * @param hidden see getHiddenStrokes
+     * @param region the entries outside it are skipped, null for all of them
+     * @param width
+     * @param height
+     */
+    private void drawLayerContent(Canvas canvas, Layer layer, Set<StrokeRecord> hidden, Rect region,
+                                  int width, int height) {
+        if (layer == state.layerStack.getLayer(0) && state.bakedSources != null) {
+            // the image and the document, as they were last drawn
+            canvas.drawBitmap(state.bakedSources, 0F, 0F, new Paint());
+            isDocumentShown |= state.document != null;
+        } else if (layer == state.layerStack.getLayer(0)) {
+            Bitmap image = state.bitmap;
+            if (image != null) {
+                // an imported image may still be decoded into it
+                synchronized (image) {
+                    canvas.drawBitmap(image, 0F, 0F, new Paint());
+                }
+            }
 
-        if (currentScreenBitMap == null || isRedrawBackground) {
-            drawBitMap(-1);
-            isRedrawBackground = false;
+            if (state.document != null) {
+                Bitmap raster = getDocumentRaster(width, height);
+                synchronized (raster) {
+                    canvas.drawBitmap(raster, 0F, 0F, new Paint());
+                }
+                isDocumentShown = true;
+            }
         }
 
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setFilterBitmap(true);
-        paint.setDither(true);
-        canvas.drawBitmap(this.currentScreenBitMap, 0F, 0F, paint);
-
-        if (isDown || isAddNewestPath) {
-            Path path = this.pathLists.get(this.historyPointer - 1);
-            paint = this.paintLists.get(this.historyPointer - 1);
-            canvas.drawPath(path, paint);
+        if (layer.getOverflow() != null) {
+            Paint paint = new Paint();
+            paint.setAntiAlias(true);
+            paint.setFilterBitmap(true);
+            paint.setDither(true);
+            canvas.drawBitmap(layer.getOverflow(), 0F, 0F, paint);
         }
-
-        if (isAddNewestPath) {
-            drawBitMap(this.historyPointer - 1);
-            isAddNewestPath = false;
-            callOnDrawListener = true;
+        for (Map.Entry<StrokeRecord, Layer> entry : state.hiddenOverflowStrokes.entrySet()) {
+            if (entry.getValue() == layer && !hidden.contains(entry.getKey())) {
+                entry.getKey().draw(canvas, state.dabCache);
+            }
         }
-        //put a hole in the current clip
-        canvas.clipRect(drawBound, Region.Op.DIFFERENCE);
-        //fill with plain color at the plain region
-        canvas.drawColor(plainColor);
-        //restore full canvas clip for any subsequent operations
-        canvas.clipRect(new Rect(0, 0, canvas.getWidth(), canvas.getHeight())
-                , Region.Op.REPLACE);
-
-        canvas.restore();
 
-        if(callOnDrawListener){
-            if(onDrawListener != null){
-                onDrawListener.onCanvasUpdated();
+        int next = 0;
+        if (layer == state.layerStack.getLayer(0) && !state.sharedStrokes.isEmpty()) {
+            // the strokes of the other sites go between the entries in the
+            // order of the ops, the entries which are not in the log keep
+            // their place in the history
+            Set<StrokeRecord> remote = new HashSet<StrokeRecord>(state.remoteStrokes);
+            Map<StrokeRecord, Integer> entries = new IdentityHashMap<StrokeRecord, Integer>();
+            for (int i = 0; i < state.historyPointer; i++) {
+                if (state.layerLists.get(i) == layer) {
+                    for (StrokeRecord stroke : getEntryStrokes(i)) {
+                        entries.put(stroke, i);
+                    }
+                }
             }
-        }
-        if (BuildConfig.DEBUG) {
-            long now = System.currentTimeMillis();
-            ifps++;
-            if (now > (mLastTime + 1000)) {
-                mLastTime = now;
-                fps = ifps;
-                ifps = 0;
-                Log.d("FPS:", "" + fps);
+            for (StrokeRecord stroke : state.sharedStrokes) {
+                Integer index = entries.get(stroke);
+                if (index == null) {
+                    if (remote.contains(stroke)) {
+                        stroke.draw(canvas, state.dabCache);
+                    }
+                } else if (index >= next) {
+                    drawEntries(canvas, layer, hidden, region, next, index + 1);
+                    next = index + 1;
+                }
             }
         }
-
+        drawEntries(canvas, layer, hidden, region, next, state.historyPointer);
     }
 
-    public void setPlainColor(int plainColor) {
-        this.plainColor = plainColor;
+    /**
+     * @param canvas
+     * @param layer
+     * @param hidden
+     * @param region the entries outside it are skipped, null for all of them
+     * @param from   the first entry
+     * @param to     after the last entry
+     */
+    private void drawEntries(Canvas canvas, Layer layer, Set<StrokeRecord> hidden, Rect region,
+                             int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (state.layerLists.get(i) == layer
+                    && (region == null || Rect.intersects(getEntryBounds(i), region))) {
+                drawEntry(canvas, i, hidden);
+            }
+        }
     }
 
+    /**
+     * rebuild the regions of the layers where something came in since the
+     * last frame, a dirty layer is replayed whole anyway
+     */
+    private void applyDirtyRegions() {
+        if (state.currentScreenBitMap == null) {
+            return;
+        }
+        int width = state.currentScreenBitMap.getWidth();
+        int height = state.currentScreenBitMap.getHeight();
+        for (int i = 0; i < state.layerStack.size(); i++) {
+            Layer layer = state.layerStack.getLayer(i);
+            // a raster of another size is dirty
+            layer.getRaster(width, height);
+            if (layer.takeDirtyRegion(dirtyRegion) && !layer.isDirty()) {
+                drawLayerRegion(layer, dirtyRegion, width, height);
+            }
+        }
+    }
 
     /**
-     * This method set event listener for drawing.
+     * pick how the raster of a layer is stored from what it holds: ALPHA_8
+     * if its strokes have a single color, RGB_565 over the base color for the
+     * bottom layer if nothing in it erases, else ARGB_8888
      *
-     * @param event the instance of MotionEvent
-     * @return
+     * @param layer
+     * @param hidden
+     * @return whether the storage changed
      */
-    @Override
-    public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction() & MotionEvent.ACTION_MASK) {
-            case MotionEvent.ACTION_POINTER_DOWN:
-                Log.d("PointDown", "" + event.getPointerCount());
-                if (event.getPointerCount() == 2) {
+    private boolean chooseStorage(Layer layer, Set<StrokeRecord> hidden) {
+        if (layer.isArgbKept()) {
+            return layer.setStorage(Bitmap.Config.ARGB_8888, 0);
+        }
+        boolean isBottom = layer == state.layerStack.getLayer(0);
+        boolean hasImage = isBottom && (state.bitmap != null || state.bakedSources != null
+                || state.importFile != null || state.importBytes != null || state.document != null);
+
+        int ink = INK_NONE;
+        boolean isErasing = false;
+        for (int i = 0; i < state.historyPointer; i++) {
+            if (state.layerLists.get(i) == layer) {
+                ink = getEntryInk(i, ink, hidden);
+                isErasing |= isEntryErasing(i);
+            }
+        }
+        for (Map.Entry<StrokeRecord, Layer> entry : state.hiddenOverflowStrokes.entrySet()) {
+            if (entry.getValue() == layer && !hidden.contains(entry.getKey())) {
+                ink = foldInk(ink, entry.getKey());
+                isErasing |= entry.getKey().isEraser();
+            }
+        }
+        if (isBottom) {
+            for (StrokeRecord stroke : state.remoteStrokes) {
+                ink = foldInk(ink, stroke);
+                isErasing |= stroke.isEraser();
+            }
+        }
+
+        if (!hasImage && ink != INK_MIXED && layer.getOverflow() == null) {
+            return layer.setStorage(Bitmap.Config.ALPHA_8, ink != INK_NONE ? ink : Color.BLACK);
+        }
+        if (isBottom && !isErasing && layer.getBlendMode() == PorterDuff.Mode.SRC_OVER
+                && Color.alpha(state.baseColor) == 255) {
+            // only the base color is under the bottom layer, it is filled in
+            return layer.setStorage(Bitmap.Config.RGB_565, state.baseColor);
+        }
+        if (ink == INK_MIXED) {
+            // undoing back to a single ink would switch the storage again
+            layer.keepArgb();
+        }
+        return layer.setStorage(Bitmap.Config.ARGB_8888, 0);
+    }
+
+    /**
+     * whether an entry can be drawn into the raster of its layer as it is
+     * stored, else the layer has to be replayed in another storage
+     *
+     * @param index
+     * @return
+     */
+    private boolean fitsStorage(int index) {
+        Layer layer = state.layerLists.get(index);
+        if (layer.getConfig() == Bitmap.Config.ALPHA_8) {
+            int ink = getEntryInk(index, layer.getStorageColor(), Collections.<StrokeRecord>emptySet());
+            return ink == layer.getStorageColor();
+        }
+        if (layer.getConfig() == Bitmap.Config.RGB_565) {
+            return !isEntryErasing(index);
+        }
+        return true;
+    }
+
+    /**
+     * @param index
+     * @param ink    of the entries so far
+     * @param hidden
+     * @return the single opaque color of the ink and of the entry, INK_NONE
+     * if neither has any, INK_MIXED if they differ
+     */
+    private int getEntryInk(int index, int ink, Set<StrokeRecord> hidden) {
+        List<StrokeRecord> strokes = getEntryStrokes(index);
+        if (strokes.isEmpty()) {
+            Paint paint = state.paintLists.get(index);
+            return paint.getXfermode() != null ? ink : foldInk(ink, paint.getColor());
+        }
+        for (StrokeRecord stroke : strokes) {
+            if (!hidden.contains(stroke)) {
+                ink = foldInk(ink, stroke);
+            }
+        }
+        return ink;
+    }
+
+    private static int foldInk(int ink, StrokeRecord stroke) {
+        // an eraser only takes coverage away
+        return stroke.isEraser() ? ink : foldInk(ink, stroke.getColor());
+    }
+
+    private static int foldInk(int ink, int color) {
+        // the alpha of a stroke is in the coverage
+        color |= 0xFF000000;
+        if (ink == INK_NONE || ink == color) {
+            return color;
+        }
+        return INK_MIXED;
+    }
+
+    private boolean isEntryErasing(int index) {
+        List<StrokeRecord> strokes = getEntryStrokes(index);
+        if (strokes.isEmpty()) {
+            return state.paintLists.get(index).getXfermode() != null;
+        }
+        for (StrokeRecord stroke : strokes) {
+            if (stroke.isEraser()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the raster of the opened document, its restoring is started
+     * when it is first needed and again when the canvas changes size
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    private Bitmap getDocumentRaster(int width, int height) {
+        if (state.documentRaster != null && state.documentRaster.getWidth() == width
+                && state.documentRaster.getHeight() == height) {
+            return state.documentRaster;
+        }
+        if (state.documentRestorer != null) {
+            state.documentRestorer.cancel();
+        }
+        // the restorer may still be copying a tile into the old raster
+        state.documentRaster = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+        // the tiles on the screen first
+        RectF visible = new RectF(0F, 0F, getWidth(), getHeight());
+        currentMatrixInverse.mapRect(visible);
+
+        state.documentRestorer = new DocumentRestorer(state.document, state.documentRaster, state.documentPreview,
+                visible, state.dabCache, createRestoreListener());
+        Thread thread = new Thread(state.documentRestorer, "DocumentRestorer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return state.documentRaster;
+    }
+
+    /**
+     * the listener of the document restorer, a view which takes the
+     * restorer over sets its own, see setCanvasState
+     *
+     * @return
+     */
+    private DocumentRestorer.OnRestoreListener createRestoreListener() {
+        final Layer background = state.layerStack.getLayer(0);
+        return new DocumentRestorer.OnRestoreListener() {
+            @Override
+            public void onTileRestored(Rect tile) {
+                // only the tile is drawn again, by the draw thread
+                background.invalidate(tile);
+            }
+
+            @Override
+            public void onRestored(long elapsedMs) {
+                // not again when a released raster is restored
+                if (state.timeToFullyLoaded < 0) {
+                    state.timeToFullyLoaded = SystemClock.uptimeMillis() - state.documentOpenTime;
+                    Log.d("Restore:", "fully loaded in " + state.timeToFullyLoaded + "ms");
+                }
+            }
+        };
+    }
+
+    /**
+     * draw an entry of the history, dab brushes are stamped
+     *
+     * @param canvas
+     * @param index
+     */
+    private void drawEntry(Canvas canvas, int index) {
+        drawEntry(canvas, index, Collections.<StrokeRecord>emptySet());
+    }
+
+    /**
+     * draw an entry of the history, leaving out the strokes moved by a later entry
+     *
+     * @param canvas
+     * @param index
+     * @param hidden see getHiddenStrokes
+     */
+    private void drawEntry(Canvas canvas, int index, Set<StrokeRecord> hidden) {
+        StrokeTransform transform = state.transformLists.get(index);
+        if (transform != null) {
+            transform.draw(canvas, state.dabCache, hidden);
+            return;
+        }
+        StrokeRecord stroke = state.strokeLists.get(index);
+        if (stroke != null && hidden.contains(stroke)) {
+            return;
+        }
+        if (stroke != null && isDabBrush(stroke.getDrawer())) {
+            DabBrush.draw(canvas, stroke, state.dabCache);
+        } else if (stroke != null && stroke.getDrawer() == Drawer.BUCKET) {
+            // the runs do not overlap, the opacity is applied by the paint
+            FloodFill.drawRuns(canvas, stroke.getPoints(), state.paintLists.get(index));
+        } else if (stroke != null && stroke.getStrokeStyle().isTranslucent()) {
+            // like the live stroke: opaque ink, the opacity applied once, so
+            // the overlaps of the path do not show after a replay
+            canvas.saveLayerAlpha(new RectF(getEntryBounds(index)), stroke.getOpacity(), Canvas.ALL_SAVE_FLAG);
+            canvas.drawPath(getPath(index), stroke.getStrokeStyle().getOpaquePaint());
+            canvas.restore();
+        } else {
+            canvas.drawPath(getPath(index), state.paintLists.get(index));
+        }
+    }
+
+    /**
+     * flatten a stroke with a tolerance of DEFAULT_TOLERANCE on the screen,
+     * so the polyline has fewer points the more the view is zoomed out
+     *
+     * @param stroke
+     * @return the flattener holding the polyline, reused by the next call
+     */
+    BezierFlattener flatten(StrokeRecord stroke) {
+        flattener.reset();
+        flattener.setTolerance(BezierFlattener.DEFAULT_TOLERANCE, state.scaleFactor);
+        flattener.flatten(stroke);
+        return flattener;
+    }
+
+    /**
+     * @param index
+     * @return the strokes an entry of the history draws
+     */
+    private List<StrokeRecord> getEntryStrokes(int index) {
+        StrokeTransform transform = state.transformLists.get(index);
+        if (transform != null) {
+            return transform.getResults();
+        }
+        StrokeRecord stroke = state.strokeLists.get(index);
+        return stroke != null ? Collections.singletonList(stroke) : Collections.<StrokeRecord>emptyList();
+    }
+
+    /**
+     * @return the strokes of the history which are not drawn: the ones moved by
+     * a transform up to the current undo position, and the ones lifted by the lasso
+     */
+    private Set<StrokeRecord> getHiddenStrokes() {
+        Set<StrokeRecord> hidden = new HashSet<StrokeRecord>(selection.getStrokes());
+        hidden.addAll(state.unsharedStrokes);
+        for (int i = 0; i < state.historyPointer; i++) {
+            StrokeTransform transform = state.transformLists.get(i);
+            if (transform != null) {
+                hidden.addAll(transform.getSources());
+            }
+        }
+        return hidden;
+    }
+
+    /**
+     * @return the index of every stroke in the history, rebuilt if the history was cut
+     */
+    private StrokeIndex getStrokeIndex() {
+        if (!state.isStrokeIndexValid) {
+            state.strokeIndex.clear();
+            for (int i = 0; i < state.pathLists.size(); i++) {
+                for (StrokeRecord stroke : getEntryStrokes(i)) {
+                    state.strokeIndex.add(stroke);
+                }
+            }
+            state.isStrokeIndexValid = true;
+        }
+        return state.strokeIndex;
+    }
+
+    /**
+     * keep the record of an entry of the history, and index it,
+     * the entry is drawn with the paint shared by its style from now on
+     *
+     * @param index
+     * @param stroke
+     */
+    private void setEntryStroke(int index, StrokeRecord stroke) {
+        state.strokeLists.set(index, stroke);
+        state.paintLists.set(index, stroke.getStrokeStyle().getPaint());
+        if (state.isStrokeIndexValid) {
+            state.strokeIndex.add(stroke);
+        }
+        if (state.opLog != null) {
+            state.opLog.add(stroke);
+        }
+    }
+
+    /**
+     * start a lasso, or a drag of the selection if the touch is on it
+     *
+     * @param event
+     */
+    private void onLassoDown(MotionEvent event) {
+        EPointF ePointF = getConvertedPoints(event.getX(), event.getY());
+        float handleRadius = currentMatrixInverse.mapRadius(SELECTION_HANDLE_RADIUS);
+        synchronized (surfaceHolder) {
+            if (!selection.isEmpty() && selection.beginDrag(ePointF.getX(), ePointF.getY(), handleRadius)) {
+                return;
+            }
+        }
+        commitSelection();
+        synchronized (surfaceHolder) {
+            selection.beginLasso(ePointF.getX(), ePointF.getY());
+        }
+    }
+
+    private void onLassoMove(float x, float y) {
+        // the draw thread draws the lasso and the sprite
+        synchronized (surfaceHolder) {
+            if (selection.isDragging()) {
+                selection.drag(x, y);
+            } else if (selection.isLassoActive()) {
+                selection.addLassoPoint(x, y);
+            }
+        }
+    }
+
+    private void onLassoUp() {
+        if (selection.isDragging()) {
+            synchronized (surfaceHolder) {
+                selection.endDrag();
+            }
+        } else if (selection.isLassoActive()) {
+            synchronized (surfaceHolder) {
+                selection.endLasso();
+            }
+            selectInLasso();
+        }
+    }
+
+    /**
+     * Lift the strokes of the active layer which are in the lasso. The candidates
+     * come from the stroke index, then the outline of each is tested against the
+     * lasso. The layer is drawn once without them, and they are drawn as a sprite.
+     */
+    private void selectInLasso() {
+        Layer layer = state.layerStack.getActiveLayer();
+        Set<StrokeRecord> candidates = getStrokeIndex().query(selection.getLassoBounds());
+        Set<StrokeRecord> hidden = getHiddenStrokes();
+
+        // in drawing order
+        List<StrokeRecord> selected = new ArrayList<StrokeRecord>();
+        for (int i = 0; i < state.historyPointer; i++) {
+            if (state.layerLists.get(i) != layer) {
+                continue;
+            }
+            for (StrokeRecord stroke : getEntryStrokes(i)) {
+                if (candidates.contains(stroke) && !hidden.contains(stroke) && !stroke.isEraser()
+                        && selection.isInside(flatten(stroke))) {
+                    selected.add(stroke);
+                }
+            }
+        }
+
+        int width = state.currentScreenBitMap != null ? state.currentScreenBitMap.getWidth() : getWidth();
+        int height = state.currentScreenBitMap != null ? state.currentScreenBitMap.getHeight() : getHeight();
+        synchronized (surfaceHolder) {
+            if (selected.isEmpty()) {
+                selection.clear();
+            } else {
+                selection.lift(layer, selected, state.dabCache, width, height);
+                requestRedrawLayer(layer);
+            }
+        }
+    }
+
+    /**
+     * Drop the selection of the lasso. If it has been moved or scaled this is
+     * added to the history as a single entry.
+     */
+    public void commitSelection() {
+        if (selection.isEmpty()) {
+            synchronized (surfaceHolder) {
+                selection.clear();
+            }
+            return;
+        }
+
+        Layer layer = selection.getLayer();
+        if (!selection.getMatrix().isIdentity()) {
+            StrokeTransform transform = new StrokeTransform(selection.getStrokes(), selection.getMatrix());
+            this.updateHistory(new Path());
+            state.transformLists.set(state.historyPointer - 1, transform);
+            state.layerLists.set(state.historyPointer - 1, layer);
+            if (state.isStrokeIndexValid) {
+                for (StrokeRecord stroke : transform.getResults()) {
+                    state.strokeIndex.add(stroke);
+                }
+            }
+            if (state.opLog != null) {
+                state.opLog.transform(transform);
+            }
+        }
+        synchronized (surfaceHolder) {
+            selection.clear();
+            requestRedrawLayer(layer);
+        }
+    }
+
+    private static boolean isDabBrush(Drawer drawer) {
+        return drawer == Drawer.SOFT_BRUSH || drawer == Drawer.TEXTURED_BRUSH;
+    }
+
+    /**
+     * composite the cached layer rasters and the text into the screen bitmap
+     *
+     * @param dirty the region to update, null for everything
+     */
+    private void compositeLayers(Rect dirty) {
+        Canvas canvas = new Canvas(state.currentScreenBitMap);
+        if (dirty != null) {
+            canvas.clipRect(dirty);
+        }
+        state.layerStack.composite(canvas, state.baseColor);
+        this.drawText(canvas);
+
+        TileMirror mirror = tileMirror;
+        if (mirror != null) {
+            mirror.markDirty(dirty);
+        }
+    }
+
+    /**
+     * replay the strokes of every layer, only if any layer may have changed,
+     * see requestRedrawLayer and requestComposite
+     */
+    void requestRedrawBackground() {
+        state.layerStack.invalidate();
+        isRedrawBackground = true;
+    }
+
+    /**
+     * replay the strokes of one layer only
+     *
+     * @param layer
+     */
+    void requestRedrawLayer(Layer layer) {
+        layer.invalidate();
+        isRedrawBackground = true;
+    }
+
+    /**
+     * composite the cached layer rasters again, e.g. after the opacity of a layer changed
+     */
+    void requestComposite() {
+        isRedrawBackground = true;
+    }
+
+    /**
+     * ask the draw thread to undo or redo a stroke from its tile images
+     *
+     * @param index  the stroke in the history
+     * @param isUndo true to undo, false to redo
+     */
+    void requestRestoreTiles(int index, boolean isUndo) {
+        Layer layer = state.layerLists.get(index);
+        if (!isTileUndoEnabled) {
+            requestRedrawLayer(layer);
+            return;
+        }
+        Object key = getEntryKey(index);
+        Rect bounds = getEntryBounds(index);
+        synchronized (pendingRestoreKeys) {
+            pendingRestoreKeys.add(key);
+            pendingRestoreIsUndo.add(isUndo);
+            pendingRestoreLayers.add(layer);
+            pendingRestoreBounds.add(bounds);
+        }
+    }
+
+    /**
+     * apply the pending undo and redo requests to the layer rasters and composite
+     * the tiles which changed, falls back to replaying the layer if a stroke is no
+     * longer in the tile store
+     */
+    private void applyPendingRestores() {
+        synchronized (pendingRestoreKeys) {
+            for (int i = 0; state.currentScreenBitMap != null && i < pendingRestoreKeys.size(); i++) {
+                Layer layer = pendingRestoreLayers.get(i);
+                if (layer.isDirty()) {
+                    // going to be replayed anyway
+                    continue;
+                }
+                Object key = pendingRestoreKeys.get(i);
+                Bitmap raster = layer.getRaster(state.currentScreenBitMap.getWidth(), state.currentScreenBitMap.getHeight());
+                boolean restored = pendingRestoreIsUndo.get(i)
+                        ? state.tileUndoStore.undo(key, raster)
+                        : state.tileUndoStore.redo(key, raster);
+                if (restored) {
+                    compositeLayers(pendingRestoreBounds.get(i));
+                } else {
+                    requestRedrawLayer(layer);
+                }
+            }
+            pendingRestoreKeys.clear();
+            pendingRestoreIsUndo.clear();
+            pendingRestoreLayers.clear();
+            pendingRestoreBounds.clear();
+        }
+    }
+
+    /**
+     * the pixels a stroke can touch in the screen bitmap
+     *
+     * @param path
+     * @param paint
+     * @return
+     */
+    private Rect getStrokeBounds(Path path, Paint paint) {
+        RectF bounds = new RectF();
+        path.computeBounds(bounds, true);
+        float outset = paint.getStrokeWidth() / 2 + this.blur + 2;
+        bounds.inset(-outset, -outset);
+        Rect rect = new Rect();
+        bounds.roundOut(rect);
+        return rect;
+    }
+
+    /**
+     * The fast path of a pan or zoom: one bitmap through the matrix, with the
+     * border and the selection baked in on the first frame of the gesture,
+     * and the plain color only where the bitmap does not cover the screen.
+     * The bitmap of the baked frame is reused by the next gestures, it is
+     * only freed by trimMemory. The pending restores, the layers to replay
+     * and the new tiles of a document wait until the fingers are lifted.
+     *
+     * @param canvas
+     */
+    private void drawGestureFrame(Canvas canvas) {
+        Bitmap frame = state.currentScreenBitMap;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (!drawBound.contains(0, 0, width, height) || !selection.isEmpty()) {
+            if (!isGestureFrameValid) {
+                if (gestureFrame == null || gestureFrame.getWidth() != width
+                        || gestureFrame.getHeight() != height) {
+                    if (gestureFrame != null) {
+                        gestureFrame.recycle();
+                    }
+                    gestureFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    gestureFrameCanvas = new Canvas(gestureFrame);
+                }
+                gestureFrameCanvas.drawBitmap(frame, 0F, 0F, null);
+                selection.draw(gestureFrameCanvas, currentMatrixInverse.mapRadius(SELECTION_HANDLE_RADIUS));
+                gestureFrameCanvas.save();
+                gestureFrameCanvas.clipRect(drawBound, Region.Op.DIFFERENCE);
+                gestureFrameCanvas.drawColor(plainColor);
+                gestureFrameCanvas.restore();
+            }
+            frame = gestureFrame;
+        }
+        isGestureFrameValid = true;
+
+        gestureFrameBounds.set(0F, 0F, width, height);
+        state.currentMatrix.mapRect(gestureFrameBounds);
+        if (!gestureFrameBounds.contains(0F, 0F, canvas.getWidth(), canvas.getHeight())) {
+            canvas.drawColor(plainColor);
+        }
+        canvas.drawBitmap(frame, state.currentMatrix, gesturePaint);
+    }
+
+    private void releaseGestureFrame() {
+        if (gestureFrame != null) {
+            gestureFrame.recycle();
+            gestureFrame = null;
+            gestureFrameCanvas = null;
+        }
+        isGestureFrameValid = false;
+    }
+
+    /**
+     * Free what is only kept to draw faster, e.g. when the system is low on
+     * memory. It is made again when needed.
+     */
+    public void trimMemory() {
+        synchronized (surfaceHolder) {
+            releaseGestureFrame();
+            pointerOverlayPool.clear();
+        }
+    }
+
+    /**
+     * queue the newest entry for the draw thread, with the overlay it was drawn in
+     */
+    void requestAddNewPathToBackground() {
+        synchronized (surfaceHolder) {
+            pendingCommitKeys.add(getEntryKey(state.historyPointer - 1));
+            pendingCommitOverlays.add(liveStrokeOverlay);
+            pendingCommitGenerations.add(isOverlayStroke ? overlayGeneration : NO_OVERLAY);
+        }
+    }
+
+    private void drawFullScreen(Canvas canvas) {
+        if (canvas == null) {
+            return;
+        }
+        if (drawBound.bottom - drawBound.top == 0) {
+            drawBound.left = 0;
+            drawBound.right = getWidth();
+            drawBound.top = 0;
+            drawBound.bottom = getHeight();
+        }
+
+        // nothing is drawn while two fingers move the view, only the matrix changes
+        if (isTwoFingerDown && !isDown && pendingCommitKeys.isEmpty() && pendingRemoteStrokes.isEmpty()
+                && state.currentScreenBitMap != null
+                && pointerStrokes.size() == 0) {
+            drawGestureFrame(canvas);
+            return;
+        }
+        isGestureFrameValid = false;
+
+        // the newest sample this frame is going to show
+        if (isDown && bezierCurveConstructor != null) {
+            frameEventTime = bezierCurveConstructor.getLastEventTime();
+        } else {
+            frameEventTime = 0;
+        }
+
+        canvas.save();
+        canvas.setMatrix(state.currentMatrix);
+
+        // e.g. after a rotation, the canvas takes the size of the view
+        if (state.currentScreenBitMap != null && getWidth() > 0 && getHeight() > 0
+                && (state.currentScreenBitMap.getWidth() != getWidth()
+                || state.currentScreenBitMap.getHeight() != getHeight())) {
+            resizeCanvas();
+        }
+        applyPendingRestores();
+        applyDirtyRegions();
+        // the strokes go into the rasters of their layers,
+        // then only their bounds are composited again
+        boolean callOnDrawListener = commitPendingStrokes();
+        commitRemoteStrokes();
+        if (state.currentScreenBitMap == null || isRedrawBackground || state.layerStack.isDirty()) {
+            drawBitMap(-1);
+            isRedrawBackground = false;
+        }
+        startPendingImport();
+        releaseBakedSources();
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+        paint.setDither(true);
+        canvas.drawBitmap(state.currentScreenBitMap, 0F, 0F, paint);
+
+        if (isDown) {
+            paint = state.paintLists.get(state.historyPointer - 1);
+            if (isOverlayStroke) {
+                // only the pieces frozen since the last frame are rasterized
+                liveStrokeOverlay.draw(canvas, state.currentScreenBitMap.getWidth(),
+                        state.currentScreenBitMap.getHeight());
+            } else {
+                Path path = getPath(state.historyPointer - 1);
+                canvas.drawPath(path, paint);
+            }
+
+            Path tail = liveTail;
+            if (tail != null) {
+                canvas.drawPath(tail, paint);
+            }
+        }
+
+        // the strokes of the fingers drawing at once, only their new pieces are rasterized
+        for (int i = 0; i < pointerStrokes.size(); i++) {
+            pointerStrokes.valueAt(i).getOverlay().draw(canvas, state.currentScreenBitMap.getWidth(),
+                    state.currentScreenBitMap.getHeight());
+        }
+
+        // the lasso, or the lifted strokes moved by their matrix
+        selection.draw(canvas, currentMatrixInverse.mapRadius(SELECTION_HANDLE_RADIUS));
+
+        //put a hole in the current clip
+        canvas.clipRect(drawBound, Region.Op.DIFFERENCE);
+        //fill with plain color at the plain region
+        canvas.drawColor(plainColor);
+        //restore full canvas clip for any subsequent operations
+        canvas.clipRect(new Rect(0, 0, canvas.getWidth(), canvas.getHeight())
+                , Region.Op.REPLACE);
+
+        canvas.restore();
+
+        if(callOnDrawListener){
+            if(onDrawListener != null){
+                onDrawListener.onCanvasUpdated();
+            }
+        }
+        if (BuildConfig.DEBUG) {
+            long now = System.currentTimeMillis();
+            ifps++;
+            if (now > (mLastTime + 1000)) {
+                mLastTime = now;
+                fps = ifps;
+                ifps = 0;
+                Log.d("FPS:", "" + fps);
+                Log.d("Latency:", latencyTracer.toString());
+            }
+        }
+
+    }
+
+    public void setPlainColor(int plainColor) {
+        this.plainColor = plainColor;
+    }
+
+    /**
+     * Undo and redo by copying back the tiles a stroke touched, instead of
+     * replaying the whole history. Strokes evicted from the tile store are
+     * still undone by replay.
+     *
+     * @param enabled
+     */
+    public void setTileUndoEnabled(boolean enabled) {
+        this.isTileUndoEnabled = enabled;
+        if (!enabled) {
+            state.tileUndoStore.clear();
+        }
+    }
+
+    public boolean isTileUndoEnabled() {
+        return isTileUndoEnabled;
+    }
+
+    /**
+     * how different a pixel may be from the touched one to be filled by the bucket
+     *
+     * @param tolerance 0 - 255, the largest difference of any channel
+     */
+    public void setFillTolerance(int tolerance) {
+        this.fillTolerance = Math.max(0, Math.min(255, tolerance));
+    }
+
+    public int getFillTolerance() {
+        return this.fillTolerance;
+    }
+
+    /**
+     * the layers, bottom first
+     *
+     * @return
+     */
+    public LayerStack getLayerStack() {
+        return state.layerStack;
+    }
+
+    /**
+     * add a layer above the active one, new strokes are drawn on it
+     *
+     * @param name
+     * @return the index of the new layer
+     */
+    public int addLayer(String name) {
+        Layer layer = state.layerStack.addLayer(name);
+        requestRedrawLayer(layer);
+        return state.layerStack.indexOf(layer);
+    }
+
+    /**
+     * @param index the layer new strokes are drawn on
+     */
+    public void setActiveLayer(int index) {
+        state.layerStack.setActiveIndex(index);
+    }
+
+    public int getActiveLayer() {
+        return state.layerStack.getActiveIndex();
+    }
+
+    /**
+     * @param index
+     * @param opacity 0 - 255
+     */
+    public void setLayerOpacity(int index, int opacity) {
+        state.layerStack.getLayer(index).setOpacity(opacity);
+        requestComposite();
+    }
+
+    /**
+     * @param index
+     * @param mode  how the layer is combined with the layers under it
+     */
+    public void setLayerBlendMode(int index, PorterDuff.Mode mode) {
+        state.layerStack.getLayer(index).setBlendMode(mode);
+        requestComposite();
+    }
+
+    public void setLayerVisible(int index, boolean visible) {
+        state.layerStack.getLayer(index).setVisible(visible);
+        requestComposite();
+    }
+
+    /**
+     * how far ahead of the last touch sample the provisional tail is drawn
+     *
+     * @param predictionAheadMs 0 to disable the prediction
+     */
+    public void setPredictionAheadMs(long predictionAheadMs) {
+        this.predictionAheadMs = predictionAheadMs < 0 ? 0 : predictionAheadMs;
+    }
+
+    public long getPredictionAheadMs() {
+        return predictionAheadMs;
+    }
+
+    /**
+     * the input-to-pixel latency distribution of the live stroke
+     * @return
+     */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+
+    /**
+     * This method set event listener for drawing.
+     *
+     * @param event the instance of MotionEvent
+     * @return
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        LatencyTracer.beginSection(LatencyTracer.SECTION_INGEST);
+        try {
+            return handleTouchEvent(event);
+        } finally {
+            LatencyTracer.endSection();
+        }
+    }
+
+    /**
+     * the actual touch handling, see onTouchEvent
+     *
+     * @param event the instance of MotionEvent
+     * @return
+     */
+    private boolean handleTouchEvent(MotionEvent event) {
+        // the strokes of the fingers still down are finished even if the tool changed
+        if (isMultiPointerDrawing && (isPointerDrawer() || pointerStrokes.size() > 0)) {
+            return handleMultiPointerEvent(event);
+        }
+
+        switch (event.getAction() & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_POINTER_DOWN:
+                Log.d("PointDown", "" + event.getPointerCount());
+                if (event.getPointerCount() == 2) {
                     isTwoFingerDown = true;
                     float sx = (event.getX(0) + event.getX(1)) / 2;
                     float sy = (event.getY(0) + event.getY(1)) / 2;
                     twoFingerStartX = sx;
                     twoFingerStartY = sy;
-                    scalePivotY = (int) (sy);
-                    scalePivotX = (int) (sx);
-                    mScaleFactor = 1.0f;
+                    state.scalePivotY = (int) (sy);
+                    state.scalePivotX = (int) (sx);
+                    state.scaleFactor = 1.0f;
 
                     saveMatrix();
 
@@ -803,10 +2226,10 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
                     if (isTwoFingerDown) {
                         float sx = (event.getX(0) + event.getX(1)) / 2;
                         float sy = (event.getY(0) + event.getY(1)) / 2;
-                        scalePivotY = (int) (sy);
-                        scalePivotX = (int) (sx);
-                        currentTranslationX = sx - twoFingerStartX;
-                        currentTranslationY = sy - twoFingerStartY;
+                        state.scalePivotY = (int) (sy);
+                        state.scalePivotX = (int) (sx);
+                        state.currentTranslationX = sx - twoFingerStartX;
+                        state.currentTranslationY = sy - twoFingerStartY;
                         applyCurrentTranslationScale();
                     }
                 }
@@ -819,37 +2242,430 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
                 break;
         }
 
-        // zooming
-        if (scaleGestureDetector != null) {
-            scaleGestureDetector.onTouchEvent(event);
+        // zooming
+        if (scaleGestureDetector != null) {
+            scaleGestureDetector.onTouchEvent(event);
+
+            if (scaleGestureDetector.isInProgress()) {
+                return true;
+            }
+        }
+
+        // normal drawing event
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                Log.d("Down", "" + event.getPointerCount());
+                this.onActionDown(event);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (event.getPointerCount() == 1) {
+                    this.onActionMove(event);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                this.onActionUp(event);
+                break;
+
+            default:
+                break;
+        }
+
+        // Re draw
+        //this.invalidate();
+        return true;
+    }
+
+    /**
+     * @return whether the tool draws a stroke per finger when multi-pointer drawing is on
+     */
+    private boolean isPointerDrawer() {
+        return (this.mode == Mode.DRAW || this.mode == Mode.ERASER)
+                && (this.drawer == Drawer.PEN || this.drawer == Drawer.SMOOTH_PEN);
+    }
+
+    /**
+     * Every finger draws a stroke of its own, there is no pan or zoom. The
+     * samples of a move, the historical ones included, go to the stroke of
+     * their pointer. A stroke goes into the history when its finger is lifted.
+     *
+     * @param event
+     * @return
+     */
+    private boolean handleMultiPointerEvent(MotionEvent event) {
+        int index = event.getActionIndex();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                this.sampleBrushSpec();
+                this.commitSelection();
+                this.beginPointerStroke(event, index);
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                this.beginPointerStroke(event, index);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                this.movePointerStrokes(event);
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_UP:
+                this.finishPointerStroke(event, index);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                synchronized (surfaceHolder) {
+                    clearPointerStrokes();
+                }
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private void beginPointerStroke(MotionEvent event, int index) {
+        if (!isPointerDrawer()) {
+            return;
+        }
+        EPointF ePointF = getConvertedPoints(event.getX(index), event.getY(index));
+        Paint paint = this.createPaint();
+        PointerStroke stroke = new PointerStroke(event.getPointerId(index), this.drawer, paint,
+                state.layerStack.getActiveLayer(), new LiveStrokeOverlay(pointerOverlayPool),
+                getResampleSpacing());
+        stroke.begin(ePointF.getX(), ePointF.getY(), event.getEventTime(),
+                paint.getStrokeWidth() / 2 + this.blur + 2);
+        synchronized (surfaceHolder) {
+            pointerStrokes.put(stroke.getPointerId(), stroke);
+        }
+    }
+
+    /**
+     * drop the strokes of the fingers still down, their overlays give the bitmaps back
+     */
+    private void clearPointerStrokes() {
+        for (int i = 0; i < pointerStrokes.size(); i++) {
+            pointerStrokes.valueAt(i).getOverlay().discard();
+        }
+        pointerStrokes.clear();
+    }
+
+    private void movePointerStrokes(MotionEvent event) {
+        int historySize = event.getHistorySize();
+        // the draw thread draws the paths
+        synchronized (surfaceHolder) {
+            for (int p = 0; p < event.getPointerCount(); p++) {
+                PointerStroke stroke = pointerStrokes.get(event.getPointerId(p));
+                if (stroke == null) {
+                    continue;
+                }
+                for (int h = 0; h < historySize; h++) {
+                    EPointF historical = getConvertedPoints(event.getHistoricalX(p, h),
+                            event.getHistoricalY(p, h));
+                    stroke.addSample(historical.getX(), historical.getY(), event.getHistoricalEventTime(h));
+                }
+                EPointF ePointF = getConvertedPoints(event.getX(p), event.getY(p));
+                stroke.addSample(ePointF.getX(), ePointF.getY(), event.getEventTime());
+            }
+        }
+    }
+
+    /**
+     * put the stroke of a lifted finger into the history, the draw thread
+     * draws it into its layer on the next frame
+     *
+     * @param event
+     * @param index
+     */
+    private void finishPointerStroke(MotionEvent event, int index) {
+        EPointF ePointF = getConvertedPoints(event.getX(index), event.getY(index));
+        // in one go, so no frame shows the stroke twice or not at all
+        synchronized (surfaceHolder) {
+            PointerStroke stroke = pointerStrokes.get(event.getPointerId(index));
+            if (stroke == null) {
+                return;
+            }
+            stroke.addSample(ePointF.getX(), ePointF.getY(), event.getEventTime());
+            stroke.finish(event.getEventTime());
+            pointerStrokes.remove(stroke.getPointerId());
+
+            this.updateHistory(stroke.getPath());
+            state.paintLists.set(state.historyPointer - 1, stroke.getPaint());
+            state.layerLists.set(state.historyPointer - 1, stroke.getLayer());
+            this.setEntryStroke(state.historyPointer - 1, createFittedStrokeRecord(stroke.getPoints()));
+            releasePath(state.historyPointer - 1);
+            pendingCommitKeys.add(getEntryKey(state.historyPointer - 1));
+            pendingCommitOverlays.add(stroke.getOverlay());
+            pendingCommitGenerations.add(stroke.getGeneration());
+        }
+    }
+
+    /**
+     * Draw the finished strokes into their layers, on the draw thread, the
+     * ink of an overlay stroke is merged if the overlay still holds it. A
+     * stroke which has been undone since is skipped, and so is one whose
+     * layer is going to be replayed anyway.
+     *
+     * @return whether a stroke was committed
+     */
+    private boolean commitPendingStrokes() {
+        boolean isCommitted = !pendingCommitKeys.isEmpty();
+        for (int k = 0; state.currentScreenBitMap != null && k < pendingCommitKeys.size(); k++) {
+            Object key = pendingCommitKeys.get(k);
+            LiveStrokeOverlay overlay = pendingCommitOverlays.get(k);
+            int generation = pendingCommitGenerations.get(k);
+            int index = state.historyPointer - 1;
+            while (index >= 0 && getEntryKey(index) != key) {
+                index--;
+            }
+            if (index < 0 || state.layerLists.get(index).isDirty()) {
+                continue;
+            }
+            if (!fitsStorage(index)) {
+                // replayed on this frame, in a storage which takes it
+                state.layerLists.get(index).invalidate();
+                continue;
+            }
+
+            Layer layer = state.layerLists.get(index);
+            Rect dirty = getEntryBounds(index);
+            int width = state.currentScreenBitMap.getWidth();
+            int height = state.currentScreenBitMap.getHeight();
+            Bitmap raster = layer.getRaster(width, height);
+            if (isTileUndoEnabled) {
+                state.tileUndoStore.captureBefore(key, raster, dirty);
+            }
+            // the overlay holds another stroke once the next one has begun
+            if (generation == NO_OVERLAY || !overlay.mergeInto(raster, generation)) {
+                drawEntry(layer.getCanvas(width, height), index);
+            }
+            if (isTileUndoEnabled) {
+                state.tileUndoStore.captureAfter(key, raster);
+            }
+            compositeLayers(dirty);
+        }
+        // the overlays of the pointer strokes which were not merged
+        for (int k = 0; k < pendingCommitOverlays.size(); k++) {
+            if (pendingCommitOverlays.get(k) != liveStrokeOverlay) {
+                pendingCommitOverlays.get(k).discard();
+            }
+        }
+        pendingCommitKeys.clear();
+        pendingCommitOverlays.clear();
+        pendingCommitGenerations.clear();
+        return isCommitted;
+    }
+
+    /**
+     * Let several fingers draw at once, one stroke each, with the pens. Pan
+     * and zoom by two fingers are off while this is on.
+     *
+     * @param isMultiPointerDrawing
+     */
+    public void setMultiPointerDrawing(boolean isMultiPointerDrawing) {
+        synchronized (surfaceHolder) {
+            this.isMultiPointerDrawing = isMultiPointerDrawing;
+            if (!isMultiPointerDrawing) {
+                clearPointerStrokes();
+            }
+        }
+    }
+
+    public boolean isMultiPointerDrawing() {
+        return isMultiPointerDrawing;
+    }
+
+    /**
+     * Stream the canvas to TileMirrorReceivers, only the tiles which changed
+     * are sent. The strokes show when they are finished.
+     *
+     * @param port to listen on, 0 for any
+     * @return the port
+     * @throws IOException
+     */
+    public int startMirroring(int port) throws IOException {
+        stopMirroring();
+        TileMirror mirror = new TileMirror(port);
+        mirror.start();
+        tileMirror = mirror;
+        return mirror.getPort();
+    }
+
+    public void stopMirroring() {
+        TileMirror mirror = tileMirror;
+        tileMirror = null;
+        if (mirror != null) {
+            mirror.stop();
+        }
+    }
+
+    /**
+     * Share the canvas through a log, e.g. synced by a SyncClient. The strokes
+     * finished from now on, their undo and redo and the moves of the lasso go
+     * into the log; the strokes of the other sites are drawn on the bottom
+     * layer, among its history in the order of the ops.
+     *
+     * @param log null to stop sharing
+     */
+    public void setOpLog(OpLog log) {
+        if (state.opLog != null) {
+            state.opLog.removeOnOpListener(opListener);
+        }
+        state.opLog = log;
+        if (log != null) {
+            log.addOnOpListener(opListener);
+        }
+        updateSharedStrokes();
+    }
+
+    public OpLog getOpLog() {
+        return state.opLog;
+    }
+
+    /**
+     * update the shared strokes once on the UI thread, however many ops came
+     */
+    private void postSharedUpdate() {
+        if (!isSharedUpdatePosted.getAndSet(true)) {
+            this.post(updateShared);
+        }
+    }
+
+    /**
+     * take the strokes of the other sites from the log, and hide the strokes
+     * of the history they erased or moved
+     */
+    private void updateSharedStrokes() {
+        List<StrokeRecord> visible = Collections.emptyList();
+        List<StrokeRecord> remote = new ArrayList<StrokeRecord>();
+        Set<StrokeRecord> unshared = new HashSet<StrokeRecord>();
+        if (state.opLog != null) {
+            visible = state.opLog.getVisibleStrokes();
+            Set<StrokeRecord> onCanvas = new HashSet<StrokeRecord>(visible);
+            for (StrokeRecord stroke : visible) {
+                if (!state.opLog.isShared(stroke)) {
+                    remote.add(stroke);
+                }
+            }
+            for (int i = 0; i < state.historyPointer; i++) {
+                for (StrokeRecord stroke : getEntryStrokes(i)) {
+                    if (state.opLog.isShared(stroke) && !onCanvas.contains(stroke)) {
+                        unshared.add(stroke);
+                    }
+                }
+            }
+        }
+        if (remote.equals(state.remoteStrokes) && unshared.equals(state.unsharedStrokes)) {
+            return;
+        }
+
+        synchronized (surfaceHolder) {
+            if (isAddedOnTop(visible, unshared)) {
+                // only new strokes of the other sites, above everything
+                pendingRemoteStrokes.addAll(visible.subList(state.sharedStrokes.size(), visible.size()));
+            } else {
+                // an erase, an undo or a move, the hidden strokes can be on any layer
+                pendingRemoteStrokes.clear();
+                requestRedrawBackground();
+            }
+            state.sharedStrokes = visible;
+            state.remoteStrokes = remote;
+            state.unsharedStrokes = unshared;
+        }
+    }
 
-            if (scaleGestureDetector.isInProgress()) {
-                return true;
+    /**
+     * whether the strokes of the log only grew by strokes of the other sites,
+     * which so can be drawn on top of layer 0 without replaying it
+     *
+     * @param visible  the strokes of the log now
+     * @param unshared the strokes of the history not in the log now
+     * @return
+     */
+    private boolean isAddedOnTop(List<StrokeRecord> visible, Set<StrokeRecord> unshared) {
+        if (!unshared.equals(state.unsharedStrokes) || visible.size() < state.sharedStrokes.size()
+                || !visible.subList(0, state.sharedStrokes.size()).equals(state.sharedStrokes)) {
+            return false;
+        }
+        for (int i = state.sharedStrokes.size(); i < visible.size(); i++) {
+            if (state.opLog.isShared(visible.get(i))) {
+                return false;
+            }
+        }
+        // an entry not in the log is drawn above the strokes of the log
+        Layer bottom = state.layerStack.getLayer(0);
+        for (int i = state.historyPointer - 1; i >= 0; i--) {
+            if (state.layerLists.get(i) == bottom) {
+                List<StrokeRecord> strokes = getEntryStrokes(i);
+                return !strokes.isEmpty() && state.opLog.isShared(strokes.get(0));
             }
         }
+        return true;
+    }
 
-        // normal drawing event
-        switch (event.getAction()) {
-            case MotionEvent.ACTION_DOWN:
-                Log.d("Down", "" + event.getPointerCount());
-                this.onActionDown(event);
+    /**
+     * draw the new strokes of the other sites into layer 0, see updateSharedStrokes
+     */
+    private void commitRemoteStrokes() {
+        if (pendingRemoteStrokes.isEmpty()) {
+            return;
+        }
+        Layer layer = state.layerStack.getLayer(0);
+        if (state.currentScreenBitMap == null || layer.isDirty()) {
+            // replayed with them
+            pendingRemoteStrokes.clear();
+            return;
+        }
+        int width = state.currentScreenBitMap.getWidth();
+        int height = state.currentScreenBitMap.getHeight();
+        Rect dirty = new Rect();
+        for (StrokeRecord stroke : pendingRemoteStrokes) {
+            if (layer.getConfig() == Bitmap.Config.ALPHA_8
+                    ? foldInk(layer.getStorageColor(), stroke) != layer.getStorageColor()
+                    : layer.getConfig() == Bitmap.Config.RGB_565 && stroke.isEraser()) {
+                // replayed on this frame, in a storage which takes it
+                layer.invalidate();
                 break;
-            case MotionEvent.ACTION_MOVE:
-                if (event.getPointerCount() == 1) {
-                    this.onActionMove(event);
+            }
+            RectF bounds = new RectF(stroke.getBounds());
+            bounds.inset(-1F, -1F);
+            bounds.roundOut(dirty);
+            // the tiles kept for undo there would take the stroke out again
+            for (int i = 0; i < state.layerLists.size(); i++) {
+                if (state.layerLists.get(i) == layer && Rect.intersects(getEntryBounds(i), dirty)) {
+                    state.tileUndoStore.remove(getEntryKey(i));
                 }
-                break;
-            case MotionEvent.ACTION_UP:
-                this.onActionUp(event);
-                break;
+            }
+            stroke.draw(layer.getCanvas(width, height), state.dabCache);
+            compositeLayers(dirty);
+        }
+        pendingRemoteStrokes.clear();
+    }
 
-            default:
-                break;
+    /**
+     * put an entry of the history back into the log, on a redo
+     *
+     * @param index
+     */
+    private void shareEntry(int index) {
+        if (state.opLog == null) {
+            return;
+        }
+        StrokeTransform transform = state.transformLists.get(index);
+        if (transform != null) {
+            state.opLog.transform(transform);
+        } else if (state.strokeLists.get(index) != null) {
+            state.opLog.add(state.strokeLists.get(index));
         }
+    }
 
-        // Re draw
-        //this.invalidate();
-        return true;
+    /**
+     * cancel the op of an entry of the history, on an undo
+     *
+     * @param index
+     */
+    private void unshareEntry(int index) {
+        if (state.opLog == null) {
+            return;
+        }
+        StrokeTransform transform = state.transformLists.get(index);
+        state.opLog.undo(transform != null ? transform : state.strokeLists.get(index));
     }
 
     /**
@@ -876,7 +2692,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public Drawer getDrawer() {
-        return this.drawer;
+        return this.getBrushSpec().getDrawer();
     }
 
     /**
@@ -885,7 +2701,55 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param drawer
      */
     public void setDrawer(Drawer drawer) {
-        this.drawer = drawer;
+        this.setBrushSpec(this.getBrushSpec().withDrawer(drawer));
+    }
+
+    /**
+     * This method is getter for the brush settings,
+     * including a change which is not published yet.
+     *
+     * @return
+     */
+    public BrushSpec getBrushSpec() {
+        BrushSpec pending = this.pendingBrushSpec.get();
+        return (pending == null) ? this.brushSpec.get() : pending;
+    }
+
+    /**
+     * This method is setter for all the brush settings.
+     * Changes are coalesced and published once per frame,
+     * a stroke keeps the settings it started with.
+     *
+     * @param spec
+     */
+    public void setBrushSpec(BrushSpec spec) {
+        if (this.pendingBrushSpec.getAndSet(spec) == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                this.postOnAnimation(this.publishBrushSpec);
+            } else {
+                this.post(this.publishBrushSpec);
+            }
+        }
+    }
+
+    /**
+     * copy the published brush settings for the stroke which starts
+     */
+    private void sampleBrushSpec() {
+        BrushSpec spec = this.brushSpec.get();
+        this.drawer = spec.getDrawer();
+        this.paintStrokeColor = spec.getColor();
+        this.paintStrokeWidth = spec.getWidth();
+        this.opacity = spec.getOpacity();
+        this.blur = spec.getBlur();
+        this.lineCap = spec.getCap();
+
+        // the text being edited takes the brush here, not on every composite
+        if (this.mode == Mode.TEXT && this.currentText != null) {
+            synchronized (surfaceHolder) {
+                this.currentText.setPaint(this.createPaint());
+            }
+        }
     }
 
     /**
@@ -894,9 +2758,12 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return If Undo is enabled, this is returned as true. Otherwise, this is returned as false.
      */
     public boolean undo() {
-        if (this.historyPointer > 1) {
-            this.historyPointer--;
-            requestRedrawBackground();
+        // a moved selection is undone as a whole
+        commitSelection();
+        if (state.historyPointer > 1) {
+            unshareEntry(state.historyPointer - 1);
+            state.historyPointer--;
+            requestRestoreTiles(state.historyPointer, true);
             return true;
         } else {
             return false;
@@ -909,8 +2776,11 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return If Redo is enabled, this is returned as true. Otherwise, this is returned as false.
      */
     public boolean redo() {
-        if (this.historyPointer < this.pathLists.size()) {
-            this.historyPointer++;
+        commitSelection();
+        if (state.historyPointer < state.pathLists.size()) {
+            state.historyPointer++;
+            shareEntry(state.historyPointer - 1);
+            requestRestoreTiles(state.historyPointer - 1, false);
             return true;
         } else {
             return false;
@@ -923,6 +2793,8 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public void clear() {
+        commitSelection();
+
         Path path = new Path();
         path.moveTo(0F, 0F);
         path.addRect(0F, 0F, 1000F, 1000F, Path.Direction.CCW);
@@ -932,23 +2804,44 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         paint.setColor(Color.WHITE);
         paint.setStyle(Paint.Style.FILL);
 
-        if (this.historyPointer == this.pathLists.size()) {
-            this.pathLists.add(path);
-            this.paintLists.add(paint);
-            this.historyPointer++;
+        StrokeRecord stroke = new StrokeRecord(StrokeRecord.nextId(), Drawer.RECTANGLE, false,
+                Paint.Style.FILL, Color.WHITE, 0F, 255, 0F, new float[]{0F, 0F, 1000F, 1000F}, null);
+
+        if (state.historyPointer == state.pathLists.size()) {
+            state.pathLists.add(path);
+            state.paintLists.add(paint);
+            state.strokeLists.add(stroke);
+            state.transformLists.add(null);
+            state.layerLists.add(state.layerStack.getActiveLayer());
+            state.historyPointer++;
+            if (state.isStrokeIndexValid) {
+                state.strokeIndex.add(stroke);
+            }
         } else {
             // On the way of Undo or Redo
-            this.pathLists.set(this.historyPointer, path);
-            this.paintLists.set(this.historyPointer, paint);
-            this.historyPointer++;
-
-            for (int i = this.historyPointer, size = this.paintLists.size(); i < size; i++) {
-                this.pathLists.remove(this.historyPointer);
-                this.paintLists.remove(this.historyPointer);
+            state.pathLists.set(state.historyPointer, path);
+            state.paintLists.set(state.historyPointer, paint);
+            state.strokeLists.set(state.historyPointer, stroke);
+            state.transformLists.set(state.historyPointer, null);
+            state.layerLists.set(state.historyPointer, state.layerStack.getActiveLayer());
+            state.historyPointer++;
+
+            for (int i = state.historyPointer, size = state.paintLists.size(); i < size; i++) {
+                state.pathLists.remove(state.historyPointer);
+                state.paintLists.remove(state.historyPointer);
+                state.strokeLists.remove(state.historyPointer);
+                state.transformLists.remove(state.historyPointer);
+                state.layerLists.remove(state.historyPointer);
             }
+            state.isStrokeIndexValid = false;
+        }
+        releasePath(state.historyPointer - 1);
+        if (state.opLog != null) {
+            state.opLog.add(stroke);
         }
 
-        this.text = "";
+        state.textItems.clear();
+        this.currentText = null;
     }
 
     /**
@@ -957,7 +2850,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public int getBaseColor() {
-        return this.baseColor;
+        return state.baseColor;
     }
 
     /**
@@ -966,25 +2859,69 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param color
      */
     public void setBaseColor(int color) {
-        this.baseColor = color;
+        synchronized (surfaceHolder) {
+            // the old color is under the image in the baked copy
+            dropBakedSources();
+        }
+        state.baseColor = color;
+        Layer bottom = state.layerStack.getLayer(0);
+        if (bottom.getConfig() == Bitmap.Config.RGB_565) {
+            // the base color is filled into its raster
+            requestRedrawLayer(bottom);
+        } else {
+            requestComposite();
+        }
     }
 
     /**
-     * This method is getter for drawn text.
+     * This method is getter for the text being edited.
      *
      * @return
      */
     public String getText() {
-        return this.text;
+        return (this.currentText == null) ? "" : this.currentText.getText();
     }
 
     /**
-     * This method is setter for drawn text.
+     * This method is setter for the text being edited.
+     * A new text item is started if there is none.
      *
      * @param text
      */
     public void setText(String text) {
-        this.text = text;
+        // the draw thread lays the text out and draws its lines
+        synchronized (surfaceHolder) {
+            if (!this.isDown) {
+                this.sampleBrushSpec();
+            }
+            if (this.currentText == null) {
+                this.currentText = new TextItem(text, this.startX, this.startY, this.createPaint());
+                state.textItems.add(this.currentText);
+            } else {
+                this.currentText.setText(text);
+            }
+        }
+        // the text is drawn over the layers, none of them changed
+        requestComposite();
+    }
+
+    /**
+     * This method finishes the text being edited,
+     * the next call of setText starts another text item.
+     */
+    public void commitText() {
+        synchronized (surfaceHolder) {
+            this.currentText = null;
+        }
+    }
+
+    /**
+     * This method is getter for all the text items.
+     *
+     * @return
+     */
+    public List<TextItem> getTextItems() {
+        return state.textItems;
     }
 
     /**
@@ -1011,7 +2948,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public int getPaintStrokeColor() {
-        return this.paintStrokeColor;
+        return this.getBrushSpec().getColor();
     }
 
     /**
@@ -1020,7 +2957,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param color
      */
     public void setPaintStrokeColor(int color) {
-        this.paintStrokeColor = color;
+        this.setBrushSpec(this.getBrushSpec().withColor(color));
     }
 
     /**
@@ -1049,7 +2986,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public float getPaintStrokeWidth() {
-        return this.paintStrokeWidth;
+        return this.getBrushSpec().getWidth();
     }
 
     /**
@@ -1058,11 +2995,10 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param width
      */
     public void setPaintStrokeWidth(float width) {
-        if (width >= 0) {
-            this.paintStrokeWidth = width;
-        } else {
-            this.paintStrokeWidth = 3F;
+        if (width < 0) {
+            width = 3F;
         }
+        this.setBrushSpec(this.getBrushSpec().withWidth(width));
     }
 
     /**
@@ -1071,7 +3007,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public int getOpacity() {
-        return this.opacity;
+        return this.getBrushSpec().getOpacity();
     }
 
     /**
@@ -1081,11 +3017,10 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param opacity
      */
     public void setOpacity(int opacity) {
-        if ((opacity >= 0) && (opacity <= 255)) {
-            this.opacity = opacity;
-        } else {
-            this.opacity = 255;
+        if ((opacity < 0) || (opacity > 255)) {
+            opacity = 255;
         }
+        this.setBrushSpec(this.getBrushSpec().withOpacity(opacity));
     }
 
     /**
@@ -1094,7 +3029,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public float getBlur() {
-        return this.blur;
+        return this.getBrushSpec().getBlur();
     }
 
     /**
@@ -1104,11 +3039,10 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param blur
      */
     public void setBlur(float blur) {
-        if (blur >= 0) {
-            this.blur = blur;
-        } else {
-            this.blur = 0F;
+        if (blur < 0) {
+            blur = 0F;
         }
+        this.setBrushSpec(this.getBrushSpec().withBlur(blur));
     }
 
     /**
@@ -1117,7 +3051,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return
      */
     public Paint.Cap getLineCap() {
-        return this.lineCap;
+        return this.getBrushSpec().getCap();
     }
 
     /**
@@ -1126,7 +3060,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param cap
      */
     public void setLineCap(Paint.Cap cap) {
-        this.lineCap = cap;
+        this.setBrushSpec(this.getBrushSpec().withCap(cap));
     }
 
     /**
@@ -1150,6 +3084,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         } else {
             this.fontSize = 32F;
         }
+        this.updateTextPaint();
     }
 
     /**
@@ -1168,6 +3103,20 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      */
     public void setFontFamily(Typeface face) {
         this.fontFamily = face;
+        this.updateTextPaint();
+    }
+
+    /**
+     * give the text being edited the current font, its lines are broken again on the next composite
+     */
+    private void updateTextPaint() {
+        synchronized (surfaceHolder) {
+            if (this.mode == Mode.TEXT && this.currentText != null) {
+                this.currentText.setPaint(this.createPaint());
+            }
+        }
+        // the text is drawn over the layers, none of them changed
+        requestComposite();
     }
 
     /**
@@ -1176,7 +3125,7 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @return This is returned as bitmap.
      */
     public Bitmap getBitmap() {
-        return currentScreenBitMap;
+        return state.currentScreenBitMap;
     }
 
 
@@ -1186,17 +3135,434 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
      * @param bitmap
      */
     public void drawBitmap(Bitmap bitmap) {
-        this.bitmap = bitmap;
-        requestRedrawBackground();
+        synchronized (surfaceHolder) {
+            dropBakedSources();
+            cancelImport();
+            state.importFile = null;
+            state.importBytes = null;
+            state.bitmap = bitmap;
+        }
+        requestRedrawLayer(state.layerStack.getLayer(0));
     }
 
     /**
      * This method draws the designated byte array of bitmap to canvas.
+     * It is imported like a stream, see importImage.
      *
      * @param byteArray This is returned as byte array of bitmap.
      */
     public void drawBitmap(byte[] byteArray) {
-        this.drawBitmap(BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length));
+        importImage(null, null, byteArray);
+    }
+
+    /**
+     * Draw an image file to the canvas, scaled down to fit it. It is decoded
+     * in the background by regions, the part on the screen first, so a large
+     * photo is never held in memory at full size. Before the view is laid out
+     * the import starts with the first frame.
+     *
+     * @param file
+     */
+    public void importImage(File file) {
+        importImage(file, null, null);
+    }
+
+    /**
+     * Draw an image to the canvas, see importImage(File).
+     *
+     * @param stream read in the background, closed when done
+     */
+    public void importImage(InputStream stream) {
+        importImage(null, stream, null);
+    }
+
+    /**
+     * @param file   the image, or
+     * @param stream the image, or
+     * @param bytes  the image
+     */
+    private void importImage(File file, InputStream stream, byte[] bytes) {
+        synchronized (surfaceHolder) {
+            dropBakedSources();
+            cancelImport();
+            // a file or bytes can be read again, see releaseBakedSources
+            state.importFile = file;
+            state.importBytes = bytes;
+            if (!hasCanvasSize()) {
+                state.pendingImportStream = stream;
+                state.isImportPending = true;
+                return;
+            }
+        }
+        startImport(createImporter(stream));
+    }
+
+    /**
+     * start the import asked for before the canvas had a size, on the first frame
+     */
+    private void startPendingImport() {
+        if (!state.isImportPending) {
+            return;
+        }
+        InputStream stream = state.pendingImportStream;
+        state.isImportPending = false;
+        state.pendingImportStream = null;
+        startImport(createImporter(stream));
+    }
+
+    private boolean hasCanvasSize() {
+        return state.currentScreenBitMap != null || (getWidth() > 0 && getHeight() > 0);
+    }
+
+    /**
+     * @param stream the image if it is neither a file nor bytes
+     * @return an importer of the image, into a new raster
+     */
+    private ImageImporter createImporter(InputStream stream) {
+        Bitmap raster = createImportRaster();
+        if (state.importFile != null) {
+            return new ImageImporter(state.importFile, raster, getVisibleRect(), createImportListener());
+        }
+        if (state.importBytes != null) {
+            stream = new ByteArrayInputStream(state.importBytes);
+        }
+        return new ImageImporter(stream, raster, getVisibleRect(), createImportListener());
+    }
+
+    private Bitmap createImportRaster() {
+        int width;
+        int height;
+        synchronized (surfaceHolder) {
+            // the size of the canvas, the view may not have its own yet
+            width = state.currentScreenBitMap != null ? state.currentScreenBitMap.getWidth() : getWidth();
+            height = state.currentScreenBitMap != null ? state.currentScreenBitMap.getHeight() : getHeight();
+        }
+        if (width == 0 || height == 0) {
+            throw new IllegalStateException("The canvas has no size yet");
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @return the part of the canvas on the screen
+     */
+    private RectF getVisibleRect() {
+        RectF visible = new RectF(0F, 0F, getWidth(), getHeight());
+        currentMatrixInverse.mapRect(visible);
+        return visible;
+    }
+
+    private void startImport(ImageImporter importer) {
+        synchronized (surfaceHolder) {
+            cancelImport();
+            state.imageImporter = importer;
+            state.bitmap = importer.getRaster();
+        }
+        requestRedrawLayer(state.layerStack.getLayer(0));
+        runImporter(importer);
+    }
+
+    private static void runImporter(ImageImporter importer) {
+        Thread thread = new Thread(importer, "ImageImporter");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void cancelImport() {
+        if (state.imageImporter != null) {
+            state.imageImporter.cancel();
+            state.imageImporter = null;
+        }
+        state.isImportPending = false;
+        if (state.pendingImportStream != null) {
+            try {
+                state.pendingImportStream.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            state.pendingImportStream = null;
+        }
+    }
+
+    /**
+     * Replace the rasters of an opened document and of an imported image by
+     * one RGB_565 copy of them over the base color, once they are fully drawn
+     * into the bottom layer stored as RGB_565. A replay of the layer, e.g. for
+     * an eraser stroke or an undo, draws the copy and shows them at once. An
+     * image read from a stream is kept, it cannot be read again if the canvas
+     * changes size.
+     */
+    private void releaseBakedSources() {
+        Layer layer = state.layerStack.getLayer(0);
+        if (state.bakedSources != null || layer.getConfig() != Bitmap.Config.RGB_565
+                || layer.isDirty() || layer.hasDirtyRegion()) {
+            return;
+        }
+        boolean isImageDone = state.bitmap == null || (state.imageImporter != null
+                && state.imageImporter.isImported() && (state.importFile != null || state.importBytes != null));
+        boolean isDocumentDone = state.document == null || (state.documentRaster != null
+                && state.documentRestorer != null && state.documentRestorer.getRestoredTime() >= 0);
+        if (!isImageDone || !isDocumentDone || (state.bitmap == null && state.documentRaster == null)) {
+            return;
+        }
+        Bitmap raster = layer.getRaster(state.currentScreenBitMap.getWidth(), state.currentScreenBitMap.getHeight());
+        state.bakedSources = Bitmap.createBitmap(raster.getWidth(), raster.getHeight(), Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(state.bakedSources);
+        canvas.drawColor(state.baseColor);
+        if (state.bitmap != null) {
+            canvas.drawBitmap(state.bitmap, 0F, 0F, null);
+            state.bitmap.recycle();
+            state.bitmap = null;
+            state.imageImporter = null;
+        }
+        if (state.documentRaster != null) {
+            canvas.drawBitmap(state.documentRaster, 0F, 0F, null);
+            state.documentRaster.recycle();
+            state.documentRaster = null;
+            state.documentRestorer = null;
+        }
+    }
+
+    /**
+     * go back to the rasters of the image and the document, e.g. when one of
+     * them is replaced, they are made again from the file or the bytes
+     */
+    private void dropBakedSources() {
+        if (state.bakedSources == null) {
+            return;
+        }
+        state.bakedSources.recycle();
+        state.bakedSources = null;
+        if (state.bitmap == null && (state.importFile != null || state.importBytes != null)) {
+            state.isImportPending = true;
+        }
+        requestRedrawLayer(state.layerStack.getLayer(0));
+    }
+
+    /**
+     * the listener of the image importer, a view which takes the importer
+     * over sets its own, see setCanvasState
+     *
+     * @return
+     */
+    private ImageImporter.OnImportListener createImportListener() {
+        final Layer background = state.layerStack.getLayer(0);
+        return new ImageImporter.OnImportListener() {
+            @Override
+            public void onTileImported(Rect tile) {
+                // only the tile is drawn again, by the draw thread
+                background.invalidate(tile);
+            }
+
+            @Override
+            public void onImported(long elapsedMs) {
+                Log.d("Import:", "imported in " + elapsedMs + "ms");
+            }
+
+            @Override
+            public void onImportFailed(IOException e) {
+                // the raster stays transparent
+                Log.e("Import:", "failed, " + e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Save the strokes as a chunked document: the strokes of an opened
+     * document first, then the history up to the current undo position.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void saveDocument(File file) throws IOException {
+        createDocumentSaver(file).save();
+    }
+
+    /**
+     * Save the document on another thread. The strokes and the screen are
+     * taken on the calling thread, only the writing is done in the background.
+     *
+     * @param file
+     */
+    public void saveDocumentInBackground(File file) {
+        Thread thread = new Thread(createDocumentSaver(file), "DocumentSaver");
+        thread.start();
+    }
+
+    /**
+     * take the strokes to save and a copy of the screen for the preview
+     *
+     * @param file
+     * @return
+     */
+    private DocumentSaver createDocumentSaver(File file) {
+        // a moved stroke is saved where it was moved to, the lifted
+        // strokes may be about to become a transform
+        commitSelection();
+        Set<StrokeRecord> hidden = getHiddenStrokes();
+        List<StrokeRecord> strokes = new ArrayList<StrokeRecord>();
+        for (StrokeRecord stroke : state.overflowStrokes) {
+            if (!hidden.contains(stroke)) {
+                strokes.add(stroke);
+            }
+        }
+        for (int i = 0; i < state.historyPointer; i++) {
+            for (StrokeRecord stroke : getEntryStrokes(i)) {
+                if (!hidden.contains(stroke)) {
+                    strokes.add(stroke);
+                }
+            }
+        }
+
+        Bitmap screen = null;
+        synchronized (surfaceHolder) {
+            if (state.currentScreenBitMap != null) {
+                screen = state.currentScreenBitMap.copy(Bitmap.Config.ARGB_8888, false);
+            }
+        }
+        return new DocumentSaver(file, state.document, strokes, screen);
+    }
+
+    /**
+     * Open a chunked document and draw it under the history. The file is only
+     * mapped; the preview saved with it is shown on the next frame, and the
+     * strokes are rasterized in the background, the ones on the screen first.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void openDocument(File file) throws IOException {
+        state.documentOpenTime = SystemClock.uptimeMillis();
+        ChunkedStrokeFile opened = ChunkedStrokeFile.open(file);
+        Bitmap preview = DocumentRestorer.readPreview(file);
+        synchronized (surfaceHolder) {
+            if (state.documentRestorer != null) {
+                state.documentRestorer.cancel();
+                state.documentRestorer = null;
+            }
+            if (state.document != null) {
+                state.document.close();
+            }
+            dropBakedSources();
+            state.document = opened;
+            state.documentPreview = preview;
+            state.documentRaster = null;
+            this.isDocumentShown = false;
+            this.timeToFirstFrame = -1;
+            state.timeToFullyLoaded = -1;
+        }
+        requestRedrawLayer(state.layerStack.getLayer(0));
+    }
+
+    /**
+     * Hand the drawing engine over, e.g. to keep it across a configuration change.
+     * The view must not be used to draw afterwards.
+     *
+     * @return
+     */
+    public CanvasState getCanvasState() {
+        commitSelection();
+        if (state.opLog != null) {
+            state.opLog.removeOnOpListener(opListener);
+        }
+        synchronized (surfaceHolder) {
+            // the rasters have to match the history
+            applyPendingRestores();
+            commitPendingStrokes();
+            commitRemoteStrokes();
+
+            state.mode = this.mode;
+            state.brushSpec = this.getBrushSpec();
+        }
+        return state;
+    }
+
+    /**
+     * Take over the drawing engine of another view. The screen bitmap is
+     * presented as it is on the next frame, only the layers whose rasters
+     * were never built are drawn, unless this view has another size, see
+     * resizeCanvas.
+     *
+     * @param state
+     */
+    public void setCanvasState(CanvasState state) {
+        synchronized (surfaceHolder) {
+            this.state = state;
+            this.selection.clear();
+            this.currentText = null;
+
+            if (state.imageImporter != null) {
+                state.imageImporter.setOnImportListener(createImportListener());
+            }
+            if (state.documentRestorer != null) {
+                // the listener of the old view would keep it, and miss the end of the restore
+                state.documentRestorer.setOnRestoreListener(createRestoreListener());
+                long restoredTime = state.documentRestorer.getRestoredTime();
+                if (restoredTime >= 0 && state.timeToFullyLoaded < 0) {
+                    state.timeToFullyLoaded = restoredTime - state.documentOpenTime;
+                }
+            }
+
+            this.mode = state.mode;
+            this.brushSpec.set(state.brushSpec);
+            this.pendingBrushSpec.set(null);
+            this.sampleBrushSpec();
+            state.currentMatrix.invert(this.currentMatrixInverse);
+
+            this.isRedrawBackground = false;
+            this.pendingCommitKeys.clear();
+            this.pendingCommitOverlays.clear();
+            this.pendingCommitGenerations.clear();
+            this.pendingRemoteStrokes.clear();
+        }
+        // the strokes are the same, nothing is drawn again
+        OpLog log = state.opLog;
+        state.opLog = null;
+        setOpLog(log);
+    }
+
+    /**
+     * Give the canvas the size of the view, e.g. when a view of another size has
+     * taken the engine over after a rotation. The screen bitmap is allocated
+     * again and the layers are replayed into rasters of the new size, so ink
+     * drawn where the old canvas did not reach is kept. The overflow bitmaps
+     * only grow, and an imported image is imported again. The tiles kept for
+     * undo are dropped, an undo replays the layer instead.
+     */
+    private void resizeCanvas() {
+        int width = getWidth();
+        int height = getHeight();
+        state.currentScreenBitMap.recycle();
+        state.currentScreenBitMap = null;
+        for (int i = 0; i < state.layerStack.size(); i++) {
+            Layer layer = state.layerStack.getLayer(i);
+            layer.growOverflow(width, height);
+            layer.invalidate();
+        }
+        for (int i = 0; i < state.historyPointer; i++) {
+            state.tileUndoStore.remove(getEntryKey(i));
+        }
+        if (state.imageImporter != null && (state.importFile != null || state.importBytes != null)) {
+            state.isImportPending = true;
+        }
+        // the image and the document are made again at the new size
+        dropBakedSources();
+        isRedrawBackground = true;
+    }
+
+    /**
+     * @return the time from opening the document to the first frame showing it, -1 until then
+     */
+    public long getTimeToFirstFrame() {
+        return this.timeToFirstFrame;
+    }
+
+    /**
+     * @return the time from opening the document to all of its strokes being rasterized,
+     * -1 until then
+     */
+    public long getTimeToFullyLoaded() {
+        return state.timeToFullyLoaded;
     }
 
     /**
@@ -1239,12 +3605,25 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
                 }
                 synchronized (surfaceHolder) {
                     if (canvas != null) {
+                        LatencyTracer.beginSection(LatencyTracer.SECTION_RASTER);
                         drawFullScreen(canvas);
+                        LatencyTracer.endSection();
+                    }
+                    TileMirror mirror = tileMirror;
+                    if (mirror != null) {
+                        mirror.capture(state.currentScreenBitMap);
                     }
                 }
             } finally {
                 if (canvas != null) {
+                    LatencyTracer.beginSection(LatencyTracer.SECTION_PRESENT);
                     surfaceHolder.unlockCanvasAndPost(canvas);
+                    LatencyTracer.endSection();
+                    latencyTracer.onFramePresented(frameEventTime);
+                    if (isDocumentShown && timeToFirstFrame < 0) {
+                        timeToFirstFrame = SystemClock.uptimeMillis() - state.documentOpenTime;
+                        Log.d("Restore:", "first frame in " + timeToFirstFrame + "ms");
+                    }
                 }
             }
         }
@@ -1281,16 +3660,21 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
     }
 
 
-    // Enumeration for Drawer
+    // Enumeration for Drawer, the ordinals are stored in documents, append new drawers at the end
     public enum Drawer {
         PEN,
         SMOOTH_PEN, // use cubic_bezier line
+        VARIABLE_PEN, // width follows pressure and velocity, filled outline
         LINE,
         RECTANGLE,
         CIRCLE,
         ELLIPSE,
         QUADRATIC_BEZIER,
-        QUBIC_BEZIER
+        QUBIC_BEZIER,
+        BUCKET, // flood fill with paintFillColor
+        SOFT_BRUSH, // stamps of a soft round dab
+        TEXTURED_BRUSH, // stamps of a grainy dab
+        LASSO // select strokes to move and scale them, never stored
     }
 
     private static class RenderRect {
@@ -1341,10 +3725,10 @@ public class SurfaceCanvasView extends SurfaceView implements Runnable {
         public boolean onScale(ScaleGestureDetector detector) {
             //Log.d("Scale0", "" + mScaleFactor + " " + detector.getScaleFactor());
 
-            mScaleFactor *= detector.getScaleFactor();
+            state.scaleFactor *= detector.getScaleFactor();
 
             // Don't let the object get too small or too large.
-            mScaleFactor = Math.max(0.1f, Math.min(mScaleFactor, 20.0f));
+            state.scaleFactor = Math.max(0.1f, Math.min(state.scaleFactor, 20.0f));
 
             applyCurrentTranslationScale();
             return true;
@@ -0,0 +1,326 @@
+package com.yang.drawpad;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Shares an OpLog through a SyncRelay.
+ * <p/>
+ * The ops made on this site are queued and sent in batches, one frame per
+ * batch, so only new ink goes over the socket. At most MAX_IN_FLIGHT frames
+ * wait for their acknowledgement; while the window is full the new ops pile
+ * up into the next, larger batch instead of being written. A frame which is
+ * not acknowledged in time is sent again, and all of them are after a
+ * reconnect; the relay drops the ops it already has. The ops from the relay
+ * are merged into the log, and on a reconnect the relay sends the ones
+ * missed meanwhile.
+ */
+public class SyncClient implements OpLog.OnOpListener {
+    private static final String TAG = "SyncClient";
+
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_BATCH_SIZE = 64 * 1024;   // byte
+    private static final long RETRANSMIT_MS = 3000;
+    private static final long RECONNECT_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private static class Batch {
+        final int seq;
+        final long[] ids;
+        final byte[][] ops;
+        long sentAt;
+
+        Batch(int seq, long[] ids, byte[][] ops) {
+            this.seq = seq;
+            this.ids = ids;
+            this.ops = ops;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final OpLog log;
+
+    // guarded by this
+    private final List<StrokeOp> pending = new ArrayList<StrokeOp>();
+    private final LinkedHashMap<Integer, Batch> inFlight = new LinkedHashMap<Integer, Batch>();
+    private int nextSeq = 1;
+    // how many ops of the relay have been merged
+    private int received = 0;
+    private Socket socket = null;
+    private boolean isRunning = false;
+    private Thread thread = null;
+
+    /**
+     * @param host of the relay
+     * @param port
+     * @param log  its ops made from now on are sent
+     */
+    public SyncClient(String host, int port, OpLog log) {
+        this.host = host;
+        this.port = port;
+        this.log = log;
+    }
+
+    /**
+     * connect, and keep reconnecting until stop
+     */
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        log.addOnOpListener(this);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runConnections();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * disconnect, the ops not sent yet are kept for the next start
+     */
+    public void stop() {
+        Thread stopped;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            log.removeOnOpListener(this);
+            closeSocket();
+            notifyAll();
+            stopped = thread;
+            thread = null;
+        }
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void onLocalOp(StrokeOp op) {
+        pending.add(op);
+        notifyAll();
+    }
+
+    @Override
+    public void onRemoteChange() {
+    }
+
+    /**
+     * @return the ops not acknowledged by the relay yet
+     */
+    public synchronized int getUnacknowledgedCount() {
+        int count = pending.size();
+        for (Batch batch : inFlight.values()) {
+            count += batch.ids.length;
+        }
+        return count;
+    }
+
+    private void runConnections() {
+        while (isRunning()) {
+            try {
+                Socket s = new Socket();
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                synchronized (this) {
+                    if (!isRunning) {
+                        s.close();
+                        return;
+                    }
+                    socket = s;
+                }
+                runConnection(s);
+            } catch (IOException e) {
+                Log.w(TAG, "Disconnected from " + host + ":" + port + ", " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    closeSocket();
+                }
+            }
+
+            synchronized (this) {
+                if (isRunning) {
+                    try {
+                        wait(RECONNECT_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void runConnection(final Socket s) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+        int resumed;
+        List<Batch> resent;
+        synchronized (this) {
+            resumed = received;
+            resent = new ArrayList<Batch>(inFlight.values());
+        }
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        onFrame(SyncFrames.read(in));
+                    }
+                } catch (IOException e) {
+                    synchronized (SyncClient.this) {
+                        if (socket == s) {
+                            closeSocket();
+                        }
+                        SyncClient.this.notifyAll();
+                    }
+                }
+            }
+        }, TAG + " reader");
+        reader.start();
+
+        try {
+            SyncFrames.writeHello(out, resumed);
+            for (Batch batch : resent) {
+                send(out, batch);
+            }
+            while (true) {
+                Batch batch = nextBatch(s);
+                if (batch == null) {
+                    return;
+                }
+                send(out, batch);
+            }
+        } finally {
+            // the reader stops when the socket is closed
+            synchronized (this) {
+                if (socket == s) {
+                    closeSocket();
+                }
+            }
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * wait for a batch to send: a new one if the window has room, or one
+     * to send again
+     *
+     * @param s the current socket
+     * @return null when the socket is closed
+     */
+    private synchronized Batch nextBatch(Socket s) {
+        while (isRunning && socket == s) {
+            long now = System.currentTimeMillis();
+            long wait = RETRANSMIT_MS;
+            for (Batch batch : inFlight.values()) {
+                if (now - batch.sentAt >= RETRANSMIT_MS) {
+                    return batch;
+                }
+                wait = Math.min(wait, batch.sentAt + RETRANSMIT_MS - now);
+            }
+
+            if (!pending.isEmpty() && inFlight.size() < MAX_IN_FLIGHT) {
+                return takeBatch();
+            }
+
+            try {
+                wait(Math.max(1, wait));
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * move the oldest pending ops into a new batch
+     */
+    private Batch takeBatch() {
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        int size = 0;
+        int count = 0;
+        while (count < pending.size() && (count == 0 || size < MAX_BATCH_SIZE)) {
+            byte[] bytes = pending.get(count).encode();
+            encoded.add(bytes);
+            size += bytes.length;
+            count++;
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = pending.get(i).getId();
+        }
+        pending.subList(0, count).clear();
+
+        Batch batch = new Batch(nextSeq++, ids, encoded.toArray(new byte[count][]));
+        inFlight.put(batch.seq, batch);
+        return batch;
+    }
+
+    private void send(DataOutputStream out, Batch batch) throws IOException {
+        synchronized (this) {
+            batch.sentAt = System.currentTimeMillis();
+        }
+        SyncFrames.writeOps(out, batch.seq, batch.ids, batch.ops, 0, batch.ids.length);
+    }
+
+    private void onFrame(SyncFrames.Frame frame) throws IOException {
+        if (frame.type == SyncFrames.ACK) {
+            synchronized (this) {
+                inFlight.remove(frame.seq);
+                // the window has room again
+                notifyAll();
+            }
+        } else if (frame.type == SyncFrames.OPS) {
+            List<StrokeOp> ops = new ArrayList<StrokeOp>();
+            for (int i = 0; i < frame.ids.length; i++) {
+                StrokeOp op = StrokeOp.decode(frame.ids[i], frame.ops[i]);
+                if (op != null) {
+                    ops.add(op);
+                }
+            }
+            log.merge(ops);
+            synchronized (this) {
+                received = frame.seq;
+            }
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            socket = null;
+        }
+    }
+}
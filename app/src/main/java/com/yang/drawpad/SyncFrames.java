@@ -0,0 +1,132 @@
+package com.yang.drawpad;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The frames of the sync protocol between a SyncClient and the SyncRelay.
+ * <p/>
+ * A frame is its length, a type and a sequence number, then the body:
+ * <ul>
+ * <li>HELLO, client to relay: the sequence number is how many ops of the relay
+ * the client already has, the relay sends the ones after them</li>
+ * <li>OPS, both ways: a count, then each op as its id, its size and its bytes.
+ * From a client the sequence number is acknowledged by the relay; from the
+ * relay it is how many ops of the relay the client has after this frame</li>
+ * <li>ACK, relay to client: the OPS frame with that sequence number has arrived</li>
+ * </ul>
+ * The relay only reads the ids of the ops, so it does not depend on Android.
+ */
+public class SyncFrames {
+    public static final int HELLO = 1;
+    public static final int OPS = 2;
+    public static final int ACK = 3;
+
+    // a larger frame is a broken stream
+    public static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    public static class Frame {
+        public final int type;
+        public final int seq;
+        public final long[] ids;
+        public final byte[][] ops;
+
+        public Frame(int type, int seq, long[] ids, byte[][] ops) {
+            this.type = type;
+            this.seq = seq;
+            this.ids = ids;
+            this.ops = ops;
+        }
+    }
+
+    private SyncFrames() {
+    }
+
+    public static void writeHello(DataOutputStream out, int received) throws IOException {
+        out.writeInt(5);
+        out.writeByte(HELLO);
+        out.writeInt(received);
+        out.flush();
+    }
+
+    public static void writeAck(DataOutputStream out, int seq) throws IOException {
+        out.writeInt(5);
+        out.writeByte(ACK);
+        out.writeInt(seq);
+        out.flush();
+    }
+
+    /**
+     * @param out
+     * @param seq
+     * @param ids  of the ops
+     * @param ops  the encoded ops
+     * @param from the first op of the frame
+     * @param to   after the last op of the frame
+     * @throws IOException
+     */
+    public static void writeOps(DataOutputStream out, int seq, long[] ids, byte[][] ops, int from, int to)
+            throws IOException {
+        out.writeInt(getOpsFrameSize(ops, from, to) - 4);
+        out.writeByte(OPS);
+        out.writeInt(seq);
+        out.writeInt(to - from);
+        for (int i = from; i < to; i++) {
+            out.writeLong(ids[i]);
+            out.writeInt(ops[i].length);
+            out.write(ops[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the number of bytes writeOps writes
+     */
+    public static int getOpsFrameSize(byte[][] ops, int from, int to) {
+        int size = 4 + 1 + 4 + 4;
+        for (int i = from; i < to; i++) {
+            size += 8 + 4 + ops[i].length;
+        }
+        return size;
+    }
+
+    /**
+     * read the next frame, blocking
+     *
+     * @param in
+     * @return
+     * @throws IOException if the stream ends or is broken
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 5 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Bad frame length " + length);
+        }
+        int type = in.readByte();
+        int seq = in.readInt();
+        if (type != OPS) {
+            if (length != 5) {
+                throw new IOException("Bad frame length " + length);
+            }
+            return new Frame(type, seq, null, null);
+        }
+
+        int count = in.readInt();
+        if (count < 0 || count > length / 12) {
+            throw new IOException("Bad op count " + count);
+        }
+        long[] ids = new long[count];
+        byte[][] ops = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            ids[i] = in.readLong();
+            int size = in.readInt();
+            if (size < 0 || size > length) {
+                throw new IOException("Bad op size " + size);
+            }
+            ops[i] = new byte[size];
+            in.readFully(ops[i]);
+        }
+        return new Frame(type, seq, ids, ops);
+    }
+}
@@ -0,0 +1,222 @@
+package com.yang.drawpad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A relay for SyncClients, e.g. on a laptop on the same network, run as
+ * <pre>
+ * java com.yang.drawpad.SyncRelay [port]
+ * </pre>
+ * It keeps every op it got, once, in the order they arrived, and sends each
+ * client the ones it has not had yet, except its own. It only reads the ids
+ * of the ops and uses no Android class, so it runs on a plain JVM. A slow
+ * client holds up the one sending to it, which is fine for a few tablets.
+ */
+public class SyncRelay {
+    public static final int DEFAULT_PORT = 7311;
+    private static final int MAX_OPS_PER_FRAME = 256;
+
+    private class Peer implements Runnable {
+        final Socket socket;
+        final DataOutputStream out;
+        // how many ops of the relay it has, known after its HELLO, guarded by the peer
+        int sent = 0;
+        boolean isHello = false;
+
+        Peer(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    SyncFrames.Frame frame = SyncFrames.read(in);
+                    if (frame.type == SyncFrames.HELLO) {
+                        int count = getSize();
+                        synchronized (this) {
+                            // a restarted relay has fewer ops than the client had
+                            sent = Math.max(0, Math.min(frame.seq, count));
+                            isHello = true;
+                        }
+                        forward(this);
+                    } else if (frame.type == SyncFrames.OPS) {
+                        boolean isNew = append(this, frame.ids, frame.ops);
+                        synchronized (this) {
+                            SyncFrames.writeAck(out, frame.seq);
+                        }
+                        if (isNew) {
+                            forwardAll();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Disconnected " + socket.getRemoteSocketAddress() + ", " + e.getMessage());
+            } finally {
+                remove(this);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    private final ServerSocket server;
+    private final List<Peer> peers = new ArrayList<Peer>();
+
+    // every op, guarded by this
+    private final Set<Long> known = new HashSet<Long>();
+    private long[] ids = new long[1024];
+    private byte[][] ops = new byte[1024][];
+    private Peer[] origins = new Peer[1024];
+    private int size = 0;
+
+    public SyncRelay(int port) throws IOException {
+        server = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * accept clients until the relay is closed
+     */
+    public void run() {
+        System.out.println("Relaying on port " + getPort());
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Peer peer = new Peer(socket);
+                synchronized (peers) {
+                    peers.add(peer);
+                }
+                System.out.println("Connected " + socket.getRemoteSocketAddress());
+                new Thread(peer, "SyncRelay " + socket.getRemoteSocketAddress()).start();
+            }
+        } catch (IOException e) {
+            System.out.println("Stopped, " + e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        synchronized (peers) {
+            for (Peer peer : peers) {
+                peer.socket.close();
+            }
+        }
+    }
+
+    /**
+     * @return whether any of the ops was new
+     */
+    private synchronized boolean append(Peer origin, long[] newIds, byte[][] newOps) {
+        boolean isNew = false;
+        for (int i = 0; i < newIds.length; i++) {
+            if (!known.add(newIds[i])) {
+                // sent again by a client which missed the acknowledgement
+                continue;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                ops = Arrays.copyOf(ops, size * 2);
+                origins = Arrays.copyOf(origins, size * 2);
+            }
+            ids[size] = newIds[i];
+            ops[size] = newOps[i];
+            origins[size] = origin;
+            size++;
+            isNew = true;
+        }
+        return isNew;
+    }
+
+    private void forwardAll() {
+        List<Peer> all;
+        synchronized (peers) {
+            all = new ArrayList<Peer>(peers);
+        }
+        for (Peer peer : all) {
+            try {
+                forward(peer);
+            } catch (IOException e) {
+                // its own thread sees the socket closed
+                try {
+                    peer.socket.close();
+                } catch (IOException closing) {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * send a peer the ops it has not had yet, except its own
+     */
+    private void forward(Peer peer) throws IOException {
+        long[] allIds;
+        byte[][] allOps;
+        Peer[] allOrigins;
+        int count;
+        synchronized (this) {
+            allIds = ids;
+            allOps = ops;
+            allOrigins = origins;
+            count = size;
+        }
+
+        synchronized (peer) {
+            while (peer.isHello && peer.sent < count) {
+                int to = Math.min(count, peer.sent + MAX_OPS_PER_FRAME);
+                List<Long> frameIds = new ArrayList<Long>();
+                List<byte[]> frameOps = new ArrayList<byte[]>();
+                for (int i = peer.sent; i < to; i++) {
+                    if (allOrigins[i] != peer) {
+                        frameIds.add(allIds[i]);
+                        frameOps.add(allOps[i]);
+                    }
+                }
+                long[] sentIds = new long[frameIds.size()];
+                for (int i = 0; i < sentIds.length; i++) {
+                    sentIds[i] = frameIds.get(i);
+                }
+                // the sequence number tells the client where to resume
+                SyncFrames.writeOps(peer.out, to, sentIds, frameOps.toArray(new byte[sentIds.length][]),
+                        0, sentIds.length);
+                peer.sent = to;
+            }
+        }
+    }
+
+    private synchronized int getSize() {
+        return size;
+    }
+
+    private void remove(Peer peer) {
+        synchronized (peers) {
+            peers.remove(peer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        new SyncRelay(port).run();
+    }
+}
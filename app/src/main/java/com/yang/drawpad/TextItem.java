@@ -0,0 +1,194 @@
+package com.yang.drawpad;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * A piece of text placed on the canvas, with its line breaks cached.
+ * <p/>
+ * The layout (where each line starts and ends, its width and its baseline) is
+ * computed once with Paint.breakText and kept until the text, the font or the
+ * available width changes, so redrawing the text does not measure it again and
+ * does not allocate a substring per line.
+ */
+public class TextItem {
+    private String text = "";
+    private float x = 0F;
+    private float y = 0F;
+    private final Paint paint = new Paint();
+
+    // the cached layout, valid if layoutWidth >= 0
+    private float layoutWidth = -1F;
+    private int lineCount = 0;
+    private int[] lineStarts = new int[4];
+    private int[] lineEnds = new int[4];
+    private float[] lineWidths = new float[4];
+    private float[] baselines = new float[4];
+    private final float[] measured = new float[1];
+
+    public TextItem() {
+    }
+
+    public TextItem(String text, float x, float y, Paint paint) {
+        setText(text);
+        setPosition(x, y);
+        setPaint(paint);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @param text
+     */
+    public void setText(String text) {
+        if (text == null) {
+            text = "";
+        }
+        if (!text.equals(this.text)) {
+            this.text = text;
+            invalidate();
+        }
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * the top left corner of the first line, moving does not change the line breaks
+     *
+     * @param x
+     * @param y
+     */
+    public void setPosition(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public Paint getPaint() {
+        return paint;
+    }
+
+    /**
+     * copy the paint, the layout is kept if the font did not change
+     *
+     * @param paint
+     */
+    public void setPaint(Paint paint) {
+        Typeface typeface = this.paint.getTypeface();
+        float textSize = this.paint.getTextSize();
+        this.paint.set(paint);
+        if (typeface != paint.getTypeface() || textSize != paint.getTextSize()) {
+            invalidate();
+        }
+    }
+
+    /**
+     * lay out the text in lines no wider than maxWidth, only if the cached
+     * layout was made for another width
+     *
+     * @param maxWidth
+     */
+    public void layout(float maxWidth) {
+        if (maxWidth == layoutWidth) {
+            return;
+        }
+        layoutWidth = maxWidth;
+        lineCount = 0;
+
+        float lineHeight = paint.getTextSize();
+        float baseline = 0F;
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? length : newline;
+            int count = end > start ? paint.breakText(text, start, end, true, maxWidth, measured) : 0;
+            float width = measured[0];
+            if (count == 0 && end > start) {
+                // at least one character per line
+                count = 1;
+                width = paint.measureText(text, start, start + 1);
+            } else if (end == start) {
+                width = 0F;
+            }
+
+            baseline += lineHeight;
+            addLine(start, start + count, width, baseline);
+
+            start += count;
+            if (start == newline) {
+                start++;
+            }
+        }
+    }
+
+    /**
+     * draw the cached lines
+     *
+     * @param canvas
+     */
+    public void draw(Canvas canvas) {
+        for (int i = 0; i < lineCount; i++) {
+            canvas.drawText(text, lineStarts[i], lineEnds[i], x, y + baselines[i], paint);
+        }
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    public int getLineEnd(int line) {
+        return lineEnds[line];
+    }
+
+    public float getLineWidth(int line) {
+        return lineWidths[line];
+    }
+
+    /**
+     * @param line
+     * @return the baseline of the line, relative to the position of the item
+     */
+    public float getLineBaseline(int line) {
+        return baselines[line];
+    }
+
+    private void addLine(int start, int end, float width, float baseline) {
+        if (lineCount == lineStarts.length) {
+            int capacity = lineCount * 2;
+            int[] starts = new int[capacity];
+            int[] ends = new int[capacity];
+            float[] widths = new float[capacity];
+            float[] lines = new float[capacity];
+            System.arraycopy(lineStarts, 0, starts, 0, lineCount);
+            System.arraycopy(lineEnds, 0, ends, 0, lineCount);
+            System.arraycopy(lineWidths, 0, widths, 0, lineCount);
+            System.arraycopy(baselines, 0, lines, 0, lineCount);
+            lineStarts = starts;
+            lineEnds = ends;
+            lineWidths = widths;
+            baselines = lines;
+        }
+        lineStarts[lineCount] = start;
+        lineEnds[lineCount] = end;
+        lineWidths[lineCount] = width;
+        baselines[lineCount] = baseline;
+        lineCount++;
+    }
+
+    private void invalidate() {
+        layoutWidth = -1F;
+    }
+}
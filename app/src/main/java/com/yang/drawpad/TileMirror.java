@@ -0,0 +1,442 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the canvas to TileMirrorReceivers, e.g. a projector in presenter mode.
+ * <p/>
+ * The canvas is cut into tiles. The draw thread marks the tiles which the
+ * compositing touched and, once per frame, copies only those. An encoder
+ * thread XORs each copied tile with the previous version it sent, so the
+ * pixels which did not change become zeros, run-length codes the result and
+ * deflates the frame at the fastest level. A stroke costs about its outline,
+ * not the canvas.
+ * <p/>
+ * A keyframe holds every tile as it is. One is sent to a receiver when it
+ * connects, and to every receiver each KEYFRAME_INTERVAL frames, so one that
+ * missed frames is in sync again quickly. While the encoder or the socket is
+ * busy the draw thread copies nothing, the dirty tiles add up into the next frame.
+ */
+public class TileMirror {
+    private static final String TAG = "TileMirror";
+
+    public static final int TILE_SIZE = 64;
+    public static final int KEYFRAME_INTERVAL = 120;   // frames
+
+    static final int KEYFRAME = 1;
+    static final int DELTA = 2;
+
+    private static class Capture {
+        int width;
+        int height;
+        int[] tiles;
+        int[][] pixels;
+    }
+
+    private static class Receiver {
+        final Socket socket;
+        final DataOutputStream out;
+        boolean needsKeyframe = true;
+
+        Receiver(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    private final int port;
+    private ServerSocket server = null;
+    private Thread acceptThread = null;
+    private Thread encodeThread = null;
+
+    // guarded by this
+    private boolean isRunning = false;
+    private final List<Receiver> receivers = new ArrayList<Receiver>();
+    private int width = 0;
+    private int height = 0;
+    private int columns = 0;
+    private int rows = 0;
+    private boolean[] dirty = new boolean[0];
+    private Capture captured = null;
+
+    // the encoder thread only: the tiles as last sent
+    private int[][] sent = new int[0][];
+    private int sentWidth = 0;
+    private int sentHeight = 0;
+    private int frameNumber = 0;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * @param port to listen on, 0 for any
+     */
+    public TileMirror(int port) {
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        server = new ServerSocket(port);
+        isRunning = true;
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, TAG + " accept");
+        encodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encode();
+            }
+        }, TAG + " encode");
+        acceptThread.start();
+        encodeThread.start();
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            notifyAll();
+            try {
+                server.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            for (Receiver receiver : receivers) {
+                close(receiver);
+            }
+            receivers.clear();
+        }
+        try {
+            acceptThread.join();
+            encodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getPort() {
+        return server != null ? server.getLocalPort() : port;
+    }
+
+    public synchronized int getReceiverCount() {
+        return receivers.size();
+    }
+
+    /**
+     * mark the pixels which changed, on the draw thread
+     *
+     * @param rect null for all of them
+     */
+    public synchronized void markDirty(Rect rect) {
+        if (width == 0) {
+            return;
+        }
+        if (rect == null) {
+            for (int i = 0; i < dirty.length; i++) {
+                dirty[i] = true;
+            }
+            return;
+        }
+        int left = Math.max(0, rect.left) / TILE_SIZE;
+        int top = Math.max(0, rect.top) / TILE_SIZE;
+        int right = Math.min(columns - 1, (rect.right - 1) / TILE_SIZE);
+        int bottom = Math.min(rows - 1, (rect.bottom - 1) / TILE_SIZE);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                dirty[ty * columns + tx] = true;
+            }
+        }
+    }
+
+    /**
+     * copy the dirty tiles for the encoder, on the draw thread after a frame
+     *
+     * @param screen
+     */
+    public void capture(Bitmap screen) {
+        if (screen == null) {
+            return;
+        }
+        List<Integer> tiles = new ArrayList<Integer>();
+        synchronized (this) {
+            if (captured != null || receivers.isEmpty()) {
+                // the dirty tiles wait for the next frame
+                return;
+            }
+            if (screen.getWidth() != width || screen.getHeight() != height) {
+                width = screen.getWidth();
+                height = screen.getHeight();
+                columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+                rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+                dirty = new boolean[columns * rows];
+                markDirty(null);
+            }
+            for (int i = 0; i < dirty.length; i++) {
+                if (dirty[i]) {
+                    tiles.add(i);
+                    dirty[i] = false;
+                }
+            }
+        }
+        if (tiles.isEmpty()) {
+            return;
+        }
+
+        Capture capture = new Capture();
+        capture.width = screen.getWidth();
+        capture.height = screen.getHeight();
+        capture.tiles = new int[tiles.size()];
+        capture.pixels = new int[tiles.size()][];
+        int columns = (capture.width + TILE_SIZE - 1) / TILE_SIZE;
+        for (int i = 0; i < capture.tiles.length; i++) {
+            int tile = tiles.get(i);
+            int x = (tile % columns) * TILE_SIZE;
+            int y = (tile / columns) * TILE_SIZE;
+            int w = Math.min(TILE_SIZE, capture.width - x);
+            int h = Math.min(TILE_SIZE, capture.height - y);
+            capture.tiles[i] = tile;
+            capture.pixels[i] = new int[w * h];
+            screen.getPixels(capture.pixels[i], 0, w, x, y, w, h);
+        }
+        synchronized (this) {
+            captured = capture;
+            notifyAll();
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Receiver receiver = new Receiver(socket);
+                synchronized (this) {
+                    if (!isRunning) {
+                        socket.close();
+                        return;
+                    }
+                    if (receivers.isEmpty()) {
+                        // nothing was copied without receivers
+                        markDirty(null);
+                    }
+                    receivers.add(receiver);
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void encode() {
+        while (true) {
+            Capture capture;
+            List<Receiver> targets;
+            synchronized (this) {
+                // a keyframe can only be sent once something has been captured
+                while (isRunning && captured == null && !(sentWidth > 0 && needsKeyframe())) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!isRunning) {
+                    return;
+                }
+                capture = captured;
+                captured = null;
+                targets = new ArrayList<Receiver>(receivers);
+            }
+
+            byte[] delta = null;
+            if (capture != null) {
+                delta = apply(capture);
+            }
+            if (sentWidth == 0) {
+                // nothing to show yet
+                continue;
+            }
+            frameNumber++;
+            boolean isKeyframeDue = frameNumber % KEYFRAME_INTERVAL == 0;
+            byte[] keyframe = null;
+
+            for (Receiver receiver : targets) {
+                try {
+                    if (receiver.needsKeyframe || isKeyframeDue) {
+                        if (keyframe == null) {
+                            keyframe = encodeKeyframe();
+                        }
+                        write(receiver, KEYFRAME, keyframe);
+                        receiver.needsKeyframe = false;
+                    } else if (delta != null) {
+                        write(receiver, DELTA, delta);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Receiver lost, " + e.getMessage());
+                    synchronized (this) {
+                        receivers.remove(receiver);
+                    }
+                    close(receiver);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean needsKeyframe() {
+        for (Receiver receiver : receivers) {
+            if (receiver.needsKeyframe) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * keep the captured tiles as the sent ones
+     *
+     * @return the delta frame, the captured tiles XOR the previous ones
+     */
+    private byte[] apply(Capture capture) {
+        boolean isResized = capture.width != sentWidth || capture.height != sentHeight;
+        if (isResized) {
+            int columns = (capture.width + TILE_SIZE - 1) / TILE_SIZE;
+            int rows = (capture.height + TILE_SIZE - 1) / TILE_SIZE;
+            sent = new int[columns * rows][];
+            sentWidth = capture.width;
+            sentHeight = capture.height;
+        }
+
+        List<Integer> tiles = new ArrayList<Integer>();
+        List<int[]> runs = new ArrayList<int[]>();
+        for (int i = 0; i < capture.tiles.length; i++) {
+            int tile = capture.tiles[i];
+            int[] pixels = capture.pixels[i];
+            int[] previous = sent[tile];
+            if (previous != null) {
+                boolean isChanged = false;
+                for (int p = 0; p < pixels.length; p++) {
+                    previous[p] ^= pixels[p];
+                    isChanged |= previous[p] != 0;
+                }
+                if (isChanged) {
+                    tiles.add(tile);
+                    runs.add(IntRunLengthCodec.encode(previous, 0, previous.length));
+                }
+            } else {
+                tiles.add(tile);
+                runs.add(IntRunLengthCodec.encode(pixels, 0, pixels.length));
+            }
+            sent[tile] = pixels;
+        }
+        if (isResized) {
+            // a receiver cannot apply a delta to a canvas of another size
+            synchronized (this) {
+                for (Receiver receiver : receivers) {
+                    receiver.needsKeyframe = true;
+                }
+            }
+            return null;
+        }
+        return tiles.isEmpty() ? null : deflate(tiles, runs);
+    }
+
+    private byte[] encodeKeyframe() {
+        List<Integer> tiles = new ArrayList<Integer>();
+        List<int[]> runs = new ArrayList<int[]>();
+        for (int tile = 0; tile < sent.length; tile++) {
+            if (sent[tile] != null) {
+                tiles.add(tile);
+                runs.add(IntRunLengthCodec.encode(sent[tile], 0, sent[tile].length));
+            }
+        }
+        return deflate(tiles, runs);
+    }
+
+    /**
+     * @return the tiles as {count, then per tile its index, its run count and its runs}, deflated
+     */
+    private byte[] deflate(List<Integer> tiles, List<int[]> runs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        try {
+            body.writeInt(tiles.size());
+            for (int i = 0; i < tiles.size(); i++) {
+                int[] tileRuns = runs.get(i);
+                body.writeInt(tiles.get(i));
+                body.writeInt(tileRuns.length / 2);
+                for (int run : tileRuns) {
+                    body.writeInt(run);
+                }
+            }
+            body.flush();
+        } catch (IOException e) {
+            // not thrown by a byte array
+            throw new IllegalStateException(e);
+        }
+        byte[] inflated = bytes.toByteArray();
+
+        deflater.reset();
+        deflater.setInput(inflated);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(inflated.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            deflated.write(buffer, 0, n);
+        }
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(deflated.size() + 4);
+        DataOutputStream out = new DataOutputStream(frame);
+        try {
+            out.writeInt(inflated.length);
+            deflated.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return frame.toByteArray();
+    }
+
+    /**
+     * a frame is its length, its type, its number, the size of the canvas,
+     * then the inflated size and the deflated tiles
+     */
+    private void write(Receiver receiver, int type, byte[] payload) throws IOException {
+        DataOutputStream out = receiver.out;
+        out.writeInt(1 + 4 + 4 + 4 + 4 + payload.length);
+        out.writeByte(type);
+        out.writeInt(frameNumber);
+        out.writeInt(sentWidth);
+        out.writeInt(sentHeight);
+        out.writeInt(TILE_SIZE);
+        out.write(payload);
+        out.flush();
+    }
+
+    private static void close(Receiver receiver) {
+        try {
+            receiver.socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
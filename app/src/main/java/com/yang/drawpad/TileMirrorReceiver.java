@@ -0,0 +1,219 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Shows the canvas streamed by a TileMirror, e.g. on the device driving a projector.
+ * <p/>
+ * The frames are read on a thread of the receiver, which keeps the pixels of
+ * the whole canvas: a keyframe replaces the tiles it holds, a delta is XORed
+ * into them. The deltas before the first keyframe are skipped.
+ */
+public class TileMirrorReceiver {
+    private static final String TAG = "TileMirrorReceiver";
+
+    public interface OnFrameListener {
+        /**
+         * a frame has been applied, called on the thread of the receiver
+         *
+         * @param receiver see copyTo
+         */
+        void onFrame(TileMirrorReceiver receiver);
+    }
+
+    private final String host;
+    private final int port;
+    private final OnFrameListener listener;
+    private Socket socket = null;
+    private Thread thread = null;
+
+    // guarded by this
+    private int[] pixels = new int[0];
+    private int width = 0;
+    private int height = 0;
+    private boolean hasKeyframe = false;
+
+    private final Inflater inflater = new Inflater();
+    private int[] tile = new int[0];
+
+    public TileMirrorReceiver(String host, int port, OnFrameListener listener) {
+        this.host = host;
+        this.port = port;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            closeSocket();
+        }
+        if (stopped != null) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized int getWidth() {
+        return width;
+    }
+
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param bitmap mutable, of the size of the canvas
+     * @return false if there is nothing to show yet or the sizes differ
+     */
+    public synchronized boolean copyTo(Bitmap bitmap) {
+        if (!hasKeyframe || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            return false;
+        }
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return true;
+    }
+
+    private void receive() {
+        try {
+            Socket s = new Socket(host, port);
+            synchronized (this) {
+                if (thread == null) {
+                    s.close();
+                    return;
+                }
+                socket = s;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            while (true) {
+                int length = in.readInt();
+                if (length < 21) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                int type = in.readByte();
+                in.readInt();   // the frame number
+                int frameWidth = in.readInt();
+                int frameHeight = in.readInt();
+                int tileSize = in.readInt();
+                int inflatedSize = in.readInt();
+                byte[] deflated = new byte[length - 21];
+                in.readFully(deflated);
+
+                if (apply(type, frameWidth, frameHeight, tileSize, inflate(deflated, inflatedSize))) {
+                    listener.onFrame(this);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Disconnected from " + host + ":" + port + ", " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                closeSocket();
+            }
+        }
+    }
+
+    private byte[] inflate(byte[] deflated, int size) throws IOException {
+        byte[] inflated = new byte[size];
+        inflater.reset();
+        inflater.setInput(deflated);
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int read = inflater.inflate(inflated, n, size - n);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != size) {
+                throw new IOException("Truncated frame");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad frame, " + e.getMessage());
+        }
+        return inflated;
+    }
+
+    /**
+     * @return whether the pixels changed
+     */
+    private synchronized boolean apply(int type, int frameWidth, int frameHeight, int tileSize, byte[] body) {
+        boolean isKeyframe = type == TileMirror.KEYFRAME;
+        if (!isKeyframe && (!hasKeyframe || frameWidth != width || frameHeight != height)) {
+            return false;
+        }
+        if (isKeyframe && (frameWidth != width || frameHeight != height)) {
+            width = frameWidth;
+            height = frameHeight;
+            pixels = new int[width * height];
+        }
+        if (tile.length < tileSize * tileSize) {
+            tile = new int[tileSize * tileSize];
+        }
+
+        IntBuffer ints = ByteBuffer.wrap(body).asIntBuffer();
+        int columns = (width + tileSize - 1) / tileSize;
+        int count = ints.get();
+        for (int i = 0; i < count; i++) {
+            int index = ints.get();
+            int[] runs = new int[2 * ints.get()];
+            ints.get(runs);
+            int x = (index % columns) * tileSize;
+            int y = (index / columns) * tileSize;
+            int w = Math.min(tileSize, width - x);
+            int h = Math.min(tileSize, height - y);
+            IntRunLengthCodec.decode(runs, tile, 0);
+
+            for (int row = 0; row < h; row++) {
+                int offset = (y + row) * width + x;
+                if (isKeyframe) {
+                    System.arraycopy(tile, row * w, pixels, offset, w);
+                } else {
+                    for (int col = 0; col < w; col++) {
+                        pixels[offset + col] ^= tile[row * w + col];
+                    }
+                }
+            }
+        }
+        hasKeyframe |= isKeyframe;
+        return true;
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            socket = null;
+        }
+    }
+}
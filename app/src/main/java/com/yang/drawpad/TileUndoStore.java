@@ -0,0 +1,296 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Keeps run-length compressed before- and after-images of the tiles each stroke
+ * touched when it was committed to the screen bitmap.
+ * <p/>
+ * Undoing the newest applied stroke copies its before-images back, redoing it
+ * copies the after-images, so neither needs to replay the history. The store is
+ * bounded by a byte budget; when an entry is evicted the caller falls back to a
+ * full redraw for that stroke.
+ * <p/>
+ * Entries are keyed by the identity of the stroke object. Capturing and restoring
+ * happen on the draw thread, removing may come from the UI thread.
+ */
+public class TileUndoStore {
+    public static final int TILE_SIZE = 128;
+    public static final int DEFAULT_BYTE_BUDGET = 16 * 1024 * 1024;
+
+    private final int byteBudget;
+    private int bytesUsed = 0;
+
+    // oldest first
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+    private final Map<Object, Entry> entryMap = new IdentityHashMap<Object, Entry>();
+
+    // the stroke whose before-images were captured, but not the after-images yet
+    private Entry capturing = null;
+
+    /**
+     * the pixels the tiles are read from and written to, a bitmap but in the tests
+     */
+    interface Pixels {
+        int getWidth();
+
+        int getHeight();
+
+        void read(int[] dst, int x, int y, int width, int height);
+
+        void write(int[] src, int x, int y, int width, int height);
+    }
+
+    private final int[] tilePixels = new int[TILE_SIZE * TILE_SIZE];
+    // for the bitmaps which are not ARGB_8888
+    private Bitmap scratchTile = null;
+    private final Paint copyPaint = new Paint();
+
+    public TileUndoStore() {
+        this(DEFAULT_BYTE_BUDGET);
+    }
+
+    public TileUndoStore(int byteBudget) {
+        this.byteBudget = byteBudget;
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    /**
+     * capture the tiles under dirty before the stroke is drawn
+     *
+     * @param stroke the key of the stroke
+     * @param bitmap the bitmap the stroke is about to be drawn into
+     * @param dirty  the bounds of the stroke, in bitmap pixels
+     */
+    public void captureBefore(Object stroke, Bitmap bitmap, Rect dirty) {
+        captureBefore(stroke, new BitmapPixels(bitmap), dirty.left, dirty.top, dirty.right, dirty.bottom);
+    }
+
+    synchronized void captureBefore(Object stroke, Pixels bitmap, int dirtyLeft, int dirtyTop,
+                                    int dirtyRight, int dirtyBottom) {
+        remove(stroke);
+        capturing = null;
+
+        int left = Math.max(0, dirtyLeft) / TILE_SIZE;
+        int top = Math.max(0, dirtyTop) / TILE_SIZE;
+        int right = Math.min(bitmap.getWidth(), dirtyRight);
+        int bottom = Math.min(bitmap.getHeight(), dirtyBottom);
+        if (right <= 0 || bottom <= 0 || left * TILE_SIZE >= right || top * TILE_SIZE >= bottom) {
+            return;
+        }
+        int columns = (right - 1) / TILE_SIZE - left + 1;
+        int rows = (bottom - 1) / TILE_SIZE - top + 1;
+
+        Entry entry = new Entry(stroke, columns * rows);
+        int k = 0;
+        for (int ty = top; ty < top + rows; ty++) {
+            for (int tx = left; tx < left + columns; tx++) {
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                entry.setTile(k, x, y, Math.min(x + TILE_SIZE, bitmap.getWidth()),
+                        Math.min(y + TILE_SIZE, bitmap.getHeight()));
+                entry.before[k] = readTile(bitmap, entry, k);
+                k++;
+            }
+        }
+        capturing = entry;
+    }
+
+    /**
+     * capture the same tiles after the stroke has been drawn and store the entry
+     *
+     * @param stroke the key passed to captureBefore
+     * @param bitmap
+     */
+    public void captureAfter(Object stroke, Bitmap bitmap) {
+        captureAfter(stroke, new BitmapPixels(bitmap));
+    }
+
+    synchronized void captureAfter(Object stroke, Pixels bitmap) {
+        Entry entry = capturing;
+        capturing = null;
+        if (entry == null || entry.stroke != stroke) {
+            return;
+        }
+
+        for (int k = 0; k < entry.before.length; k++) {
+            entry.after[k] = readTile(bitmap, entry, k);
+            entry.bytes += 4 * (entry.before[k].length + entry.after[k].length);
+        }
+        if (entry.bytes > byteBudget) {
+            return;
+        }
+
+        entries.addLast(entry);
+        entryMap.put(stroke, entry);
+        bytesUsed += entry.bytes;
+        while (bytesUsed > byteBudget) {
+            Entry oldest = entries.removeFirst();
+            entryMap.remove(oldest.stroke);
+            bytesUsed -= oldest.bytes;
+        }
+    }
+
+    /**
+     * restore the before-images of the stroke
+     *
+     * @param stroke
+     * @param bitmap
+     * @return false if the stroke is not in the store, the caller has to redraw
+     */
+    public boolean undo(Object stroke, Bitmap bitmap) {
+        return undo(stroke, new BitmapPixels(bitmap));
+    }
+
+    synchronized boolean undo(Object stroke, Pixels bitmap) {
+        Entry entry = entryMap.get(stroke);
+        if (entry == null) {
+            return false;
+        }
+        for (int k = 0; k < entry.before.length; k++) {
+            writeTile(bitmap, entry, k, entry.before[k]);
+        }
+        return true;
+    }
+
+    /**
+     * reapply the after-images of the stroke
+     *
+     * @param stroke
+     * @param bitmap
+     * @return false if the stroke is not in the store, the caller has to redraw
+     */
+    public boolean redo(Object stroke, Bitmap bitmap) {
+        return redo(stroke, new BitmapPixels(bitmap));
+    }
+
+    synchronized boolean redo(Object stroke, Pixels bitmap) {
+        Entry entry = entryMap.get(stroke);
+        if (entry == null) {
+            return false;
+        }
+        for (int k = 0; k < entry.after.length; k++) {
+            writeTile(bitmap, entry, k, entry.after[k]);
+        }
+        return true;
+    }
+
+    /**
+     * forget a stroke, e.g. when it leaves the history
+     *
+     * @param stroke
+     */
+    public synchronized void remove(Object stroke) {
+        Entry entry = entryMap.remove(stroke);
+        if (entry != null) {
+            entries.remove(entry);
+            bytesUsed -= entry.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        entryMap.clear();
+        bytesUsed = 0;
+        capturing = null;
+    }
+
+    public synchronized int getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private int[] readTile(Pixels bitmap, Entry entry, int k) {
+        int width = entry.getTileWidth(k);
+        int height = entry.getTileHeight(k);
+        bitmap.read(tilePixels, entry.tiles[4 * k], entry.tiles[4 * k + 1], width, height);
+        return IntRunLengthCodec.encode(tilePixels, 0, width * height);
+    }
+
+    private void writeTile(Pixels bitmap, Entry entry, int k, int[] runs) {
+        IntRunLengthCodec.decode(runs, tilePixels, 0);
+        bitmap.write(tilePixels, entry.tiles[4 * k], entry.tiles[4 * k + 1],
+                entry.getTileWidth(k), entry.getTileHeight(k));
+    }
+
+    private class BitmapPixels implements Pixels {
+        private final Bitmap bitmap;
+
+        BitmapPixels(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public int getWidth() {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public void read(int[] dst, int x, int y, int width, int height) {
+            bitmap.getPixels(dst, 0, width, x, y, width, height);
+        }
+
+        @Override
+        public void write(int[] src, int x, int y, int width, int height) {
+            if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+                bitmap.setPixels(src, 0, width, x, y, width, height);
+                return;
+            }
+            // setPixels does not take every config, e.g. ALPHA_8, a canvas converts them
+            if (scratchTile == null) {
+                scratchTile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            }
+            scratchTile.setPixels(src, 0, width, 0, 0, width, height);
+            new Canvas(bitmap).drawBitmap(scratchTile, new Rect(0, 0, width, height),
+                    new Rect(x, y, x + width, y + height), copyPaint);
+        }
+    }
+
+    private static class Entry {
+        final Object stroke;
+        // {left, top, right, bottom} of every tile
+        final int[] tiles;
+        final int[][] before;
+        final int[][] after;
+        int bytes = 0;
+
+        Entry(Object stroke, int tileCount) {
+            this.stroke = stroke;
+            this.tiles = new int[4 * tileCount];
+            this.before = new int[tileCount][];
+            this.after = new int[tileCount][];
+        }
+
+        void setTile(int k, int left, int top, int right, int bottom) {
+            tiles[4 * k] = left;
+            tiles[4 * k + 1] = top;
+            tiles[4 * k + 2] = right;
+            tiles[4 * k + 3] = bottom;
+        }
+
+        int getTileWidth(int k) {
+            return tiles[4 * k + 2] - tiles[4 * k];
+        }
+
+        int getTileHeight(int k) {
+            return tiles[4 * k + 3] - tiles[4 * k + 1];
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.yang.drawpad;
+
+import android.graphics.Path;
+
+import java.util.Arrays;
+
+/**
+ * Builds a pressure and velocity sensitive stroke as a filled outline.
+ * <p/>
+ * While the stroke is live, every accepted sample only appends the new piece of
+ * the outline (the quad between the previous and the current sample plus a round
+ * join) to the live path, so the work per event does not grow with the stroke.
+ * When the stroke is finished the whole outline is rebuilt once, with the offsets
+ * averaged at the joins, into a single fill path for the history.
+ * <p/>
+ * Both paths must be drawn with Paint.Style.FILL and the default winding fill type,
+ * so overlapping pieces do not darken translucent strokes. Every contour is emitted
+ * clockwise for the same reason, pieces of opposite direction would cancel out.
+ */
+public class VariableWidthStrokeBuilder {
+    // the width never goes below this fraction of the base width
+    private static final float MIN_WIDTH_FACTOR = 0.25F;
+    // how much a fast stroke thins, in 1 / (px per ms)
+    private static final float VELOCITY_THINNING = 0.35F;
+    // low-pass filter on the width, 1 means no smoothing
+    private static final float WIDTH_SMOOTHING = 0.4F;
+    // samples closer than this to the previous one are dropped, canvas pixels
+    private static final float MIN_DISTANCE = 1F;
+
+    private float baseWidth = 3F;
+    private float minDistance = MIN_DISTANCE;
+
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    // half of the width at each sample
+    private float[] radii = new float[64];
+    private int count = 0;
+    private long lastTime = 0;
+
+    private Path livePath = new Path();
+    // the piece appended by the last accepted sample
+    private Path lastPiece = null;
+
+    /**
+     * start a new stroke
+     *
+     * @param baseWidth the width at full pressure and zero velocity
+     */
+    public void reset(float baseWidth) {
+        this.baseWidth = baseWidth;
+        this.count = 0;
+        this.lastTime = 0;
+        this.livePath = new Path();
+        this.lastPiece = null;
+    }
+
+    /**
+     * @param minDistance samples closer than this to the previous one are dropped
+     */
+    public void setMinDistance(float minDistance) {
+        this.minDistance = minDistance;
+    }
+
+    public int getPointCount() {
+        return count;
+    }
+
+    /**
+     * add a sample and append the new piece of the outline to the live path
+     *
+     * @param x
+     * @param y
+     * @param pressure MotionEvent pressure, normally 0 to 1
+     * @param time     event time in ms
+     * @return false if the sample was too close to the previous one
+     */
+    public boolean addPoint(float x, float y, float pressure, long time) {
+        float pressureFactor = Math.max(0F, Math.min(pressure, 1F));
+        float target = baseWidth * (MIN_WIDTH_FACTOR + (1 - MIN_WIDTH_FACTOR) * pressureFactor);
+
+        if (count == 0) {
+            append(x, y, target / 2);
+            lastTime = time;
+            lastPiece = new Path();
+            lastPiece.addCircle(x, y, target / 2, Path.Direction.CW);
+            livePath.addPath(lastPiece);
+            return true;
+        }
+
+        int last = count - 1;
+        float dx = x - xs[last];
+        float dy = y - ys[last];
+        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        if (distance < minDistance) {
+            return false;
+        }
+
+        // thinner when fast
+        long dt = Math.max(1, time - lastTime);
+        float velocity = distance / dt;
+        target /= (1 + VELOCITY_THINNING * velocity);
+        target = Math.max(target, baseWidth * MIN_WIDTH_FACTOR);
+
+        float radius = radii[last] + WIDTH_SMOOTHING * (target / 2 - radii[last]);
+        append(x, y, radius);
+        lastTime = time;
+
+        lastPiece = new Path();
+        appendSegment(lastPiece, last, count - 1);
+        livePath.addPath(lastPiece);
+        return true;
+    }
+
+    /**
+     * the outline built so far, fill it to show the live stroke
+     *
+     * @return
+     */
+    public Path getLivePath() {
+        return livePath;
+    }
+
+    /**
+     * load a recorded stroke, so that buildOutline can rebuild it
+     *
+     * @param points {x0, y0, x1, y1, ...}
+     * @param widths the width at each point
+     */
+    public void set(float[] points, float[] widths) {
+        int n = points.length / 2;
+        reset(n > 0 ? widths[0] : baseWidth);
+        for (int i = 0; i < n; i++) {
+            append(points[2 * i], points[2 * i + 1], widths[i] / 2);
+        }
+    }
+
+    /**
+     * the piece of outline appended by the last accepted sample
+     *
+     * @return
+     */
+    public Path getLastPiece() {
+        return lastPiece;
+    }
+
+    /**
+     * Rebuild the whole stroke as one closed outline: the right offsets forward,
+     * the left offsets backward, plus round caps at both ends.
+     *
+     * @return a fill path for the history
+     */
+    public Path buildOutline() {
+        Path outline = new Path();
+        if (count == 0) {
+            return outline;
+        }
+        if (count == 1) {
+            outline.addCircle(xs[0], ys[0], radii[0], Path.Direction.CW);
+            return outline;
+        }
+
+        float[] normal = new float[2];
+        float[] left = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            vertexNormal(i, normal);
+            float rx = xs[i] - normal[0] * radii[i];
+            float ry = ys[i] - normal[1] * radii[i];
+            left[2 * i] = xs[i] + normal[0] * radii[i];
+            left[2 * i + 1] = ys[i] + normal[1] * radii[i];
+            if (i == 0) {
+                outline.moveTo(rx, ry);
+            } else {
+                outline.lineTo(rx, ry);
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            outline.lineTo(left[2 * i], left[2 * i + 1]);
+        }
+        outline.close();
+
+        outline.addCircle(xs[0], ys[0], radii[0], Path.Direction.CW);
+        outline.addCircle(xs[count - 1], ys[count - 1], radii[count - 1], Path.Direction.CW);
+        return outline;
+    }
+
+    /**
+     * the sample positions, {x0, y0, x1, y1, ...}
+     * @return
+     */
+    public float[] getPoints() {
+        float[] points = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            points[2 * i] = xs[i];
+            points[2 * i + 1] = ys[i];
+        }
+        return points;
+    }
+
+    /**
+     * the width at each sample
+     * @return
+     */
+    public float[] getWidths() {
+        float[] widths = new float[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = 2 * radii[i];
+        }
+        return widths;
+    }
+
+    private void append(float x, float y, float radius) {
+        if (count == xs.length) {
+            int capacity = count * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            radii = Arrays.copyOf(radii, capacity);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        radii[count] = radius;
+        count++;
+    }
+
+    /**
+     * the quad between sample a and b, and the round join at b
+     */
+    private void appendSegment(Path path, int a, int b) {
+        float dx = xs[b] - xs[a];
+        float dy = ys[b] - ys[a];
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        float nx = -dy / len;
+        float ny = dx / len;
+
+        path.moveTo(xs[a] - nx * radii[a], ys[a] - ny * radii[a]);
+        path.lineTo(xs[b] - nx * radii[b], ys[b] - ny * radii[b]);
+        path.lineTo(xs[b] + nx * radii[b], ys[b] + ny * radii[b]);
+        path.lineTo(xs[a] + nx * radii[a], ys[a] + ny * radii[a]);
+        path.close();
+        path.addCircle(xs[b], ys[b], radii[b], Path.Direction.CW);
+    }
+
+    /**
+     * the unit normal at sample i, averaged over the adjacent segments
+     */
+    private void vertexNormal(int i, float[] out) {
+        int a = Math.max(i - 1, 0);
+        int b = Math.min(i + 1, count - 1);
+        float dx = xs[b] - xs[a];
+        float dy = ys[b] - ys[a];
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        if (len == 0) {
+            out[0] = 0;
+            out[1] = 0;
+            return;
+        }
+        out[0] = -dy / len;
+        out[1] = dx / len;
+    }
+}
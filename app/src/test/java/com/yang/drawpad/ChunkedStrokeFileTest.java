@@ -0,0 +1,188 @@
+package com.yang.drawpad;
+
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ChunkedStrokeFileTest {
+
+    /**
+     * a short pen stroke at (x, y)
+     */
+    private static StrokeRecord createStroke(long id, float x, float y) {
+        float[] points = {x, y, x + 10, y + 5, x + 20, y};
+        return new StrokeRecord(id, SurfaceCanvasView.Drawer.PEN, false, Paint.Style.STROKE,
+                0xFF000000 | (int) id, 4F, 255, 0F, points, null);
+    }
+
+    private static List<StrokeRecord> createStrokes(int count) {
+        List<StrokeRecord> strokes = new ArrayList<StrokeRecord>();
+        for (int i = 0; i < count; i++) {
+            // ids out of order, so the index has to be sorted
+            strokes.add(createStroke(1000 - 7 * i, (i % 10) * 100, (i / 10) * 100));
+        }
+        return strokes;
+    }
+
+    private static void assertSameStroke(StrokeRecord expected, StrokeRecord actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getDrawer(), actual.getDrawer());
+        assertEquals(expected.getColor(), actual.getColor());
+        assertEquals(expected.isFitted(), actual.isFitted());
+        assertArrayEquals(expected.getPoints(), actual.getPoints(), 0F);
+    }
+
+    private static void setVersion(File path, int version) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.seek(4);
+            file.writeInt(version);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static File createTempFile() throws IOException {
+        File path = File.createTempFile("strokes", ".dpad");
+        path.deleteOnExit();
+        return path;
+    }
+
+    @Test
+    public void strokesAreReadBackFromTheFooterIndex() throws Exception {
+        List<StrokeRecord> strokes = createStrokes(100);
+        File path = createTempFile();
+        // a few records per chunk
+        ChunkedStrokeFile.write(path, strokes, 256);
+
+        ChunkedStrokeFile file = ChunkedStrokeFile.open(path);
+        try {
+            assertEquals(strokes.size(), file.getStrokeCount());
+            assertTrue(file.getChunkCount() > 1);
+            assertTrue(file.getChunkCount() < strokes.size());
+            for (int i = 0; i < strokes.size(); i++) {
+                assertSameStroke(strokes.get(i), file.getStroke(i));
+                assertSameStroke(strokes.get(i), file.getStrokeById(strokes.get(i).getId()));
+            }
+            assertNull(file.getStrokeById(1));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void queryReturnsTheIntersectingStrokesInOrder() throws Exception {
+        List<StrokeRecord> strokes = createStrokes(100);
+        File path = createTempFile();
+        ChunkedStrokeFile.write(path, strokes, 256);
+
+        RectF viewport = new RectF(150, 150, 420, 330);
+        List<StrokeRecord> expected = new ArrayList<StrokeRecord>();
+        for (StrokeRecord stroke : strokes) {
+            RectF b = stroke.getBounds();
+            if (b.left < viewport.right && viewport.left < b.right
+                    && b.top < viewport.bottom && viewport.top < b.bottom) {
+                expected.add(stroke);
+            }
+        }
+        assertTrue(expected.size() > 0);
+        assertTrue(expected.size() < strokes.size());
+
+        ChunkedStrokeFile file = ChunkedStrokeFile.open(path);
+        try {
+            List<StrokeRecord> found = new ArrayList<StrokeRecord>();
+            file.query(viewport, found);
+            assertEquals(expected.size(), found.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameStroke(expected.get(i), found.get(i));
+            }
+
+            found.clear();
+            file.query(new RectF(-500, -500, -400, -400), found);
+            assertEquals(0, found.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void fittedStrokesAreKept() throws Exception {
+        float[] segments = {0, 0, 10, 20, 30, 20, 40, 0, 50, -20, 70, -20, 80, 0};
+        StrokeRecord fitted = new StrokeRecord(5, SurfaceCanvasView.Drawer.SMOOTH_PEN, false,
+                Paint.Style.STROKE, 0xFF00FF00, 3F, 200, 1F, segments, null, true);
+        List<StrokeRecord> strokes = new ArrayList<StrokeRecord>();
+        strokes.add(fitted);
+        File path = createTempFile();
+        ChunkedStrokeFile.write(path, strokes);
+
+        ChunkedStrokeFile file = ChunkedStrokeFile.open(path);
+        try {
+            StrokeRecord read = file.getStroke(0);
+            assertSameStroke(fitted, read);
+            assertEquals(200, read.getOpacity());
+            assertEquals(fitted.getBounds().left, read.getBounds().left, 1e-3);
+            assertEquals(fitted.getBounds().bottom, read.getBounds().bottom, 1e-3);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void versionOneFilesAreStillRead() throws Exception {
+        // version 1 had the same layout, without fitted records
+        List<StrokeRecord> strokes = createStrokes(20);
+        File path = createTempFile();
+        ChunkedStrokeFile.write(path, strokes, 256);
+        setVersion(path, 1);
+
+        ChunkedStrokeFile file = ChunkedStrokeFile.open(path);
+        try {
+            assertEquals(strokes.size(), file.getStrokeCount());
+            for (int i = 0; i < strokes.size(); i++) {
+                assertSameStroke(strokes.get(i), file.getStroke(i));
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void newerAndBrokenFilesAreRejected() throws Exception {
+        File path = createTempFile();
+        ChunkedStrokeFile.write(path, createStrokes(3));
+        setVersion(path, ChunkedStrokeFile.VERSION + 1);
+        try {
+            ChunkedStrokeFile.open(path).close();
+            fail("a newer version was opened");
+        } catch (IOException e) {
+            // expected
+        }
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        try {
+            ChunkedStrokeFile.open(path).close();
+            fail("a truncated file was opened");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CurveFitterTest {
+    private static final float MAX_ERROR = 0.5F;
+
+    /**
+     * samples about 2 pixels apart along a circle arc
+     */
+    private static float[] arc(float cx, float cy, float radius, double from, double to) {
+        int n = (int) (Math.abs(to - from) * radius / 2) + 1;
+        float[] points = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            double a = from + (to - from) * i / (n - 1);
+            points[2 * i] = cx + (float) (radius * Math.cos(a));
+            points[2 * i + 1] = cy + (float) (radius * Math.sin(a));
+        }
+        return points;
+    }
+
+    /**
+     * samples about 2 pixels apart along a sine wave
+     */
+    private static float[] wave(int n, float amplitude, float period) {
+        float[] points = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            points[2 * i] = 2F * i;
+            points[2 * i + 1] = amplitude * (float) Math.sin(2 * Math.PI * 2F * i / period);
+        }
+        return points;
+    }
+
+    /**
+     * the distance of a point to the closest of the fitted segments, each evaluated densely
+     */
+    private static double distanceToCurve(float[] fitted, float x, float y) {
+        double best = Double.MAX_VALUE;
+        for (int s = 0; s < CurveFitter.getSegmentCount(fitted); s++) {
+            int k = 6 * s;
+            for (int i = 0; i <= 1000; i++) {
+                double t = i / 1000.0;
+                double u = 1 - t;
+                double px = u * u * u * fitted[k] + 3 * u * u * t * fitted[k + 2]
+                        + 3 * u * t * t * fitted[k + 4] + t * t * t * fitted[k + 6];
+                double py = u * u * u * fitted[k + 1] + 3 * u * u * t * fitted[k + 3]
+                        + 3 * u * t * t * fitted[k + 5] + t * t * t * fitted[k + 7];
+                best = Math.min(best, Math.hypot(px - x, py - y));
+            }
+        }
+        return best;
+    }
+
+    private static void assertWithinError(float[] samples, float[] fitted) {
+        assertEquals(samples[0], fitted[0], 0F);
+        assertEquals(samples[1], fitted[1], 0F);
+        assertEquals(samples[samples.length - 2], fitted[fitted.length - 2], 1e-3);
+        assertEquals(samples[samples.length - 1], fitted[fitted.length - 1], 1e-3);
+        for (int i = 0; i < samples.length; i += 2) {
+            // the bound holds at the chord length parameter, the closest point is no farther
+            assertTrue("sample " + i / 2 + " is off the curve",
+                    distanceToCurve(fitted, samples[i], samples[i + 1]) <= MAX_ERROR + 1e-3);
+        }
+    }
+
+    @Test
+    public void samplesAreWithinHalfAPixel() throws Exception {
+        float[][] strokes = {
+                arc(200, 200, 100, 0, Math.PI),
+                arc(0, 0, 30, 0, 2 * Math.PI),
+                wave(300, 40, 120),
+                wave(200, 5, 15),
+        };
+        for (float[] samples : strokes) {
+            assertWithinError(samples, CurveFitter.fit(samples, MAX_ERROR));
+        }
+    }
+
+    @Test
+    public void smoothStrokesTakeFarFewerSegments() throws Exception {
+        float[][] strokes = {
+                arc(200, 200, 100, 0, Math.PI),
+                wave(300, 40, 120),
+        };
+        for (float[] samples : strokes) {
+            float[] fitted = CurveFitter.fit(samples, MAX_ERROR);
+            int n = samples.length / 2;
+            int segments = CurveFitter.getSegmentCount(fitted);
+            assertTrue(n + " samples, " + segments + " segments", n >= 5 * segments);
+            assertTrue(CurveFitter.isReduced(fitted, samples));
+        }
+    }
+
+    @Test
+    public void jitteryAndShortStrokesAreNotReduced() throws Exception {
+        // every sample is a corner
+        float[] zigzag = new float[2 * 40];
+        for (int i = 0; i < 40; i++) {
+            zigzag[2 * i] = 3F * i;
+            zigzag[2 * i + 1] = i % 2 == 0 ? 0F : 6F;
+        }
+        float[] fitted = CurveFitter.fit(zigzag, MAX_ERROR);
+        assertWithinError(zigzag, fitted);
+        assertFalse(CurveFitter.isReduced(fitted, zigzag));
+
+        float[] dash = {10, 10, 20, 12};
+        fitted = CurveFitter.fit(dash, MAX_ERROR);
+        assertEquals(1, CurveFitter.getSegmentCount(fitted));
+        assertFalse(CurveFitter.isReduced(fitted, dash));
+    }
+
+    @Test
+    public void singleAndNoSample() throws Exception {
+        assertArrayEquals(new float[]{3, 4}, CurveFitter.fit(new float[]{3, 4}, MAX_ERROR), 0F);
+        assertEquals(0, CurveFitter.fit(new float[0], MAX_ERROR).length);
+        assertEquals(0, CurveFitter.getSegmentCount(new float[]{3, 4}));
+    }
+}
@@ -0,0 +1,192 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    /**
+     * the pixels covered by the runs, each covered once
+     */
+    private static boolean[] rasterize(int[] rects, int w, int h) {
+        boolean[] mask = new boolean[w * h];
+        for (int i = 0; i < rects.length; i += 4) {
+            assertTrue(rects[i] >= 0 && rects[i + 1] >= 0);
+            assertTrue(rects[i + 2] <= w && rects[i + 3] <= h);
+            // one row each, from the top down
+            assertEquals(rects[i + 1] + 1, rects[i + 3]);
+            assertTrue(i == 0 || rects[i - 3] <= rects[i + 1]);
+            for (int y = rects[i + 1]; y < rects[i + 3]; y++) {
+                for (int x = rects[i]; x < rects[i + 2]; x++) {
+                    assertFalse("covered twice", mask[y * w + x]);
+                    mask[y * w + x] = true;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * a pixel by pixel fill, 4-connected, to compare with
+     */
+    private static boolean[] referenceFill(int[] src, int w, int h, int x, int y, int tolerance) {
+        boolean[] mask = new boolean[w * h];
+        int target = src[y * w + x];
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(y * w + x);
+        mask[y * w + x] = true;
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            int px = index % w;
+            int py = index / w;
+            int[] neighbours = {px > 0 ? index - 1 : -1, px < w - 1 ? index + 1 : -1,
+                    py > 0 ? index - w : -1, py < h - 1 ? index + w : -1};
+            for (int n : neighbours) {
+                if (n >= 0 && !mask[n] && matches(src[n], target, tolerance)) {
+                    mask[n] = true;
+                    queue.add(n);
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static boolean matches(int color, int target, int tolerance) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs(((color >>> shift) & 0xff) - ((target >>> shift) & 0xff)) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] createImage(int w, int h, int color) {
+        int[] pixels = new int[w * h];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    @Test
+    public void uniformImageIsOneRunPerRow() throws Exception {
+        int[] pixels = createImage(40, 30, WHITE);
+        assertArrayEquals(rows(0, 40, 30), new FloodFill().fill(pixels, 40, 30, 17, 11, 0));
+    }
+
+    @Test
+    public void fillStopsAtTheBorderOfAShape() throws Exception {
+        int w = 20;
+        int h = 20;
+        int[] pixels = createImage(w, h, WHITE);
+        // the outline of a square from (5, 5) to (14, 14)
+        for (int i = 5; i < 15; i++) {
+            pixels[5 * w + i] = BLACK;
+            pixels[14 * w + i] = BLACK;
+            pixels[i * w + 5] = BLACK;
+            pixels[i * w + 14] = BLACK;
+        }
+        FloodFill fill = new FloodFill();
+
+        boolean[] inside = rasterize(fill.fill(pixels, w, h, 10, 10, 0), w, h);
+        assertArrayEquals(referenceFill(pixels, w, h, 10, 10, 0), inside);
+        int count = 0;
+        for (boolean b : inside) {
+            count += b ? 1 : 0;
+        }
+        assertEquals(8 * 8, count);
+
+        // from the outside, along the edges of the bitmap
+        boolean[] outside = rasterize(fill.fill(pixels, w, h, 0, 0, 0), w, h);
+        assertArrayEquals(referenceFill(pixels, w, h, 0, 0, 0), outside);
+        assertTrue(outside[w * h - 1]);
+        assertFalse(outside[10 * w + 10]);
+    }
+
+    @Test
+    public void seedOnTheBorderFillsTheBorder() throws Exception {
+        int w = 20;
+        int h = 20;
+        int[] pixels = createImage(w, h, WHITE);
+        for (int i = 5; i < 15; i++) {
+            pixels[5 * w + i] = BLACK;
+            pixels[14 * w + i] = BLACK;
+            pixels[i * w + 5] = BLACK;
+            pixels[i * w + 14] = BLACK;
+        }
+        boolean[] border = rasterize(new FloodFill().fill(pixels, w, h, 5, 9, 0), w, h);
+        for (int i = 0; i < w * h; i++) {
+            assertEquals(pixels[i] == BLACK, border[i]);
+        }
+    }
+
+    @Test
+    public void seedOnTheEdgeOfTheBitmap() throws Exception {
+        int w = 16;
+        int h = 9;
+        int[] pixels = createImage(w, h, WHITE);
+        // a wall down the middle
+        for (int y = 0; y < h; y++) {
+            pixels[y * w + 8] = BLACK;
+        }
+        FloodFill fill = new FloodFill();
+        assertArrayEquals(rows(9, 16, h), fill.fill(pixels, w, h, w - 1, h - 1, 0));
+        assertArrayEquals(rows(0, 8, h), fill.fill(pixels, w, h, 0, h - 1, 0));
+        assertArrayEquals(rows(8, 9, h), fill.fill(pixels, w, h, 8, 0, 0));
+    }
+
+    /**
+     * the runs of a column from left to right, h rows high
+     */
+    private static int[] rows(int left, int right, int h) {
+        int[] runs = new int[4 * h];
+        for (int y = 0; y < h; y++) {
+            runs[4 * y] = left;
+            runs[4 * y + 1] = y;
+            runs[4 * y + 2] = right;
+            runs[4 * y + 3] = y + 1;
+        }
+        return runs;
+    }
+
+    @Test
+    public void toleranceIsPerChannel() throws Exception {
+        int w = 10;
+        int h = 1;
+        int[] pixels = createImage(w, h, 0xFF808080);
+        pixels[3] = 0xFF808090;   // 16 off in blue
+        pixels[6] = 0xF0808080;   // 15 off in alpha
+
+        FloodFill fill = new FloodFill();
+        assertArrayEquals(new int[]{0, 0, 3, 1}, fill.fill(pixels, w, h, 0, 0, 0));
+        assertArrayEquals(new int[]{0, 0, 3, 1}, fill.fill(pixels, w, h, 0, 0, 15));
+        assertArrayEquals(new int[]{0, 0, 10, 1}, fill.fill(pixels, w, h, 0, 0, 16));
+        assertArrayEquals(new int[]{4, 0, 6, 1}, fill.fill(pixels, w, h, 5, 0, 14));
+    }
+
+    @Test
+    public void randomImagesMatchAPixelFill() throws Exception {
+        Random random = new Random(42);
+        FloodFill fill = new FloodFill();
+        for (int round = 0; round < 50; round++) {
+            int w = 1 + random.nextInt(60);
+            int h = 1 + random.nextInt(60);
+            int[] pixels = new int[w * h];
+            for (int i = 0; i < pixels.length; i++) {
+                // mostly open, with noise close to the open color
+                pixels[i] = random.nextInt(4) == 0 ? BLACK : 0xFFF0F0F0 + random.nextInt(16);
+            }
+            int x = random.nextInt(w);
+            int y = random.nextInt(h);
+            int tolerance = random.nextInt(3) * 8;
+            // the buffers are reused from the previous, larger or smaller, fill
+            boolean[] mask = rasterize(fill.fill(pixels, w, h, x, y, tolerance), w, h);
+            assertArrayEquals(referenceFill(pixels, w, h, x, y, tolerance), mask);
+        }
+    }
+}
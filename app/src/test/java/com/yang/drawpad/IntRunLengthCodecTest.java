@@ -0,0 +1,67 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IntRunLengthCodecTest {
+
+    @Test
+    public void equalPixelsAreOneRun() throws Exception {
+        int[] tile = new int[TileUndoStore.TILE_SIZE * TileUndoStore.TILE_SIZE];
+        Arrays.fill(tile, 0xFFFFFFFF);
+        int[] runs = IntRunLengthCodec.encode(tile, 0, tile.length);
+        assertArrayEquals(new int[]{tile.length, 0xFFFFFFFF}, runs);
+
+        int[] decoded = new int[tile.length];
+        assertEquals(tile.length, IntRunLengthCodec.decode(runs, decoded, 0));
+        assertArrayEquals(tile, decoded);
+    }
+
+    @Test
+    public void alternatingPixelsAreRoundTripped() throws Exception {
+        int[] pixels = new int[1001];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % 2 == 0 ? 0xFF000000 : 0x80FF0000;
+        }
+        int[] runs = IntRunLengthCodec.encode(pixels, 0, pixels.length);
+        // no run is longer than a pixel, the runs grow past their first capacity
+        assertEquals(2 * pixels.length, runs.length);
+
+        int[] decoded = new int[pixels.length];
+        assertEquals(pixels.length, IntRunLengthCodec.decode(runs, decoded, 0));
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void partOfAnArrayIsRoundTripped() throws Exception {
+        // a tile at the edge of a bitmap is smaller than TILE_SIZE * TILE_SIZE
+        int[] pixels = new int[TileUndoStore.TILE_SIZE * TileUndoStore.TILE_SIZE];
+        Arrays.fill(pixels, 7);
+        int width = 37;
+        int height = 5;
+        for (int i = 0; i < width * height; i++) {
+            pixels[i] = i / 10;
+        }
+        int[] runs = IntRunLengthCodec.encode(pixels, 0, width * height);
+
+        int[] decoded = new int[pixels.length + 3];
+        Arrays.fill(decoded, -1);
+        assertEquals(width * height, IntRunLengthCodec.decode(runs, decoded, 3));
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(pixels[i], decoded[i + 3]);
+        }
+        // nothing is written past the pixels of the tile
+        assertEquals(-1, decoded[2]);
+        assertEquals(-1, decoded[width * height + 3]);
+    }
+
+    @Test
+    public void offsetIsHonored() throws Exception {
+        int[] pixels = {1, 1, 2, 2, 2, 3};
+        assertArrayEquals(new int[]{3, 2, 1, 3}, IntRunLengthCodec.encode(pixels, 2, 4));
+        assertArrayEquals(new int[0], IntRunLengthCodec.encode(pixels, 2, 0));
+    }
+}
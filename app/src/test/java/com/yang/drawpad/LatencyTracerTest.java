@@ -0,0 +1,63 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTracerTest {
+
+    @Test
+    public void percentilesOfTheRecordedLatencies() throws Exception {
+        LatencyTracer tracer = new LatencyTracer();
+        assertEquals(-1, tracer.getPercentile(50));
+        assertEquals(0F, tracer.getMean(), 0F);
+
+        for (int i = 1; i <= 100; i++) {
+            tracer.record(i);
+        }
+        assertEquals(100, tracer.getCount());
+        assertEquals(50.5F, tracer.getMean(), 1e-3);
+        assertEquals(1, tracer.getPercentile(0));
+        assertEquals(50, tracer.getPercentile(50));
+        assertEquals(90, tracer.getPercentile(90));
+        assertEquals(99, tracer.getPercentile(99));
+        assertEquals(100, tracer.getPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeLatenciesAreClamped() throws Exception {
+        LatencyTracer tracer = new LatencyTracer();
+        tracer.record(-5);
+        tracer.record(10000);
+        assertEquals(0, tracer.getPercentile(50));
+        assertEquals(250, tracer.getPercentile(100));
+    }
+
+    @Test
+    public void samplesAreCountedOnce() throws Exception {
+        LatencyTracer tracer = new LatencyTracer();
+        tracer.onFramePresented(100);
+        // the stroke did not move, the same sample is on the next frame
+        tracer.onFramePresented(100);
+        tracer.onFramePresented(90);
+        // no live sample
+        tracer.onFramePresented(0);
+        assertEquals(1, tracer.getCount());
+        tracer.onFramePresented(116);
+        assertEquals(2, tracer.getCount());
+    }
+
+    @Test
+    public void resetForgetsEverything() throws Exception {
+        LatencyTracer tracer = new LatencyTracer();
+        tracer.record(20);
+        tracer.onFramePresented(500);
+        tracer.reset();
+        assertEquals(0, tracer.getCount());
+        assertEquals(-1, tracer.getPercentile(50));
+
+        // an older event time, e.g. the clock of another stroke, counts again
+        tracer.onFramePresented(100);
+        assertEquals(1, tracer.getCount());
+    }
+}
@@ -0,0 +1,195 @@
+package com.yang.drawpad;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OpLogTest {
+
+    private static StrokeRecord stroke(float x) {
+        return new StrokeRecord(StrokeRecord.nextId(), SurfaceCanvasView.Drawer.PEN, false,
+                Paint.Style.STROKE, 0xff000000, 4F, 255, 0F, new float[]{x, 0F, x + 10F, 10F}, null);
+    }
+
+    /**
+     * @return the ids of the strokes on the canvas, from the bottom
+     */
+    private static List<Long> getVisibleIds(OpLog log) {
+        List<Long> ids = new ArrayList<Long>();
+        for (StrokeRecord stroke : log.getVisibleStrokes()) {
+            ids.add(log.getStrokeId(stroke));
+        }
+        return ids;
+    }
+
+    @Test
+    public void mergeGivesTheSameStrokesInAnyOrder() throws Exception {
+        OpLog a = new OpLog(1);
+        OpLog b = new OpLog(2);
+        StrokeRecord a1 = stroke(0F);
+        StrokeRecord a2 = stroke(20F);
+        a.add(a1);
+        a.add(a2);
+        b.add(stroke(40F));
+        // b erases a stroke of a and moves the other one at the same time as a draws
+        b.merge(a.getOps());
+        b.erase(b.getStrokeId(a1));
+        b.transform(new StrokeTransform(Collections.singletonList(a2), new Matrix()));
+        a.add(stroke(60F));
+        a.undo(a1);
+
+        OpLog union = new OpLog(4);
+        union.merge(a.getOps());
+        union.merge(b.getOps());
+        List<StrokeOp> all = union.getOps();
+        List<Long> expected = null;
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            Collections.shuffle(all, random);
+            OpLog c = new OpLog(3);
+            // one op at a time, some of them twice
+            for (int i = 0; i < all.size(); i++) {
+                c.merge(Collections.singletonList(all.get(i)));
+                c.merge(Collections.singletonList(all.get(random.nextInt(i + 1))));
+            }
+            assertEquals(all.size(), c.size());
+            if (expected == null) {
+                expected = getVisibleIds(c);
+            }
+            assertEquals(expected, getVisibleIds(c));
+        }
+
+        a.merge(b.getOps());
+        b.merge(a.getOps());
+        assertEquals(expected, getVisibleIds(a));
+        assertEquals(expected, getVisibleIds(b));
+        // the two strokes drawn alone and the moved copy
+        assertEquals(3, expected.size());
+    }
+
+    @Test
+    public void mergeReportsOnlyNewOps() throws Exception {
+        OpLog a = new OpLog(1);
+        a.add(stroke(0F));
+        OpLog b = new OpLog(2);
+        assertTrue(b.merge(a.getOps()));
+        assertFalse(b.merge(a.getOps()));
+        assertFalse(b.merge(Collections.<StrokeOp>emptyList()));
+    }
+
+    @Test
+    public void undoCancelsTheOpOnEverySite() throws Exception {
+        OpLog a = new OpLog(1);
+        StrokeRecord first = stroke(0F);
+        StrokeRecord second = stroke(20F);
+        a.add(first);
+        a.add(second);
+        assertNotNull(a.undo(first));
+        assertEquals(Collections.singletonList(second), a.getVisibleStrokes());
+        assertEquals(-1, a.getStrokeId(first));
+        // nothing left to cancel for it
+        assertNull(a.undo(first));
+
+        OpLog b = new OpLog(2);
+        b.merge(a.getOps());
+        assertEquals(Collections.singletonList(second), b.getVisibleStrokes());
+
+        // a redo is a new op, on the top
+        a.add(first);
+        b.merge(a.getOps());
+        assertEquals(Arrays.asList(second, first), a.getVisibleStrokes());
+        assertEquals(Arrays.asList(second, first), b.getVisibleStrokes());
+    }
+
+    @Test
+    public void undoOfAnEraseBringsTheStrokeBack() throws Exception {
+        OpLog a = new OpLog(1);
+        StrokeRecord stroke = stroke(0F);
+        a.add(stroke);
+        OpLog b = new OpLog(2);
+        b.merge(a.getOps());
+        StrokeOp erase = b.erase(b.getStrokeId(stroke));
+        a.merge(b.getOps());
+        assertTrue(a.getVisibleStrokes().isEmpty());
+
+        b.merge(Collections.singletonList(StrokeOp.undo(StrokeOp.makeId(100, 2), erase.getId())));
+        a.merge(b.getOps());
+        assertEquals(Collections.singletonList(stroke), a.getVisibleStrokes());
+        assertEquals(Collections.singletonList(stroke), b.getVisibleStrokes());
+    }
+
+    @Test
+    public void transformCopiesGetTheReservedIds() throws Exception {
+        OpLog a = new OpLog(1);
+        StrokeRecord first = stroke(0F);
+        StrokeRecord second = stroke(20F);
+        a.add(first);
+        a.add(second);
+        OpLog b = new OpLog(2);
+        b.merge(a.getOps());
+
+        StrokeTransform transform = new StrokeTransform(Arrays.asList(first, second), new Matrix());
+        StrokeOp op = b.transform(transform);
+        assertEquals(transform.getResults(), b.getVisibleStrokes());
+        assertEquals(op.getResultId(0), b.getStrokeId(transform.getResults().get(0)));
+        assertEquals(op.getResultId(1), b.getStrokeId(transform.getResults().get(1)));
+        assertTrue(b.isShared(transform.getResults().get(0)));
+
+        // the other site makes its own copies, under the same ids
+        a.merge(b.getOps());
+        List<StrokeRecord> copies = a.getVisibleStrokes();
+        assertEquals(2, copies.size());
+        assertFalse(copies.contains(first));
+        assertFalse(copies.contains(second));
+        assertEquals(Arrays.asList(op.getResultId(0), op.getResultId(1)), getVisibleIds(a));
+        assertFalse(a.isShared(copies.get(0)));
+        // made once
+        assertSame(copies.get(0), a.getVisibleStrokes().get(0));
+
+        // the ids of the copies are not given out again
+        long next = a.add(stroke(40F)).getId();
+        assertTrue(StrokeOp.getClock(next) > StrokeOp.getClock(op.getResultId(1)));
+        next = b.add(stroke(60F)).getId();
+        assertTrue(StrokeOp.getClock(next) > StrokeOp.getClock(op.getResultId(1)));
+
+        // a copy is a stroke like any other
+        a.erase(op.getResultId(0));
+        b.merge(a.getOps());
+        a.merge(b.getOps());
+        assertEquals(getVisibleIds(a), getVisibleIds(b));
+        assertEquals(-1, b.getStrokeId(transform.getResults().get(0)));
+
+        // undoing the move brings the strokes back
+        b.undo(transform);
+        a.merge(b.getOps());
+        assertTrue(a.getVisibleStrokes().contains(first));
+        assertTrue(a.getVisibleStrokes().contains(second));
+        assertEquals(getVisibleIds(a), getVisibleIds(b));
+    }
+
+    @Test
+    public void transformOfAStrokeGoneDoesNothing() throws Exception {
+        OpLog a = new OpLog(1);
+        StrokeRecord stroke = stroke(0F);
+        a.add(stroke);
+        OpLog b = new OpLog(2);
+        b.merge(a.getOps());
+        long id = a.getStrokeId(stroke);
+        a.erase(id);
+        b.transform(new StrokeTransform(Collections.singletonList(stroke), new Matrix()));
+
+        a.merge(b.getOps());
+        b.merge(a.getOps());
+        assertTrue(a.getVisibleStrokes().isEmpty());
+        assertTrue(b.getVisibleStrokes().isEmpty());
+    }
+}
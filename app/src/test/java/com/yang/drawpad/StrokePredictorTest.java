@@ -0,0 +1,111 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokePredictorTest {
+
+    @Test
+    public void noPredictionWithoutTwoSamples() throws Exception {
+        StrokePredictor predictor = new StrokePredictor();
+        float[] out = new float[2];
+        assertFalse(predictor.predict(16, out));
+
+        predictor.addSample(10, 10, 100);
+        assertFalse(predictor.predict(16, out));
+
+        predictor.addSample(20, 10, 108);
+        assertTrue(predictor.predict(16, out));
+
+        predictor.reset();
+        assertEquals(0, predictor.getSampleCount());
+        assertFalse(predictor.predict(16, out));
+    }
+
+    @Test
+    public void constantVelocityIsExtrapolated() throws Exception {
+        StrokePredictor predictor = new StrokePredictor();
+        for (int i = 0; i < 5; i++) {
+            predictor.addSample(i * 8, i * 4, i * 8);
+        }
+        float[] out = new float[2];
+        assertTrue(predictor.predict(16, out));
+        assertEquals(32 + 16, out[0], 1e-3);
+        assertEquals(16 + 8, out[1], 1e-3);
+    }
+
+    @Test
+    public void predictionIsClampedToMaxDistance() throws Exception {
+        StrokePredictor predictor = new StrokePredictor();
+        predictor.setMaxDistance(10);
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(100, 0, 8);
+        float[] out = new float[2];
+        assertTrue(predictor.predict(16, out));
+        assertEquals(110, out[0], 1e-3);
+        assertEquals(0, out[1], 1e-3);
+    }
+
+    @Test
+    public void staleSamplesAreIgnored() throws Exception {
+        StrokePredictor predictor = new StrokePredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(50, 50, 500);
+        float[] out = new float[2];
+        // the first sample is too old to estimate a velocity
+        assertFalse(predictor.predict(16, out));
+    }
+
+    @Test
+    public void straightLineHasNoError() throws Exception {
+        int n = 40;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        long[] t = new long[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 3 * i;
+            y[i] = 100 - 2 * i;
+            t[i] = 8 * i;
+        }
+        StrokePredictor.Accuracy accuracy = StrokePredictor.measure(x, y, t, 16, 5);
+        assertTrue(accuracy.getCount() > 30);
+        assertEquals(0, accuracy.getMeanError(), 1e-3);
+        assertEquals(0, accuracy.getMaxOvershoot(), 1e-3);
+    }
+
+    @Test
+    public void circleErrorIsBounded() throws Exception {
+        int n = 120;
+        float radius = 200;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        long[] t = new long[n];
+        for (int i = 0; i < n; i++) {
+            double a = i * 0.05;
+            x[i] = (float) (radius * Math.cos(a));
+            y[i] = (float) (radius * Math.sin(a));
+            t[i] = 8 * i;
+        }
+        StrokePredictor.Accuracy accuracy = StrokePredictor.measure(x, y, t, 16, 5);
+        // 10 px per sample, a 16ms prediction should stay within a few pixels
+        assertTrue(accuracy.toString(), accuracy.getMeanError() < 3);
+        assertTrue(accuracy.toString(), accuracy.getMaxError() < 5);
+    }
+
+    @Test
+    public void suddenStopOvershootsAtMostMaxDistance() throws Exception {
+        int n = 30;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        long[] t = new long[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i < 15 ? 10 * i : 140;
+            y[i] = 0;
+            t[i] = 8 * i;
+        }
+        StrokePredictor.Accuracy accuracy = StrokePredictor.measure(x, y, t, 16, 5);
+        assertTrue(accuracy.toString(), accuracy.getMaxOvershoot() > 0);
+        assertTrue(accuracy.toString(), accuracy.getMaxOvershoot() <= 64 + 1e-3);
+    }
+}
@@ -0,0 +1,184 @@
+package com.yang.drawpad;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SyncFramesTest {
+
+    private static StrokeRecord stroke() {
+        return new StrokeRecord(7L, SurfaceCanvasView.Drawer.VARIABLE_PEN, false, Paint.Style.FILL,
+                0xff336699, 6F, 200, 1.5F, new float[]{1F, 2F, 3F, 4F, 5F, 6F}, new float[]{1F, 2F, 3F});
+    }
+
+    private static DataInputStream toInput(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void helloAndAckRoundTrip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SyncFrames.writeHello(out, 42);
+        SyncFrames.writeAck(out, 7);
+
+        DataInputStream in = toInput(bytes);
+        SyncFrames.Frame hello = SyncFrames.read(in);
+        assertEquals(SyncFrames.HELLO, hello.type);
+        assertEquals(42, hello.seq);
+        assertNull(hello.ids);
+        SyncFrames.Frame ack = SyncFrames.read(in);
+        assertEquals(SyncFrames.ACK, ack.type);
+        assertEquals(7, ack.seq);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void opsRoundTrip() throws Exception {
+        long[] ids = {StrokeOp.makeId(1, 3), StrokeOp.makeId(2, 3), StrokeOp.makeId(3, 3),
+                StrokeOp.makeId(5, 3)};
+        StrokeOp[] ops = {
+                StrokeOp.add(ids[0], stroke()),
+                StrokeOp.erase(ids[1], 99L),
+                StrokeOp.undo(ids[2], ids[1]),
+                StrokeOp.transform(ids[3], new long[]{ids[0], 12L}, new Matrix(), null)};
+        byte[][] encoded = new byte[ops.length][];
+        for (int i = 0; i < ops.length; i++) {
+            encoded[i] = ops[i].encode();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // a frame of the middle ops only
+        SyncFrames.writeOps(out, 9, ids, encoded, 1, 3);
+        SyncFrames.writeOps(out, 10, ids, encoded, 0, ops.length);
+        assertEquals(SyncFrames.getOpsFrameSize(encoded, 1, 3)
+                + SyncFrames.getOpsFrameSize(encoded, 0, ops.length), bytes.size());
+
+        DataInputStream in = toInput(bytes);
+        SyncFrames.Frame part = SyncFrames.read(in);
+        assertEquals(SyncFrames.OPS, part.type);
+        assertEquals(9, part.seq);
+        assertArrayEquals(Arrays.copyOfRange(ids, 1, 3), part.ids);
+        assertArrayEquals(encoded[1], part.ops[0]);
+        assertArrayEquals(encoded[2], part.ops[1]);
+
+        SyncFrames.Frame frame = SyncFrames.read(in);
+        assertEquals(10, frame.seq);
+        assertArrayEquals(ids, frame.ids);
+        StrokeOp[] decoded = new StrokeOp[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            assertArrayEquals(encoded[i], frame.ops[i]);
+            decoded[i] = StrokeOp.decode(frame.ids[i], frame.ops[i]);
+            assertEquals(ops[i].getType(), decoded[i].getType());
+            assertEquals(ids[i], decoded[i].getId());
+        }
+
+        StrokeRecord stroke = decoded[0].getStroke();
+        assertEquals(7L, stroke.getId());
+        assertEquals(3, stroke.getPointCount());
+        assertArrayEquals(stroke().getPoints(), stroke.getPoints(), 0F);
+        assertArrayEquals(stroke().getWidths(), stroke.getWidths(), 0F);
+        assertEquals(0xff336699, stroke.getColor());
+        assertEquals(99L, decoded[1].getTarget());
+        assertEquals(ids[1], decoded[2].getTarget());
+        assertArrayEquals(new long[]{ids[0], 12L}, decoded[3].getTargets());
+        assertNull(decoded[3].getResults());
+    }
+
+    @Test
+    public void unknownOpIsSkipped() throws Exception {
+        assertNull(StrokeOp.decode(1L, new byte[]{99, 1, 2, 3}));
+    }
+
+    @Test
+    public void brokenOpsAreRejected() throws Exception {
+        byte[] add = StrokeOp.add(1L, stroke()).encode();
+        byte[] transform = StrokeOp.transform(2L, new long[]{5L, 6L}, new Matrix(), null).encode();
+        // cut short anywhere
+        for (byte[] op : new byte[][]{add, transform, StrokeOp.erase(3L, 4L).encode()}) {
+            for (int length = 0; length < op.length; length++) {
+                assertDecodeFails(Arrays.copyOf(op, length));
+            }
+        }
+
+        // a negative or huge count of strokes
+        for (int count : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 3}) {
+            byte[] op = transform.clone();
+            op[1] = (byte) (count >>> 24);
+            op[2] = (byte) (count >>> 16);
+            op[3] = (byte) (count >>> 8);
+            op[4] = (byte) count;
+            assertDecodeFails(op);
+        }
+
+        // an unknown drawer
+        byte[] op = add.clone();
+        op[1 + 4 + 8] = 100;
+        assertDecodeFails(op);
+    }
+
+    private static void assertDecodeFails(byte[] op) {
+        try {
+            StrokeOp.decode(1L, op);
+            fail("decoded " + Arrays.toString(op));
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void brokenFramesAreRejected() throws Exception {
+        for (int length : new int[]{-1, 4, SyncFrames.MAX_FRAME_SIZE + 1}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeInt(length);
+            assertReadFails(bytes);
+        }
+
+        // an ACK with a body
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(9);
+        out.writeByte(SyncFrames.ACK);
+        out.writeInt(1);
+        out.writeInt(0);
+        assertReadFails(bytes);
+
+        // more ops than the frame can hold
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        out.writeInt(9);
+        out.writeByte(SyncFrames.OPS);
+        out.writeInt(1);
+        out.writeInt(1000);
+        assertReadFails(bytes);
+
+        // cut short
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        SyncFrames.writeOps(out, 1, new long[]{1L}, new byte[][]{{1, 2, 3}}, 0, 1);
+        byte[] frame = bytes.toByteArray();
+        bytes = new ByteArrayOutputStream();
+        bytes.write(frame, 0, frame.length - 1);
+        assertReadFails(bytes);
+    }
+
+    private static void assertReadFails(ByteArrayOutputStream bytes) {
+        try {
+            SyncFrames.read(toInput(bytes));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.yang.drawpad;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TileMirrorTest {
+
+    private static final long TIMEOUT = 10;   // s
+
+    private static class Viewer implements TileMirrorReceiver.OnFrameListener {
+        final Semaphore frames = new Semaphore(0);
+        final TileMirrorReceiver receiver;
+
+        Viewer(int port) {
+            receiver = new TileMirrorReceiver("127.0.0.1", port, this);
+        }
+
+        @Override
+        public void onFrame(TileMirrorReceiver receiver) {
+            frames.release();
+        }
+
+        void awaitFrame() throws InterruptedException {
+            assertTrue("no frame", frames.tryAcquire(TIMEOUT, TimeUnit.SECONDS));
+        }
+
+        void assertShows(Bitmap screen) {
+            assertEquals(screen.getWidth(), receiver.getWidth());
+            assertEquals(screen.getHeight(), receiver.getHeight());
+            Bitmap shown = Bitmap.createBitmap(screen.getWidth(), screen.getHeight(), Bitmap.Config.ARGB_8888);
+            assertTrue(receiver.copyTo(shown));
+            assertArrayEquals(getPixels(screen), getPixels(shown));
+        }
+    }
+
+    private TileMirror mirror;
+    private Viewer first;
+    private Viewer late;
+
+    @Before
+    public void setUp() throws Exception {
+        mirror = new TileMirror(0);
+        mirror.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Viewer viewer : new Viewer[]{first, late}) {
+            if (viewer != null) {
+                viewer.receiver.stop();
+            }
+        }
+        mirror.stop();
+    }
+
+    private static int[] getPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    /**
+     * @return a canvas with areas of a single color, as drawings are, and a few noisy tiles
+     */
+    private static Bitmap paint(int width, int height, int seed) {
+        Bitmap screen = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = x < 40 && y < 30 ? (x * 31 + y * 17 + seed) * 0x010203 : 0;
+                pixels[y * width + x] = 0xff000000 | (x / 24 * 0x203040 + y / 16 * 0x102030 + noise);
+            }
+        }
+        screen.setPixels(pixels, 0, width, 0, 0, width, height);
+        return screen;
+    }
+
+    private void awaitReceivers(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        while (mirror.getReceiverCount() < count) {
+            assertTrue("not connected", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void receiversShowTheCanvas() throws Exception {
+        first = new Viewer(mirror.getPort());
+        first.receiver.start();
+        awaitReceivers(1);
+
+        // the size is not a multiple of the tile size, the last tiles are cut
+        Bitmap screen = paint(150, 100, 0);
+        mirror.capture(screen);
+        first.awaitFrame();
+        first.assertShows(screen);
+
+        // a delta against the tiles sent, one of them partly changed
+        for (int y = 70; y < 90; y++) {
+            for (int x = 130; x < 150; x++) {
+                screen.setPixel(x, y, 0xffff0000);
+            }
+        }
+        mirror.markDirty(new Rect(130, 70, 150, 90));
+        mirror.capture(screen);
+        first.awaitFrame();
+        first.assertShows(screen);
+
+        // a tile marked but not changed is not sent, the next change still applies
+        screen.setPixel(5, 5, 0xff00ff00);
+        mirror.markDirty(new Rect(0, 0, 150, 100));
+        mirror.capture(screen);
+        first.awaitFrame();
+        first.assertShows(screen);
+
+        // one joining later is sent a keyframe of the tiles as they are
+        late = new Viewer(mirror.getPort());
+        late.receiver.start();
+        late.awaitFrame();
+        late.assertShows(screen);
+        assertEquals(0, first.frames.availablePermits());
+
+        // a resize is a keyframe for everyone
+        Bitmap resized = paint(200, 70, 5);
+        mirror.capture(resized);
+        first.awaitFrame();
+        late.awaitFrame();
+        first.assertShows(resized);
+        late.assertShows(resized);
+
+        // and the deltas go on from it
+        resized.setPixel(199, 69, 0xff0000ff);
+        mirror.markDirty(new Rect(199, 69, 200, 70));
+        mirror.capture(resized);
+        first.awaitFrame();
+        late.awaitFrame();
+        first.assertShows(resized);
+        late.assertShows(resized);
+    }
+}
@@ -0,0 +1,143 @@
+package com.yang.drawpad;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TileUndoStoreTest {
+    private static final int SIZE = TileUndoStore.TILE_SIZE;
+
+    private static class IntPixels implements TileUndoStore.Pixels {
+        final int width;
+        final int height;
+        final int[] pixels;
+
+        IntPixels(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public void read(int[] dst, int x, int y, int width, int height) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(pixels, (y + row) * this.width + x, dst, row * width, width);
+            }
+        }
+
+        @Override
+        public void write(int[] src, int x, int y, int width, int height) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(src, row * width, pixels, (y + row) * this.width + x, width);
+            }
+        }
+
+        void fill(int left, int top, int right, int bottom, int color) {
+            for (int y = top; y < bottom; y++) {
+                Arrays.fill(pixels, y * width + left, y * width + right, color);
+            }
+        }
+    }
+
+    private static void draw(TileUndoStore store, Object stroke, IntPixels bitmap,
+                             int left, int top, int right, int bottom, int color) {
+        store.captureBefore(stroke, bitmap, left, top, right, bottom);
+        bitmap.fill(left, top, right, bottom, color);
+        store.captureAfter(stroke, bitmap);
+    }
+
+    @Test
+    public void undoAndRedoRestoreTheTiles() throws Exception {
+        // the edge tiles are smaller than TILE_SIZE
+        IntPixels bitmap = new IntPixels(SIZE * 2 + 30, SIZE + 17);
+        bitmap.fill(0, 0, bitmap.width, bitmap.height, 0xFFFFFFFF);
+        int[] before = bitmap.pixels.clone();
+
+        Object stroke = new Object();
+        TileUndoStore store = new TileUndoStore();
+        draw(store, stroke, bitmap, 100, 100, bitmap.width, bitmap.height, 0xFF0000FF);
+        int[] after = bitmap.pixels.clone();
+        assertEquals(1, store.size());
+
+        assertTrue(store.undo(stroke, bitmap));
+        assertArrayEquals(before, bitmap.pixels);
+        assertTrue(store.redo(stroke, bitmap));
+        assertArrayEquals(after, bitmap.pixels);
+        assertFalse(store.undo(new Object(), bitmap));
+    }
+
+    @Test
+    public void boundsOutsideTheBitmapAreClipped() throws Exception {
+        IntPixels bitmap = new IntPixels(SIZE, SIZE);
+        TileUndoStore store = new TileUndoStore();
+        Object stroke = new Object();
+        store.captureBefore(stroke, bitmap, -50, -50, SIZE + 50, SIZE + 50);
+        store.captureAfter(stroke, bitmap);
+        assertEquals(1, store.size());
+
+        Object outside = new Object();
+        store.captureBefore(outside, bitmap, SIZE + 1, 0, SIZE + 20, 20);
+        store.captureAfter(outside, bitmap);
+        assertEquals(1, store.size());
+        assertFalse(store.undo(outside, bitmap));
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedPastTheBudget() throws Exception {
+        IntPixels bitmap = new IntPixels(SIZE * 4, SIZE);
+        TileUndoStore probe = new TileUndoStore();
+        // noise compresses badly, every entry takes about the same bytes
+        Object[] strokes = new Object[4];
+        for (int i = 0; i < strokes.length; i++) {
+            strokes[i] = new Object();
+        }
+        for (int i = 0; i < bitmap.pixels.length; i++) {
+            bitmap.pixels[i] = i * 31 % 7;
+        }
+        draw(probe, strokes[0], bitmap, 0, 0, SIZE, SIZE, 1);
+        int entryBytes = probe.getBytesUsed();
+        assertTrue(entryBytes > 0);
+
+        TileUndoStore store = new TileUndoStore(entryBytes * 2 + entryBytes / 2);
+        for (int i = 0; i < strokes.length; i++) {
+            for (int k = i * SIZE * SIZE; k < (i + 1) * SIZE * SIZE; k++) {
+                bitmap.pixels[k] = k * 31 % 7;
+            }
+            draw(store, strokes[i], bitmap, i * SIZE, 0, (i + 1) * SIZE, SIZE, 1);
+            assertTrue(store.getBytesUsed() <= entryBytes * 2 + entryBytes / 2);
+        }
+        assertEquals(2, store.size());
+        assertFalse(store.undo(strokes[0], bitmap));
+        assertFalse(store.undo(strokes[1], bitmap));
+        assertTrue(store.undo(strokes[2], bitmap));
+        assertTrue(store.undo(strokes[3], bitmap));
+
+        store.remove(strokes[3]);
+        assertEquals(1, store.size());
+        assertEquals(entryBytes, store.getBytesUsed(), entryBytes / 10);
+    }
+
+    @Test
+    public void entryLargerThanTheBudgetIsNotKept() throws Exception {
+        IntPixels bitmap = new IntPixels(SIZE, SIZE);
+        for (int i = 0; i < bitmap.pixels.length; i++) {
+            bitmap.pixels[i] = i;
+        }
+        TileUndoStore store = new TileUndoStore(1024);
+        draw(store, new Object(), bitmap, 0, 0, SIZE, SIZE, 0);
+        assertEquals(0, store.size());
+        assertEquals(0, store.getBytesUsed());
+    }
+}